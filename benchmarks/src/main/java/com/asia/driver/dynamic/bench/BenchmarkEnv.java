@@ -0,0 +1,286 @@
+package com.asia.driver.dynamic.bench;
+
+import com.asia.driver.dynamic.bean.DbInfo;
+import com.asia.driver.dynamic.bean.DriverInfo;
+import com.asia.driver.dynamic.bean.DriverMapping;
+import com.asia.driver.dynamic.loader.LoaderContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * @author wangwei
+ * @date 2024/03/26
+ * 基准测试环境：在临时目录下按driver/类型/版本/x.jar的结构写出桩驱动包和driver.properties，
+ * 并通过proxy.driver.config.path指向该目录。必须在代理驱动的任何类初始化之前调用{@link #install()}。
+ */
+public final class BenchmarkEnv {
+
+    public static final String DB_TYPE = "postgresql";
+
+    public static final String DB_VERSION = "9.6";
+
+    public static final String REAL_URL = "jdbc:postgresql://127.0.0.1:5432/bench";
+
+    public static final String PROXY_URL = "proxy:" + REAL_URL + "?proxyDbVersion=" + DB_VERSION;
+
+    // 驱动包在配置目录下的相对路径，与ValueParser要求的层级一致
+    public static final String STUB_JAR = "postgresql/42_1_1/postgresql-42.1.1.jar";
+
+    // 桩驱动的公共类，资源路径为stub/下的类文件
+    private static final String[] STUB_BASE_CLASSES = {
+            "com/asia/driver/dynamic/stub/StubDriver.class",
+            "com/asia/driver/dynamic/stub/StubConnection.class"
+    };
+
+    // 负载测试路由使用的驱动包：数据库类型、驱动包相对路径、驱动类文件，与DriverEnum一致
+    private static final String[][] ROUTE_JARS = {
+            {"postgresql", STUB_JAR, "org/postgresql/Driver.class"},
+            {"mysql", "mysql/5_1_47/mysql-connector-java-5.1.47.jar", "com/mysql/jdbc/Driver.class"},
+            {"postgresql", "postgresql/42_2_26/postgresql-42.2.26.jar", "org/postgresql/Driver.class"},
+            {"mysql", "mysql/8_0_19/mysql-connector-java-8.0.19.jar", "com/mysql/cj/jdbc/Driver.class"}
+    };
+
+    // 合成驱动包使用的数据库类型和驱动类，驱动类通过META-INF/services/java.sql.Driver声明
+    private static final String[][] SYNTHETIC_DRIVERS = {
+            {"postgresql", "org/postgresql/Driver.class", "org.postgresql.Driver"},
+            {"mysql", "com/mysql/cj/jdbc/Driver.class", "com.mysql.cj.jdbc.Driver"}
+    };
+
+    // 合成驱动包的主版本号，不与内置驱动版本重叠
+    private static final int SYNTHETIC_MAJOR = 90;
+
+    // 每个驱动目录中的公共桩类包，内容相同，由共享依赖层加载
+    public static final String STUB_COMMON_JAR = "stub-common.jar";
+
+    // 写入jar的条目时间，保证各目录中的公共包内容完全相同
+    private static final long ENTRY_TIME = 946684800000L;
+
+    private static Path configDir;
+
+    private static List<String> routeUrls = new ArrayList<>();
+
+    private BenchmarkEnv() {
+    }
+
+    /**
+     * 写出桩驱动包和配置文件，重复调用返回同一个目录
+     *
+     * @return 配置目录
+     */
+    public static Path install() {
+        return install(0, new Properties());
+    }
+
+    /**
+     * 写出桩驱动包和配置文件，除了默认路由外再生成routes个路由，依次使用postgresql和mysql的桩驱动包。
+     * 每个路由是独立的映射，有自己的类加载器和驱动实例。一个进程只能安装一次。
+     * 桩驱动的公共类和stub.properties写在各驱动目录的{@link #STUB_COMMON_JAR}中，驱动包只包含驱动类。
+     *
+     * @param routes     额外的路由数量
+     * @param stubConfig 写入驱动包stub.properties的桩驱动配置
+     * @return 配置目录
+     */
+    public static Path install(int routes, Properties stubConfig) {
+        return install(routes, 0, stubConfig);
+    }
+
+    /**
+     * 同{@link #install(int, Properties)}，jars大于0时路由依次使用jars个合成的驱动包，而不是4个内置驱动版本的桩驱动包。
+     * 合成驱动包的目录为${dbType}/90_${i}，驱动版本不在驱动清单中，驱动类通过META-INF/services/java.sql.Driver声明，
+     * 每个驱动包另外写入序号，内容互不相同。
+     *
+     * @param routes     额外的路由数量
+     * @param jars       合成驱动包的数量，0表示使用内置驱动版本的桩驱动包
+     * @param stubConfig 写入驱动包stub.properties的桩驱动配置
+     * @return 配置目录
+     */
+    public static synchronized Path install(int routes, int jars, Properties stubConfig) {
+        if (configDir != null) {
+            return configDir;
+        }
+        try {
+            Path dir = Files.createTempDirectory("dynamic-driver-bench").resolve("driver");
+            StringBuilder config = new StringBuilder();
+            config.append(DB_TYPE).append('.').append(DB_VERSION.replace(".", "_")).append('=').append(STUB_JAR).append('\n');
+            for (String[] jar : ROUTE_JARS) {
+                Path driverJar = dir.resolve(jar[1]);
+                writeJar(driverJar, new String[]{jar[2]}, new Properties());
+                writeJar(driverJar.resolveSibling(STUB_COMMON_JAR), STUB_BASE_CLASSES, stubConfig);
+            }
+            String[][] routeJars = jars > 0 ? writeSyntheticJars(dir, jars, stubConfig) : ROUTE_JARS;
+            List<String> urls = new ArrayList<>(routes);
+            for (int i = 0; i < routes; i++) {
+                String[] jar = routeJars[i % routeJars.length];
+                String dbVersion = "100." + i;
+                config.append(jar[0]).append('.').append(dbVersion.replace(".", "_")).append('=').append(jar[1]).append('\n');
+                urls.add("proxy:" + realUrl(jar[0]) + "?proxyDbVersion=" + dbVersion);
+            }
+            Files.write(dir.resolve("driver.properties"), config.toString().getBytes(StandardCharsets.UTF_8));
+            System.setProperty("proxy.driver.config.path", dir.toString());
+            routeUrls = Collections.unmodifiableList(urls);
+            configDir = dir;
+            return dir;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 写出合成驱动包，依次使用{@link #SYNTHETIC_DRIVERS}中的驱动类
+     *
+     * @return 每个驱动包的数据库类型和相对路径
+     */
+    private static String[][] writeSyntheticJars(Path dir, int jars, Properties stubConfig) throws IOException {
+        String[][] routeJars = new String[jars][];
+        for (int i = 0; i < jars; i++) {
+            String[] driver = SYNTHETIC_DRIVERS[i % SYNTHETIC_DRIVERS.length];
+            String jarVersion = SYNTHETIC_MAJOR + "." + i;
+            String path = driver[0] + "/" + jarVersion.replace(".", "_") + "/" + driver[0] + "-" + jarVersion + ".jar";
+            Path driverJar = dir.resolve(path);
+            Map<String, String> extra = new LinkedHashMap<>();
+            extra.put("META-INF/services/java.sql.Driver", driver[2] + "\n");
+            extra.put("stub-jar.properties", "stub.jar=" + i + "\n");
+            writeJar(driverJar, new String[]{driver[1]}, new Properties(), extra);
+            writeJar(driverJar.resolveSibling(STUB_COMMON_JAR), STUB_BASE_CLASSES, stubConfig);
+            routeJars[i] = new String[]{driver[0], path, driver[1]};
+        }
+        return routeJars;
+    }
+
+    /**
+     * @return {@link #install(int, int, Properties)}生成的路由的代理URL
+     */
+    public static List<String> routeUrls() {
+        return routeUrls;
+    }
+
+    /**
+     * 数据库类型对应的真实URL，桩驱动只校验前缀
+     */
+    public static String realUrl(String dbType) {
+        return "mysql".equals(dbType) ? "jdbc:mysql://127.0.0.1:3306/bench" : REAL_URL;
+    }
+
+    /**
+     * 写出PostgreSQL桩驱动包
+     *
+     * @param jar 驱动包路径
+     */
+    public static void writeStubJar(Path jar) throws IOException {
+        writeStubJar(jar, "org/postgresql/Driver.class", new Properties());
+    }
+
+    /**
+     * 写出桩驱动包
+     *
+     * @param jar         驱动包路径
+     * @param driverClass 驱动类文件
+     * @param stubConfig  写入stub.properties的桩驱动配置
+     */
+    public static void writeStubJar(Path jar, String driverClass, Properties stubConfig) throws IOException {
+        String[] classes = Arrays.copyOf(STUB_BASE_CLASSES, STUB_BASE_CLASSES.length + 1);
+        classes[STUB_BASE_CLASSES.length] = driverClass;
+        writeJar(jar, classes, stubConfig);
+    }
+
+    private static void writeJar(Path jar, String[] classes, Properties stubConfig) throws IOException {
+        writeJar(jar, classes, stubConfig, Collections.emptyMap());
+    }
+
+    /**
+     * @param extra 额外写入的文本条目，条目名 -> 内容
+     */
+    private static void writeJar(Path jar, String[] classes, Properties stubConfig, Map<String, String> extra)
+            throws IOException {
+        Files.createDirectories(jar.getParent());
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+            for (String name : classes) {
+                writeEntry(out, name);
+            }
+            for (Map.Entry<String, String> text : extra.entrySet()) {
+                out.putNextEntry(entry(text.getKey()));
+                out.write(text.getValue().getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+            if (!stubConfig.isEmpty()) {
+                out.putNextEntry(entry("stub.properties"));
+                // Properties.store会写入当前时间的注释，按行排序后去掉注释
+                StringWriter text = new StringWriter();
+                stubConfig.store(text, null);
+                List<String> lines = new ArrayList<>();
+                for (String line : text.toString().split("\\R")) {
+                    if (!line.isEmpty() && !line.startsWith("#")) {
+                        lines.add(line);
+                    }
+                }
+                Collections.sort(lines);
+                out.write((String.join("\n", lines) + "\n").getBytes(StandardCharsets.ISO_8859_1));
+                out.closeEntry();
+            }
+        }
+    }
+
+    private static JarEntry entry(String name) {
+        JarEntry entry = new JarEntry(name);
+        entry.setTime(ENTRY_TIME);
+        return entry;
+    }
+
+    private static void writeEntry(JarOutputStream out, String name) throws IOException {
+        out.putNextEntry(entry(name));
+        try (InputStream in = BenchmarkEnv.class.getClassLoader().getResourceAsStream("stub/" + name)) {
+            if (in == null) {
+                throw new IOException("stub class not packaged : " + name);
+            }
+            copy(in, out);
+        }
+        out.closeEntry();
+    }
+
+    /**
+     * 注册count个不需要初始化的驱动映射，数据库类型为bench，版本为1.0到1.(count-1)
+     *
+     * @param count  映射数量
+     * @param driver 映射使用的驱动
+     * @return 最后一个映射的版本
+     */
+    public static String addMappings(int count, java.sql.Driver driver) {
+        List<DriverMapping> mappings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            DbInfo dbInfo = DbInfo.builder().dbType("bench").dbVersion("1." + i).build();
+            DriverInfo driverInfo = DriverInfo.builder()
+                    .dbType("bench")
+                    .jarVersion("1." + i)
+                    .jarAbsolutePath("bench-" + i + ".jar")
+                    .driver(driver)
+                    .build();
+            mappings.add(new DriverMapping(dbInfo, driverInfo));
+        }
+        LoaderContext.addDriverMappings(mappings);
+        return "1." + (count - 1);
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.asia.driver.dynamic.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * @author wangwei
+ * @date 2024/03/26
+ * 基准测试入口，参数与JMH命令行一致，默认附加gc profiler输出分配速率（gc.alloc.rate.norm）
+ *
+ * <pre>
+ *  java -jar benchmarks.jar                  运行全部基准测试
+ *  java -jar benchmarks.jar Match -p mappings=10000
+ * </pre>
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(cmd);
+        if (cmd.getProfilers().isEmpty()) {
+            builder.addProfiler(GCProfiler.class);
+        }
+        new Runner(builder.build()).run();
+    }
+}
@@ -0,0 +1,68 @@
+package com.asia.driver.dynamic.bench;
+
+import com.asia.driver.dynamic.loader.DriverClassLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author wangwei
+ * @date 2024/03/26
+ * DriverClassLoader.loadClass的开销：
+ * driverHit 驱动包中已加载的类；
+ * javaseHit 委托给JDK类加载器的类；
+ * miss      不存在的类，抛出ClassNotFoundException。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassLoaderBenchmark {
+
+    private DriverClassLoader loader;
+
+    @Setup
+    public void setup() throws Exception {
+        String jar = BenchmarkEnv.install().resolve(BenchmarkEnv.STUB_JAR).toString();
+        loader = new DriverClassLoader(new URL[]{new URL("jar:file:" + jar + "!/")});
+        loader.loadClass("org.postgresql.Driver");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        loader.close();
+    }
+
+    @Benchmark
+    public Class<?> driverHit() throws ClassNotFoundException {
+        return loader.loadClass("org.postgresql.Driver");
+    }
+
+    @Benchmark
+    public Class<?> javaseHit() throws ClassNotFoundException {
+        return loader.loadClass("java.sql.Connection");
+    }
+
+    @Benchmark
+    public Object miss() {
+        try {
+            return loader.loadClass("org.postgresql.util.Missing");
+        } catch (ClassNotFoundException e) {
+            return e;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.asia.driver.dynamic.bench;
+
+import com.asia.driver.dynamic.Driver;
+import com.asia.driver.dynamic.match.BasicDriverMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author wangwei
+ * @date 2024/03/26
+ * 端到端连接开销，真实驱动为桩驱动：
+ * proxyConnect  通过代理驱动连接；
+ * directConnect 直接调用匹配到的真实驱动，两者之差即代理层的开销。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConnectBenchmark {
+
+    private Driver proxy;
+
+    private java.sql.Driver real;
+
+    private Properties info;
+
+    @Setup
+    public void setup() {
+        BenchmarkEnv.install();
+        proxy = new Driver();
+        real = new BasicDriverMatcher().match(BenchmarkEnv.DB_TYPE, BenchmarkEnv.DB_VERSION);
+        info = new Properties();
+        info.setProperty("user", "bench");
+        info.setProperty("password", "bench");
+    }
+
+    @Benchmark
+    public Connection proxyConnect() throws SQLException {
+        Connection connection = proxy.connect(BenchmarkEnv.PROXY_URL, info);
+        connection.close();
+        return connection;
+    }
+
+    @Benchmark
+    public Connection directConnect() throws SQLException {
+        Connection connection = real.connect(BenchmarkEnv.REAL_URL, info);
+        connection.close();
+        return connection;
+    }
+}
@@ -0,0 +1,184 @@
+package com.asia.driver.dynamic.bench;
+
+import com.asia.driver.dynamic.Driver;
+import com.asia.driver.dynamic.metrics.LatencyHistogram;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author wangwei
+ * @date 2024/03/27
+ * 多线程连接压测：N个线程同时起跑，轮流连接M个路由，真实驱动为可配置延迟、抖动和失败率的桩驱动。
+ * 所有线程的第一次连接单独统计（冷启动，包含类加载器和驱动的初始化），之后的连接在预热期结束后统计。
+ *
+ * <pre>
+ *  java -cp benchmarks.jar com.asia.driver.dynamic.bench.LoadTest --threads 64 --routes 16 --duration 30 \
+ *      --latency 2 --jitter 3 --failure-rate 0.01 --init-latency 500
+ * </pre>
+ */
+public class LoadTest {
+
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    private static final String USAGE = "usage: --threads N --routes M --duration S --warmup S "
+            + "--latency MS --jitter MS --failure-rate R --init-latency MS";
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseArgs(args, USAGE);
+        int threads = Integer.parseInt(options.getOrDefault("threads", "16"));
+        int routes = Integer.parseInt(options.getOrDefault("routes", "4"));
+        long durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration", "10")));
+        long warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("warmup", "2")));
+
+        Properties stubConfig = new Properties();
+        stubConfig.setProperty("stub.connect.latency", options.getOrDefault("latency", "0"));
+        stubConfig.setProperty("stub.connect.jitter", options.getOrDefault("jitter", "0"));
+        stubConfig.setProperty("stub.connect.failure.rate", options.getOrDefault("failure-rate", "0"));
+        stubConfig.setProperty("stub.init.latency", options.getOrDefault("init-latency", "0"));
+        BenchmarkEnv.install(routes, stubConfig);
+        List<String> urls = BenchmarkEnv.routeUrls();
+
+        System.out.printf("threads=%d routes=%d duration=%ds warmup=%ds stub=%s%n", threads, routes,
+                TimeUnit.NANOSECONDS.toSeconds(durationNanos), TimeUnit.NANOSECONDS.toSeconds(warmupNanos), stubConfig);
+
+        Driver driver = new Driver();
+        Properties info = new Properties();
+        info.setProperty("user", "load");
+        info.setProperty("password", "load");
+
+        Stats cold = new Stats();
+        Stats steady = new Stats();
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>(threads);
+        long[] window = new long[2];
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            Thread worker = new Thread(() -> {
+                ready.countDown();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long measureFrom = window[0];
+                long deadline = window[1];
+                boolean first = true;
+                for (int i = offset; ; i++) {
+                    long begin = System.nanoTime();
+                    if (begin >= deadline) {
+                        break;
+                    }
+                    Stats stats = first ? cold : (begin >= measureFrom ? steady : null);
+                    first = false;
+                    connect(driver, urls.get(i % urls.size()), info, stats, begin);
+                }
+            }, "load-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+        ready.await();
+        long now = System.nanoTime();
+        window[0] = now + warmupNanos;
+        window[1] = now + warmupNanos + durationNanos;
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        cold.print("cold (first connect of each thread)", 0);
+        steady.print("steady", durationNanos);
+    }
+
+    private static void connect(Driver driver, String url, Properties info, Stats stats, long begin) {
+        try {
+            Connection connection = driver.connect(url, info);
+            connection.close();
+            if (stats != null) {
+                stats.success(System.nanoTime() - begin);
+            }
+        } catch (SQLException | RuntimeException e) {
+            if (stats != null) {
+                stats.failure(System.nanoTime() - begin, e);
+            }
+        }
+    }
+
+    /**
+     * 参数格式为--name value
+     */
+    static Map<String, String> parseArgs(String[] args, String usage) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException(usage);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    /**
+     * 一个统计区间内的延迟分布、成功和失败次数
+     */
+    private static final class Stats {
+
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        private final LongAdder success = new LongAdder();
+
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        // 异常类型和SQLState -> 失败次数
+        private final ConcurrentHashMap<String, LongAdder> failures = new ConcurrentHashMap<>();
+
+        private void success(long nanos) {
+            histogram.record(nanos);
+            max.accumulate(nanos);
+            success.increment();
+        }
+
+        private void failure(long nanos, Exception e) {
+            histogram.record(nanos);
+            max.accumulate(nanos);
+            String type = e.getClass().getSimpleName();
+            if (e instanceof SQLException) {
+                type += "(" + ((SQLException) e).getSQLState() + ")";
+            }
+            failures.computeIfAbsent(type, k -> new LongAdder()).increment();
+        }
+
+        private void print(String name, long durationNanos) {
+            long ok = success.sum();
+            long failed = failures.values().stream().mapToLong(LongAdder::sum).sum();
+            System.out.printf("%n== %s ==%n", name);
+            System.out.printf("connects : %d, success : %d, failure : %d%n", ok + failed, ok, failed);
+            if (durationNanos > 0) {
+                System.out.printf("throughput : %.1f connects/s%n", (ok + failed) * 1e9 / durationNanos);
+            }
+            StringBuilder line = new StringBuilder("latency(us) :");
+            long maxNanos = max.get();
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                // 直方图返回桶的上界，不超过实际的最大值
+                long nanos = Math.min(histogram.percentile(PERCENTILES[i]), maxNanos);
+                line.append(String.format(" %s=%.1f", PERCENTILE_NAMES[i], nanos / 1000.0));
+            }
+            line.append(String.format(" max=%.1f", maxNanos / 1000.0));
+            System.out.println(line);
+            failures.forEach((type, count) -> System.out.printf("failure %s : %d%n", type, count.sum()));
+        }
+    }
+}
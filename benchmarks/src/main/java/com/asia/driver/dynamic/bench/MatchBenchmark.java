@@ -0,0 +1,71 @@
+package com.asia.driver.dynamic.bench;
+
+import com.asia.driver.dynamic.loader.LoaderContext;
+import com.asia.driver.dynamic.match.BasicDriverMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Driver;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author wangwei
+ * @date 2024/03/26
+ * 不同映射数量下的驱动匹配开销：
+ * routeHit 命中路由表；
+ * scan     清空路由表后匹配最后一个映射，查找版本索引（包含清空路由表本身的开销）；
+ * nearest  清空路由表后匹配最后一个映射的下一个补丁版本，没有精确命中，按同一主版本就近匹配。
+ * 每个映射数量在单独的进程中运行，映射不会累积。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatchBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int mappings;
+
+    private BasicDriverMatcher matcher;
+
+    private String lastVersion;
+
+    private String nextPatch;
+
+    @Setup
+    public void setup() {
+        BenchmarkEnv.install();
+        matcher = new BasicDriverMatcher();
+        Driver stub = matcher.match(BenchmarkEnv.DB_TYPE, BenchmarkEnv.DB_VERSION);
+        lastVersion = BenchmarkEnv.addMappings(mappings, stub);
+        nextPatch = lastVersion + ".1";
+    }
+
+    @Benchmark
+    public Driver routeHit() {
+        return matcher.match("bench", lastVersion);
+    }
+
+    @Benchmark
+    public Driver scan() {
+        LoaderContext.getDriverRoutes().clear();
+        return matcher.match("bench", lastVersion);
+    }
+
+    @Benchmark
+    public Driver nearest() {
+        LoaderContext.getDriverRoutes().clear();
+        return matcher.match("bench", nextPatch);
+    }
+}
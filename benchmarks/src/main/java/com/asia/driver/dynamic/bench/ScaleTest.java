@@ -0,0 +1,173 @@
+package com.asia.driver.dynamic.bench;
+
+import com.asia.driver.dynamic.Driver;
+import com.asia.driver.dynamic.config.RoutingSnapshotFile;
+import com.asia.driver.dynamic.loader.LoaderContext;
+import com.asia.driver.dynamic.loader.SharedJarLayer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author wangwei
+ * @date 2024/03/28
+ * 规模测试：生成包含大量路由的driver.properties，测量配置解析耗时、从路由快照读取的耗时、每个路由映射的堆占用、
+ * 每个已加载驱动版本的堆和元空间占用，以及加载大量版本后的连接吞吐量，超出预算时以非0状态码退出。
+ *
+ * 每个路由是独立的映射，初始化后有自己的类加载器和驱动实例。路由依次使用jars个合成的驱动包（默认与load相同，
+ * 每个加载的版本一个驱动包），合成驱动包的版本不在驱动清单中，驱动类通过META-INF/services/java.sql.Driver发现。
+ * 加上-Dproxy.driver.shared.layer=true时各目录中相同的公共桩类包由共享依赖层加载，加载阶段前等待共享依赖层在后台构建完成，
+ * 加载阶段后输出共享依赖层节省的元空间报告，与不加时对比每个版本的元空间占用。
+ *
+ * <pre>
+ *  java -cp benchmarks.jar com.asia.driver.dynamic.bench.ScaleTest --keys 100000 --load 500 \
+ *      --max-parse-ms 20000 --max-metaspace-per-version-kb 256
+ * </pre>
+ */
+public class ScaleTest {
+
+    private static final String USAGE = "usage: --keys N --load N --jars N --threads N --duration S "
+            + "--max-parse-ms MS --max-snapshot-load-ms MS --max-heap-per-key-bytes B --max-load-ms MS --max-heap-per-version-kb KB "
+            + "--max-metaspace-per-version-kb KB --min-connects-per-sec N";
+
+    private final List<String> violations = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = LoadTest.parseArgs(args, USAGE);
+        int keys = Integer.parseInt(options.getOrDefault("keys", "100000"));
+        int load = Math.min(keys, Integer.parseInt(options.getOrDefault("load", "500")));
+        int jars = Integer.parseInt(options.getOrDefault("jars", String.valueOf(load)));
+        int threads = Integer.parseInt(options.getOrDefault("threads", "8"));
+        long durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration", "5")));
+
+        ScaleTest test = new ScaleTest();
+        System.out.printf("keys=%d load=%d jars=%d threads=%d duration=%ds%n", keys, load, jars, threads,
+                TimeUnit.NANOSECONDS.toSeconds(durationNanos));
+
+        // 1.生成配置并解析
+        BenchmarkEnv.install(keys, jars, new Properties());
+        List<String> urls = BenchmarkEnv.routeUrls();
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        int mappings = LoaderContext.getDriverMappings().size();
+        long parseMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        long heapPerKey = (usedHeap() - heapBefore) / Math.max(1, mappings);
+        System.out.printf("parse : %d mappings in %d ms, heap %d bytes/key%n", mappings, parseMillis, heapPerKey);
+        test.check("parse ms", parseMillis, Long.parseLong(options.getOrDefault("max-parse-ms", "30000")));
+        test.check("heap bytes per key", heapPerKey, Long.parseLong(options.getOrDefault("max-heap-per-key-bytes", "4096")));
+
+        // 解析时生成了路由快照，下次启动时直接读取快照
+        if (RoutingSnapshotFile.isEnabled()) {
+            start = System.nanoTime();
+            List<?> loaded = RoutingSnapshotFile.load(new Properties());
+            long snapshotMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (loaded == null || loaded.size() != mappings) {
+                test.violations.add("routing snapshot not loaded : " + RoutingSnapshotFile.getFile());
+            } else {
+                System.out.printf("snapshot : %d mappings in %d ms%n", loaded.size(), snapshotMillis);
+                test.check("snapshot load ms", snapshotMillis, Long.parseLong(options.getOrDefault("max-snapshot-load-ms", "5000")));
+            }
+        }
+
+        // 共享依赖层在后台构建，构建完成之前创建的类加载器不使用共享依赖
+        if (!SharedJarLayer.awaitBuilt(1, TimeUnit.MINUTES)) {
+            test.violations.add("shared layer not built in 1 minute");
+        }
+
+        // 2.初始化load个驱动版本，并各连接一次，加载连接路径上的类
+        Driver driver = new Driver();
+        heapBefore = usedHeap();
+        long metaspaceBefore = usedMetaspace();
+        start = System.nanoTime();
+        for (int i = 0; i < load; i++) {
+            driver.connect(urls.get(i), new Properties()).close();
+        }
+        long loadMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        long heapPerVersion = (usedHeap() - heapBefore) / Math.max(1, load) / 1024;
+        long metaspacePerVersion = (usedMetaspace() - metaspaceBefore) / Math.max(1, load) / 1024;
+        System.out.printf("load : %d versions in %d ms, heap %d KB/version, metaspace %d KB/version%n",
+                load, loadMillis, heapPerVersion, metaspacePerVersion);
+        if (SharedJarLayer.isEnabled()) {
+            System.out.println(SharedJarLayer.report());
+        }
+        test.check("load ms", loadMillis, Long.parseLong(options.getOrDefault("max-load-ms", "60000")));
+        test.check("heap KB per version", heapPerVersion, Long.parseLong(options.getOrDefault("max-heap-per-version-kb", "512")));
+        test.check("metaspace KB per version", metaspacePerVersion,
+                Long.parseLong(options.getOrDefault("max-metaspace-per-version-kb", "512")));
+
+        // 3.在已加载的版本上测量连接吞吐量
+        long connects = connect(driver, urls.subList(0, Math.max(1, load)), threads, durationNanos);
+        long perSecond = connects * TimeUnit.SECONDS.toNanos(1) / durationNanos;
+        System.out.printf("connect : %d connects/s%n", perSecond);
+        test.checkMin("connects per sec", perSecond, Long.parseLong(options.getOrDefault("min-connects-per-sec", "10000")));
+
+        if (!test.violations.isEmpty()) {
+            System.out.println();
+            test.violations.forEach(v -> System.out.println("OVER BUDGET " + v));
+            System.exit(1);
+        }
+        System.out.println("all budgets met");
+    }
+
+    private static long connect(Driver driver, List<String> urls, int threads, long durationNanos) throws InterruptedException {
+        Properties info = new Properties();
+        LongAdder connects = new LongAdder();
+        long deadline = System.nanoTime() + durationNanos;
+        List<Thread> workers = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            Thread worker = new Thread(() -> {
+                for (int i = offset; System.nanoTime() < deadline; i++) {
+                    try {
+                        Connection connection = driver.connect(urls.get(i % urls.size()), info);
+                        connection.close();
+                        connects.increment();
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }, "scale-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return connects.sum();
+    }
+
+    private void check(String name, long actual, long budget) {
+        if (actual > budget) {
+            violations.add(name + " : " + actual + " > " + budget);
+        }
+    }
+
+    private void checkMin(String name, long actual, long budget) {
+        if (actual < budget) {
+            violations.add(name + " : " + actual + " < " + budget);
+        }
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long usedMetaspace() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if ("Metaspace".equals(pool.getName())) {
+                return pool.getUsage().getUsed();
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,55 @@
+package com.asia.driver.dynamic.bench;
+
+import com.asia.driver.dynamic.Driver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author wangwei
+ * @date 2024/03/26
+ * URL解析和acceptsURL的开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlBenchmark {
+
+    private static final String OTHER_URL = "jdbc:mysql://127.0.0.1:3306/bench";
+
+    private Driver driver;
+
+    @Setup
+    public void setup() {
+        BenchmarkEnv.install();
+        driver = new Driver();
+    }
+
+    @Benchmark
+    public Properties parseURL() {
+        return Driver.parseURL(BenchmarkEnv.PROXY_URL, null);
+    }
+
+    @Benchmark
+    public boolean acceptsProxyUrl() {
+        return driver.acceptsURL(BenchmarkEnv.PROXY_URL);
+    }
+
+    @Benchmark
+    public boolean acceptsOtherUrl() {
+        return driver.acceptsURL(OTHER_URL);
+    }
+}
@@ -0,0 +1,122 @@
+package com.asia.driver.dynamic.bench;
+
+import com.asia.driver.dynamic.bean.DbInfo;
+import com.asia.driver.dynamic.bean.DriverInfo;
+import com.asia.driver.dynamic.bean.DriverMapping;
+import com.asia.driver.dynamic.config.KeyParser;
+import com.asia.driver.dynamic.exception.ParseError;
+import com.asia.driver.dynamic.loader.LoaderContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * @author wangwei
+ * @date 2024/04/05
+ * 版本匹配的正确性检查：按driver.properties的键解析一组相互重叠的精确版本、通配符和区间，
+ * 检查包含和不包含端点、重叠时取范围最小的、范围相同时取配置靠前的、同一主版本就近匹配，
+ * 以及以x结尾但不是通配符的版本按字符串精确匹配，结果不符时以非0状态码退出。
+ * 与MatchBenchmark配合使用，修改版本索引后先运行本检查再测性能。
+ *
+ * <pre>
+ *  java -cp benchmarks.jar com.asia.driver.dynamic.bench.VersionMatchCheck
+ * </pre>
+ */
+public class VersionMatchCheck {
+
+    private static final String DB_TYPE = "range";
+
+    // 配置的键，按配置中的顺序
+    private static final String[][] KEYS = {
+            {"range.9_x", "wildcard-9"},
+            {"range.9_6", "exact-9.6"},
+            {"range.[10_0,12_5)", "range-10.0-12.5"},
+            {"range.[11_0,11_5]", "range-11.0-11.5"},
+            {"range.[11_0,11_5]", "range-11.0-11.5-later"},
+            {"range.(12_5,13_0)", "range-12.5-13.0"},
+            {"range.13_2", "exact-13.2"},
+            {"range.5_7_linux", "exact-5.7.linux"},
+            {"all.x", "wildcard-all"}
+    };
+
+    // 请求的版本和期望命中的映射，null表示找不到驱动
+    private static final String[][] CASES = {
+            {DB_TYPE, "9.6", "exact-9.6"},
+            {DB_TYPE, "9.6.0", "exact-9.6"},
+            {DB_TYPE, "9.6.1", "wildcard-9"},
+            {DB_TYPE, "9.1-log", "wildcard-9"},
+            {DB_TYPE, "10.0", "range-10.0-12.5"},
+            {DB_TYPE, "12.4.9", "range-10.0-12.5"},
+            {DB_TYPE, "12.5", null},
+            {DB_TYPE, "11.0", "range-11.0-11.5"},
+            {DB_TYPE, "11.5", "range-11.0-11.5"},
+            {DB_TYPE, "11.5.1", "range-10.0-12.5"},
+            {DB_TYPE, "12.5.1", "range-12.5-13.0"},
+            {DB_TYPE, "13.0", null},
+            {DB_TYPE, "13.2", "exact-13.2"},
+            {DB_TYPE, "13.4", "exact-13.2"},
+            {DB_TYPE, "13.1", null},
+            {DB_TYPE, "14.0", null},
+            {DB_TYPE, "8.0.33-log", null},
+            {DB_TYPE, "5.7.linux", "exact-5.7.linux"},
+            {DB_TYPE, "5.7.linu", null},
+            {DB_TYPE, "5.7", null},
+            {"all", "3.1", "wildcard-all"},
+            {"all", "V8R6", null}
+    };
+
+    // 格式错误、应该导致配置解析失败的键
+    private static final String[] ILLEGAL_KEYS = {
+            "range.abc_x", "range.[12_0,10_0)", "range.[10_0,10_0)", "range.[10_0,", "range.1_2_3_4_x"
+    };
+
+    public static void main(String[] args) {
+        BenchmarkEnv.install();
+        List<String> failures = new ArrayList<>();
+
+        List<DriverMapping> mappings = new ArrayList<>();
+        for (String[] key : KEYS) {
+            DbInfo dbInfo = parse(key[0]);
+            DriverInfo driverInfo = DriverInfo.builder()
+                    .dbType(dbInfo.getDbType())
+                    .jarVersion(dbInfo.getDbVersion())
+                    .jarAbsolutePath(key[1])
+                    .build();
+            mappings.add(new DriverMapping(dbInfo, driverInfo));
+        }
+        LoaderContext.addDriverMappings(mappings);
+
+        for (String[] c : CASES) {
+            DriverMapping mapping = LoaderContext.getSnapshot().find(c[0], c[1]);
+            String actual = mapping == null ? null : mapping.getDriverInfo().getJarAbsolutePath();
+            boolean ok = c[2] == null ? actual == null : c[2].equals(actual);
+            System.out.printf("%-4s %s:%-12s -> %s%n", ok ? "ok" : "FAIL", c[0], c[1], actual);
+            if (!ok) {
+                failures.add(c[0] + ":" + c[1] + " expected " + c[2] + " but was " + actual);
+            }
+        }
+
+        for (String key : ILLEGAL_KEYS) {
+            try {
+                parse(key);
+                failures.add(key + " should be rejected");
+                System.out.printf("FAIL %s accepted%n", key);
+            } catch (ParseError e) {
+                System.out.printf("ok   %s rejected%n", key);
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            System.out.println("FAILED : " + failures);
+            System.exit(1);
+        }
+        System.out.println("all " + (CASES.length + ILLEGAL_KEYS.length) + " checks passed");
+    }
+
+    private static DbInfo parse(String key) {
+        Properties properties = new Properties();
+        properties.setProperty(key, "unused.jar");
+        return new KeyParser(properties).parse().get(key);
+    }
+}
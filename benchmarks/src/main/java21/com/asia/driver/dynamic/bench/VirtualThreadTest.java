@@ -0,0 +1,141 @@
+package com.asia.driver.dynamic.bench;
+
+import com.asia.driver.dynamic.Driver;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author wangwei
+ * @date 2024/03/27
+ * 虚拟线程压测：N个虚拟线程同时起跑，每个线程轮流连接M个路由rounds次，桩驱动在连接时阻塞latency毫秒。
+ * 通过JFR的jdk.VirtualThreadPinned事件（阈值为0）统计连接路径上虚拟线程被固定在载体线程上的次数，
+ * 出现固定或连接失败时以退出码1结束。需要JDK 21编译（java21 profile）和运行。
+ *
+ * 默认先用平台线程把每个路由连接一次，只检查热路径；--cold true时跳过预热，类加载器和驱动的初始化也在虚拟线程中进行。
+ * 加上-Djdk.tracePinnedThreads=full时JDK会额外打印每次固定的完整栈。
+ *
+ * <pre>
+ *  java -Djdk.tracePinnedThreads=full -cp benchmarks.jar com.asia.driver.dynamic.bench.VirtualThreadTest \
+ *      --threads 10000 --routes 4 --rounds 3 --latency 20
+ * </pre>
+ */
+public class VirtualThreadTest {
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    // 最多打印的固定栈数量，相同的栈只打印一次
+    private static final int MAX_STACKS = 5;
+
+    private static final int MAX_FRAMES = 16;
+
+    private static final String USAGE = "usage: --threads N --routes M --rounds R --latency MS --cold true|false";
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = LoadTest.parseArgs(args, USAGE);
+        int threads = Integer.parseInt(options.getOrDefault("threads", "10000"));
+        int routes = Integer.parseInt(options.getOrDefault("routes", "4"));
+        int rounds = Integer.parseInt(options.getOrDefault("rounds", "3"));
+        long latency = Long.parseLong(options.getOrDefault("latency", "20"));
+        boolean cold = Boolean.parseBoolean(options.getOrDefault("cold", "false"));
+
+        Properties stubConfig = new Properties();
+        stubConfig.setProperty("stub.connect.latency", String.valueOf(latency));
+        BenchmarkEnv.install(routes, stubConfig);
+        List<String> urls = BenchmarkEnv.routeUrls();
+
+        System.out.printf("threads=%d routes=%d rounds=%d latency=%dms cold=%s%n", threads, routes, rounds, latency, cold);
+
+        Driver driver = new Driver();
+        Properties info = new Properties();
+        info.setProperty("user", "load");
+        info.setProperty("password", "load");
+        if (!cold) {
+            for (String url : urls) {
+                driver.connect(url, info).close();
+            }
+        }
+
+        LongAdder pinned = new LongAdder();
+        Map<String, LongAdder> stacks = new ConcurrentHashMap<>();
+        LongAdder success = new LongAdder();
+        Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+        long elapsedNanos;
+        try (RecordingStream recording = new RecordingStream()) {
+            recording.enable(PINNED_EVENT).withThreshold(Duration.ZERO).withStackTrace();
+            recording.onEvent(PINNED_EVENT, event -> {
+                pinned.increment();
+                stacks.computeIfAbsent(stack(event), k -> new LongAdder()).increment();
+            });
+            recording.startAsync();
+
+            CountDownLatch start = new CountDownLatch(1);
+            long begin;
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int t = 0; t < threads; t++) {
+                    int offset = t;
+                    executor.execute(() -> {
+                        try {
+                            start.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        for (int i = 0; i < rounds; i++) {
+                            String url = urls.get((offset + i) % urls.size());
+                            try (Connection ignored = driver.connect(url, info)) {
+                                success.increment();
+                            } catch (SQLException | RuntimeException e) {
+                                failures.computeIfAbsent(e.getClass().getSimpleName() + " : " + e.getMessage(),
+                                        k -> new LongAdder()).increment();
+                            }
+                        }
+                    });
+                }
+                begin = System.nanoTime();
+                start.countDown();
+            }
+            elapsedNanos = System.nanoTime() - begin;
+            // stop返回前会把已经产生的事件全部交给回调
+            recording.stop();
+        }
+
+        long failed = failures.values().stream().mapToLong(LongAdder::sum).sum();
+        System.out.printf("%nconnects : %d, success : %d, failure : %d%n", success.sum() + failed, success.sum(), failed);
+        // 没有固定时所有线程同时阻塞，总耗时接近rounds * latency；载体线程被固定时连接按载体数量串行
+        System.out.printf("elapsed : %dms (lower bound %dms)%n", TimeUnit.NANOSECONDS.toMillis(elapsedNanos), rounds * latency);
+        System.out.printf("pinned : %d%n", pinned.sum());
+        stacks.entrySet().stream().limit(MAX_STACKS).forEach(e ->
+                System.out.printf("%n-- pinned %d times --%n%s", e.getValue().sum(), e.getKey()));
+        failures.forEach((type, count) -> System.out.printf("failure %s : %d%n", type, count.sum()));
+        if (pinned.sum() > 0 || failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static String stack(RecordedEvent event) {
+        if (event.getStackTrace() == null) {
+            return "<no stack trace>\n";
+        }
+        StringBuilder text = new StringBuilder();
+        List<RecordedFrame> frames = event.getStackTrace().getFrames();
+        for (int i = 0; i < frames.size() && i < MAX_FRAMES; i++) {
+            RecordedFrame frame = frames.get(i);
+            text.append("    at ").append(frame.getMethod().getType().getName()).append('.')
+                    .append(frame.getMethod().getName()).append(':').append(frame.getLineNumber()).append('\n');
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,61 @@
+package com.asia.driver.dynamic.stub;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+
+/**
+ * @author wangwei
+ * @date 2024/03/26
+ * 桩连接，只支持关闭、校验和自动提交相关的方法，其余方法返回默认值
+ */
+public class StubConnection implements InvocationHandler {
+
+    private final String url;
+
+    private volatile boolean closed;
+
+    public StubConnection(String url) {
+        this.url = url;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "close":
+                closed = true;
+                return null;
+            case "isClosed":
+                return closed;
+            case "isValid":
+                return !closed;
+            case "getAutoCommit":
+                return true;
+            case "isWrapperFor":
+                return false;
+            case "unwrap":
+                throw new SQLException("not a wrapper");
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "StubConnection[" + url + "]";
+            default:
+                return defaultValue(method.getReturnType());
+        }
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,134 @@
+package com.asia.driver.dynamic.stub;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * @author wangwei
+ * @date 2024/03/26
+ * 不连接数据库的桩驱动，connect返回一个只记录关闭状态的连接。
+ * 只依赖JDK，和具体驱动类一起写入驱动包，由代理驱动的隔离类加载器加载。
+ *
+ * 驱动包根目录下的stub.properties配置模拟的行为，连接参数中的同名参数优先：
+ * stub.connect.latency       每次连接的固定延迟（毫秒），默认0
+ * stub.connect.jitter        在固定延迟上增加0到jitter之间的随机延迟（毫秒），默认0
+ * stub.connect.failure.rate  连接失败的概率（0到1），失败时抛出SQLState为08001的异常，默认0
+ * stub.init.latency          驱动类初始化的延迟（毫秒），模拟冷启动，默认0
+ */
+public class StubDriver implements java.sql.Driver {
+
+    private static final Class<?>[] CONNECTION_INTERFACES = new Class<?>[]{Connection.class};
+
+    public static final String CONNECT_LATENCY = "stub.connect.latency";
+
+    public static final String CONNECT_JITTER = "stub.connect.jitter";
+
+    public static final String CONNECT_FAILURE_RATE = "stub.connect.failure.rate";
+
+    public static final String INIT_LATENCY = "stub.init.latency";
+
+    private static final Properties CONFIG = loadConfig();
+
+    static {
+        sleep(Long.parseLong(CONFIG.getProperty(INIT_LATENCY, "0")), 0);
+    }
+
+    private final String urlPrefix;
+
+    private final int majorVersion;
+
+    private final int minorVersion;
+
+    protected StubDriver(String urlPrefix, int majorVersion, int minorVersion) {
+        this.urlPrefix = urlPrefix;
+        this.majorVersion = majorVersion;
+        this.minorVersion = minorVersion;
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        sleep(Long.parseLong(config(CONNECT_LATENCY, info, "0")), Long.parseLong(config(CONNECT_JITTER, info, "0")));
+        double failureRate = Double.parseDouble(config(CONNECT_FAILURE_RATE, info, "0"));
+        if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+            throw new SQLException("stub connect failure : " + url, "08001");
+        }
+        return (Connection) Proxy.newProxyInstance(StubDriver.class.getClassLoader(),
+                CONNECTION_INTERFACES, new StubConnection(url));
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith(urlPrefix);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return majorVersion;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return minorVersion;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    private static String config(String name, Properties info, String defaultValue) {
+        String value = info == null ? null : info.getProperty(name);
+        return value != null ? value : CONFIG.getProperty(name, defaultValue);
+    }
+
+    private static Properties loadConfig() {
+        Properties config = new Properties();
+        ClassLoader loader = StubDriver.class.getClassLoader();
+        if (loader == null) {
+            return config;
+        }
+        try (InputStream in = loader.getResourceAsStream("stub.properties")) {
+            if (in != null) {
+                config.load(in);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to load stub.properties", e);
+        }
+        return config;
+    }
+
+    private static void sleep(long latencyMillis, long jitterMillis) {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+        if (jitterMillis > 0) {
+            nanos += ThreadLocalRandom.current().nextLong(TimeUnit.MILLISECONDS.toNanos(jitterMillis) + 1);
+        }
+        long deadline = System.nanoTime() + nanos;
+        while (nanos > 0) {
+            LockSupport.parkNanos(nanos);
+            nanos = deadline - System.nanoTime();
+        }
+    }
+}
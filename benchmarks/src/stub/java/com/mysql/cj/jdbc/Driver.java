@@ -0,0 +1,26 @@
+package com.mysql.cj.jdbc;
+
+import com.asia.driver.dynamic.stub.StubDriver;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+/**
+ * @author wangwei
+ * @date 2024/03/27
+ * 与MySQL 8.x驱动同名的桩驱动，对应DriverEnum中mysql 8.0.19的驱动类
+ */
+public class Driver extends StubDriver {
+
+    static {
+        try {
+            DriverManager.registerDriver(new Driver());
+        } catch (SQLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public Driver() {
+        super("jdbc:mysql:", 8, 0);
+    }
+}
@@ -0,0 +1,26 @@
+package org.postgresql;
+
+import com.asia.driver.dynamic.stub.StubDriver;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+/**
+ * @author wangwei
+ * @date 2024/03/26
+ * 与PostgreSQL驱动同名的桩驱动，对应DriverEnum中postgresql的驱动类
+ */
+public class Driver extends StubDriver {
+
+    static {
+        try {
+            DriverManager.registerDriver(new Driver());
+        } catch (SQLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public Driver() {
+        super("jdbc:postgresql:", 42, 1);
+    }
+}
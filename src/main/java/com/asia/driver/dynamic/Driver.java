@@ -5,10 +5,25 @@
 
 package com.asia.driver.dynamic;
 
+import com.asia.driver.dynamic.async.AsyncConnector;
+import com.asia.driver.dynamic.bean.ProxyUrl;
 import com.asia.driver.dynamic.enums.ProxyProperty;
 import com.asia.driver.dynamic.exception.ProxyDriverError;
 import com.asia.driver.dynamic.adapt.BasicDriverMatcherAdapter;
+import com.asia.driver.dynamic.loader.ConfigWatcher;
+import com.asia.driver.dynamic.loader.DriverEvictor;
+import com.asia.driver.dynamic.match.ServerVersionDiscovery;
+import com.asia.driver.dynamic.loader.DriverInitializer;
+import com.asia.driver.dynamic.loader.LoaderContext;
+import com.asia.driver.dynamic.jfr.DriverEvents;
+import com.asia.driver.dynamic.log.DriverLog;
+import com.asia.driver.dynamic.metrics.ConnectMetrics;
+import com.asia.driver.dynamic.metrics.RouteMetrics;
+import com.asia.driver.dynamic.pool.ConnectionPool;
+import com.asia.driver.dynamic.pool.PoolContext;
+import com.asia.driver.dynamic.pool.PoolKey;
 import com.asia.driver.dynamic.utils.ProxyInfo;
+import com.asia.driver.dynamic.utils.ProxyUrlParser;
 
 
 import java.io.IOException;
@@ -17,7 +32,9 @@ import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
 import java.sql.*;
 import java.util.*;
-import java.util.logging.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
 
 
 
@@ -41,7 +58,7 @@ import java.util.logging.*;
 public class Driver implements java.sql.Driver {
 
     private static Driver registeredDriver;
-    private static final Logger LOGGER = Logger.getLogger("com.asia.driver.dynamic.Driver");
+    private static final DriverLog LOG = DriverLog.getLog(Driver.class);
     private static final Logger PARENT_LOGGER = Logger.getLogger("com.asia.driver.dynamic");
 
     static {
@@ -54,20 +71,27 @@ public class Driver implements java.sql.Driver {
         } catch (SQLException e) {
             throw new ExceptionInInitializerError(e);
         }
+        // eager模式下在后台预初始化所有驱动，这里不等待
+        DriverInitializer.start();
+        // 开启热加载时监听配置和驱动目录的变化
+        ConfigWatcher.start();
     }
 
     // Helper to retrieve default properties from classloader resource
     // properties files.
-    private Properties defaultProperties;
-
-    private synchronized Properties getDefaultProperties() throws IOException {
-        if (defaultProperties != null) {
-            return defaultProperties;
+    // Loading is idempotent, so concurrent first callers may both load and the last one wins. This
+    // keeps the connect path free of monitors, which would pin virtual threads.
+    private volatile Properties defaultProperties;
+
+    Properties getDefaultProperties() throws IOException {
+        Properties properties = defaultProperties;
+        if (properties != null) {
+            return properties;
         }
 
         // Make sure we load properties with the maximum possible privileges.
         try {
-            defaultProperties =
+            properties =
                     AccessController.doPrivileged(new PrivilegedExceptionAction<Properties>() {
                         public Properties run() throws IOException {
                             return loadDefaultProperties();
@@ -77,7 +101,8 @@ public class Driver implements java.sql.Driver {
             throw (IOException) e.getException();
         }
 
-        return defaultProperties;
+        defaultProperties = properties;
+        return properties;
     }
 
     private Properties loadDefaultProperties() throws IOException {
@@ -138,61 +163,232 @@ public class Driver implements java.sql.Driver {
      */
     @Override
     public Connection connect(String url, Properties info) throws SQLException {
-        LOGGER.info("------------------ enter proxy driver connect ------------------ ");
         if (url == null) {
             throw new SQLException("url is null");
         }
-        // get defaults
-        Properties defaults;
 
-        if (!url.startsWith("proxy:jdbc:")) {
+        // 解析url获取参数，相同的url直接命中缓存
+        ProxyUrl proxyUrl = ProxyUrlParser.parse(url);
+        if (proxyUrl == null) {
             return null;
         }
+
+        // eager-blocking模式下等待预初始化完成
+        DriverInitializer.awaitIfBlocking();
+
+        // get defaults
+        Properties defaults;
         try {
             defaults = getDefaultProperties();
         } catch (IOException ioe) {
             throw new ProxyDriverError("Error loading default settings param");
         }
 
-        // 获取默认参数值
-        Properties props = new Properties(defaults);
-        if (info != null) {
-            Set<String> e = info.stringPropertyNames();
-            for (String propName : e) {
-                String propValue = info.getProperty(propName);
-                if (propValue == null) {
-                    throw new ProxyDriverError(
-                            "Properties for the proxy driver contains a non-string value for the key "
-                                    + propName);
-                }
-                props.setProperty(propName, propValue);
+        // 连接参数中的代理参数优先于url中的代理参数
+        String dbType = proxyParam(ProxyProperty.DB_TYPE, proxyUrl, info);
+        String dbVersion = proxyParam(ProxyProperty.DB_VERSION, proxyUrl, info);
+        String realUrl = proxyParam(ProxyProperty.REAL_URL, proxyUrl, info);
+        Properties props = realDriverProperties(info, defaults);
+
+        // 按路由统计各阶段的耗时和失败次数，匹配到驱动之后才按路由统计，之前的失败记在unknown路由中
+        RouteMetrics metrics = null;
+        Object event = DriverEvents.beginConnect();
+        boolean success = false;
+        try {
+            // 没有指定数据库版本时探测数据库的版本，只有每个地址的第一次连接需要探测
+            if (dbVersion == null && ServerVersionDiscovery.isEnabled()) {
+                dbVersion = ServerVersionDiscovery.discover(dbType, realUrl, props);
             }
+            long start = System.nanoTime();
+            java.sql.Driver driver = matchDriver(dbType, dbVersion, proxyUrl);
+            long matched = System.nanoTime();
+            if (ConnectMetrics.isEnabled()) {
+                metrics = ConnectMetrics.of(dbType, dbVersion);
+            }
+
+            // 连接日志按路由采样，未开启debug时不做任何拼接
+            if (LOG.isDebugEnabled() && DriverLog.sample(dbType, dbVersion)) {
+                LOG.debug("proxy connect [{}:{}] real jdbc url : {}", dbType, dbVersion, realUrl);
+                LOG.debug("find driver version : {}.{}", driver.getMajorVersion(), driver.getMinorVersion());
+            }
+            Connection connection = connect(driver, realUrl, props, proxyUrl, info);
+            if (metrics != null) {
+                metrics.recordMatch(matched - start);
+                metrics.recordConnect(System.nanoTime() - matched);
+                metrics.success();
+            }
+            success = true;
+            return connection;
+        } catch (SQLException | RuntimeException e) {
+            if (ConnectMetrics.isEnabled()) {
+                ConnectMetrics.failure(metrics != null ? metrics : ConnectMetrics.unmatched(), e);
+            }
+            throw e;
+        } finally {
+            DriverEvents.endConnect(event, dbType, dbVersion, success);
         }
-        // 解析url获取参数
-        if ((props = parseURL(url, props)) == null) {
-            return null;
+    }
+
+    /**
+     * <p>Asynchronously make a database connection to the given URL. The connection is opened on a
+     * bounded executor dedicated to the target (dbType, dbVersion), so a slow database can not starve
+     * connects to the healthy ones.</p>
+     *
+     * <p>The deadline is taken from {@link DriverManager#getLoginTimeout()}, no deadline is applied
+     * when it is not set.</p>
+     *
+     * <p>When no database version is given and version discovery is enabled, the version is resolved
+     * first, from the discovery cache or by a background probe, so the connect runs on the executor of
+     * the discovered version.</p>
+     *
+     * @param url  the URL of the database to connect to
+     * @param info a list of arbitrary tag/value pairs as connection arguments
+     * @return a future of the connection, completed with null if the url isnt us
+     * @see #connectAsync(String, Properties, long)
+     */
+    public CompletableFuture<Connection> connectAsync(String url, Properties info) {
+        return connectAsync(url, info, TimeUnit.SECONDS.toMillis(DriverManager.getLoginTimeout()));
+    }
+
+    /**
+     * <p>Asynchronously make a database connection to the given URL.</p>
+     *
+     * <p>The future completes exceptionally with {@link java.sql.SQLTimeoutException} when the deadline
+     * passes, and with {@link SQLException} when too many connects to the same target are pending.
+     * Cancelling the future interrupts the pending connect, a connection that is established after
+     * the future was cancelled or timed out is closed.</p>
+     *
+     * @param url           the URL of the database to connect to
+     * @param info          a list of arbitrary tag/value pairs as connection arguments
+     * @param timeoutMillis the deadline in milliseconds, 0 means no deadline
+     * @return a future of the connection, completed with null if the url isnt us
+     */
+    public CompletableFuture<Connection> connectAsync(String url, Properties info, long timeoutMillis) {
+        ProxyUrl proxyUrl = ProxyUrlParser.parse(url);
+        if (proxyUrl == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        String dbType = proxyParam(ProxyProperty.DB_TYPE, proxyUrl, info);
+        String dbVersion = proxyParam(ProxyProperty.DB_VERSION, proxyUrl, info);
+        if (dbVersion != null || !ServerVersionDiscovery.isEnabled()) {
+            return AsyncConnector.submit(dbType, dbVersion, () -> connect(url, info), timeoutMillis);
+        }
+        // 先确定版本再选择线程池，连接使用确定的版本，不再重复探测
+        Properties props;
+        try {
+            props = realDriverProperties(info, getDefaultProperties());
+        } catch (IOException ioe) {
+            throw new ProxyDriverError("Error loading default settings param");
+        }
+        String realUrl = proxyParam(ProxyProperty.REAL_URL, proxyUrl, info);
+        return AsyncConnector.submit(dbType, ServerVersionDiscovery.discoverAsync(dbType, realUrl, props),
+                version -> () -> connect(url, withVersion(info, version)), timeoutMillis);
+    }
+
+    /**
+     * 在连接参数中设置数据库版本，不修改调用方的连接参数
+     */
+    private static Properties withVersion(Properties info, String dbVersion) {
+        Properties versioned = new Properties(info);
+        ProxyProperty.DB_VERSION.set(versioned, dbVersion);
+        return versioned;
+    }
+
+    /**
+     * 匹配真实驱动，优先命中路由表，未命中时通过适配器匹配驱动并回填路由表
+     *
+     * @param dbType    数据库类型
+     * @param dbVersion 数据库版本
+     * @param proxyUrl  代理URL
+     * @return 真实驱动
+     */
+    static java.sql.Driver matchDriver(String dbType, String dbVersion, ProxyUrl proxyUrl) {
+        java.sql.Driver driver = LoaderContext.getDriverRoutes().get(dbType, dbVersion);
+        if (driver == null) {
+            Properties matchProps = proxyUrl.toProperties();
+            ProxyProperty.DB_TYPE.set(matchProps, dbType);
+            ProxyProperty.DB_VERSION.set(matchProps, dbVersion);
+            // 适配器模式，内部适配到匹配器再进行驱动匹配
+            BasicDriverMatcherAdapter matcherAdapter = new BasicDriverMatcherAdapter(matchProps);
+            driver = matcherAdapter.match();
         }
+        return driver;
+    }
 
-        // 适配器模式，内部适配到匹配器再进行驱动匹配
-        BasicDriverMatcherAdapter matcherAdapter = new BasicDriverMatcherAdapter(props);
-        java.sql.Driver driver = matcherAdapter.match();
-
-        // 用于存储代理驱动的参数
-        Properties proxyProp = new Properties();
-        Set<Object> keys = new HashSet<>(props.keySet());
-        for (Object key : keys) {
-            if (ProxyProperty.forName((String) key) != null) {
-                // 真实驱动的参数
-                proxyProp.put(key, props.remove(key));
+    /**
+     * 通过真实驱动获取连接，开启内置连接池时从连接池借出逻辑连接
+     *
+     * @param driver   真实驱动
+     * @param realUrl  真实驱动的URL
+     * @param props    真实驱动的连接参数
+     * @param proxyUrl 代理URL
+     * @param info     调用方传入的连接参数
+     * @return 连接
+     * @throws SQLException 获取连接失败
+     */
+    static Connection connect(java.sql.Driver driver, String realUrl, Properties props, ProxyUrl proxyUrl,
+                              Properties info) throws SQLException {
+        DriverEvictor.touch(driver);
+        if (PoolContext.isEnabled(proxyParam(ProxyProperty.POOL_SIZE, proxyUrl, info))) {
+            PoolKey key = new PoolKey(realUrl, props.getProperty("user"), props.getProperty("password"), driver);
+            ConnectionPool pool = PoolContext.getPool(key);
+            if (pool == null) {
+                pool = PoolContext.createPool(key, proxyParams(proxyUrl, info), props);
             }
+            return pool.borrow();
         }
-        LOGGER.info("real jdbc url : "+ProxyProperty.REAL_URL.get(proxyProp));
-        LOGGER.info("find driver version : "+driver.getMajorVersion()+"."+driver.getMinorVersion());
-        Connection connection = driver.connect(ProxyProperty.REAL_URL.get(proxyProp), props);
-        LOGGER.info("------------------ finish proxy driver connect ------------------ ");
+        Connection connection = driver.connect(realUrl, props);
+        DriverEvictor.opened(driver, connection);
         return connection;
     }
 
+    /**
+     * 合并url和连接参数中的代理参数，连接参数中设置的值优先
+     */
+    private static Properties proxyParams(ProxyUrl proxyUrl, Properties info) {
+        Properties params = proxyUrl.toProperties();
+        if (info != null) {
+            for (ProxyProperty property : ProxyProperty.values()) {
+                String value = info.getProperty(property.getName());
+                if (value != null) {
+                    property.set(params, value);
+                }
+            }
+        }
+        return params;
+    }
+
+    /**
+     * 获取代理参数，连接参数中设置的值优先
+     */
+    static String proxyParam(ProxyProperty property, ProxyUrl proxyUrl, Properties info) {
+        String value = proxyUrl.get(property);
+        return info == null ? value : info.getProperty(property.getName(), value);
+    }
+
+    /**
+     * 获取真实驱动的连接参数，不包含代理参数且没有默认参数时直接透传，避免复制
+     *
+     * @param info     连接参数
+     * @param defaults 默认参数
+     * @return 真实驱动的连接参数
+     */
+    static Properties realDriverProperties(Properties info, Properties defaults) {
+        if (info == null) {
+            return new Properties(defaults);
+        }
+        if (defaults.isEmpty() && !ProxyUrlParser.containsProxyProperty(info)) {
+            return info;
+        }
+        Properties props = new Properties(defaults);
+        for (String propName : info.stringPropertyNames()) {
+            if (ProxyProperty.forName(propName) == null) {
+                props.setProperty(propName, info.getProperty(propName));
+            }
+        }
+        return props;
+    }
+
 
 
     /**
@@ -206,7 +402,7 @@ public class Driver implements java.sql.Driver {
      */
     @Override
     public boolean acceptsURL(String url) {
-        return parseURL(url, null) != null;
+        return ProxyUrlParser.isProxyUrl(url);
     }
 
     /**
@@ -287,65 +483,15 @@ public class Driver implements java.sql.Driver {
      * @return Properties with elements added from the url
      */
     public static Properties parseURL(String url, Properties defaults) {
-        Properties prop = new Properties();
-
-        if (!url.startsWith("proxy:jdbc:")) {
-            LOGGER.log(Level.FINE, "JDBC URL must start with \"proxy:jdbc:\" but was: {0}", url);
+        ProxyUrl proxyUrl = ProxyUrlParser.parse(url);
+        if (proxyUrl == null) {
+            LOG.debug("JDBC URL must start with \"proxy:jdbc:\" but was: {}", url);
             return null;
         }
-        //  url="proxy:jdbc:postgresql://${host}:${port}/postgres?dbversion=1.1.1&&aaa&&bb=true"
-        //  urlServer="jdbc:postgresql://${host}:${port}/postgres"
-        //  urlArgs="dbversion=1.1.1&&aaa&&bb=true"
-        String urlServer = url.substring("proxy:".length());
-        String urlArgs = "";
-        int qPos = urlServer.indexOf('?');
-        if (qPos != -1) {
-            urlArgs = urlServer.substring(qPos + 1);
-            urlServer = urlServer.substring(0, qPos);
-        }
-
-        //  dbType="postgresql"
-        String dbTypeServer = urlServer.substring("jdbc:".length());
-        int hostPos = dbTypeServer.indexOf(":");
-        String dbType = "";
-        if (hostPos != -1) {
-            dbType = dbTypeServer.substring(0, hostPos);
-        //  urlServer = urlServer.substring(hostPos + 1);
+        Properties prop = proxyUrl.toProperties();
+        if (defaults != null) {
+            prop.putAll(defaults);
         }
-        ProxyProperty.DB_TYPE.set(prop, dbType);
-
-
-        // 重组参数，屏蔽代理驱动的参数，获取真实驱动的url
-        String[] args = urlArgs.split("&");
-        StringBuilder urlSb = new StringBuilder(urlServer).append("?");
-        Properties argsProp = new Properties();
-        for (String token : args) {
-            if (token.isEmpty()) {
-                continue;
-            }
-            int pos = token.indexOf('=');
-            String paramName;
-            if (pos == -1) {
-                paramName = token;
-                argsProp.setProperty(token, "");
-            } else {
-                String pName = token.substring(0, pos);
-                paramName = pName;
-                String pValue = token.substring(pos + 1);
-                argsProp.setProperty(pName, pValue);
-            }
-            if (ProxyProperty.forName(paramName) != null) {
-                // 真实url需要屏蔽掉代理驱动的参数
-                prop.put(paramName, argsProp.get(paramName));
-                continue;
-            }
-            urlSb.append(token).append("&");
-        }
-        urlServer = urlSb.toString();
-        urlServer = (urlServer.endsWith("&") || urlServer.endsWith("?")) ? urlServer.substring(0, urlServer.length() - 1) : urlServer;
-
-        ProxyProperty.REAL_URL.set(prop, urlServer);
-        prop.putAll(defaults);
         return prop;
     }
 
@@ -357,8 +503,7 @@ public class Driver implements java.sql.Driver {
 
     /**
      * Register the driver against {@link DriverManager}. This is done automatically when the class is
-     * loaded. Dropping the driver from DriverManager's list is possible using
-     * method.
+     * loaded. Dropping the driver from DriverManager's list is possible using {@link #deregister()}.
      *
      * @throws IllegalStateException if the driver is already registered
      * @throws SQLException          if registering the driver fails
@@ -375,6 +520,25 @@ public class Driver implements java.sql.Driver {
 
 
 
+    /**
+     * According to JDBC specification, this driver is registered against {@link DriverManager} when
+     * the class is loaded. To avoid leaks, this method allow unregistering the driver so that the
+     * class can be gc'ed if necessary. The built-in connection pools are closed as well.
+     *
+     * @throws IllegalStateException if the driver is not registered
+     * @throws SQLException          if deregistering the driver fails
+     */
+    public static void deregister() throws SQLException {
+        if (!isRegistered()) {
+            throw new IllegalStateException(
+                    "Driver is not registered (or it has not been registered using Driver.register() method)");
+        }
+        PoolContext.closeAll();
+        AsyncConnector.shutdown();
+        DriverManager.deregisterDriver(registeredDriver);
+        registeredDriver = null;
+    }
+
     /**
      * @return {@code true} if the driver is registered against {@link DriverManager}
      */
@@ -0,0 +1,267 @@
+package com.asia.driver.dynamic;
+
+import com.asia.driver.dynamic.async.AsyncConnector;
+import com.asia.driver.dynamic.bean.ProxyUrl;
+import com.asia.driver.dynamic.enums.ProxyProperty;
+import com.asia.driver.dynamic.exception.ParamError;
+import com.asia.driver.dynamic.exception.ProxyDriverError;
+import com.asia.driver.dynamic.loader.DriverEvictor;
+import com.asia.driver.dynamic.loader.DriverInitializer;
+import com.asia.driver.dynamic.loader.LoaderContext;
+import com.asia.driver.dynamic.match.ServerVersionDiscovery;
+import com.asia.driver.dynamic.pool.ProxyPooledConnection;
+import com.asia.driver.dynamic.utils.ProxyUrlParser;
+
+import javax.sql.ConnectionPoolDataSource;
+import javax.sql.DataSource;
+import javax.sql.PooledConnection;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * @author wangwei
+ * @date 2024/03/14
+ * 代理数据源，创建时完成URL解析和驱动匹配，获取连接时直接调用真实驱动，不经过DriverManager。
+ * 开启数据库版本发现且没有指定版本时，第一次获取连接时探测版本再匹配驱动。
+ * 设置了loginTimeout时在{@link AsyncConnector}的连接线程池中建立连接，超时抛出SQLTimeoutException；
+ * 设置了logWriter时输出驱动重新匹配和连接失败的日志
+ *
+ * <pre>
+ *  DataSource ds = new ProxyDataSource("proxy:jdbc:postgresql://host:port/db?proxyDbVersion=9.6", info);
+ *  Connection conn = ds.getConnection();
+ * </pre>
+ */
+public class ProxyDataSource implements DataSource, ConnectionPoolDataSource {
+
+    private final ProxyUrl proxyUrl;
+
+    private final Properties info;
+
+    private final String dbType;
+
+    // 没有指定时为null，由数据库版本发现确定
+    private final String dbVersion;
+
+    // 驱动版本被淘汰或配置重新加载后重新匹配
+    private volatile java.sql.Driver driver;
+
+    // 匹配driver时的配置快照版本
+    private volatile long snapshotVersion;
+
+    private final String realUrl;
+
+    // 真实驱动的连接参数
+    private final Properties props;
+
+    // 连接日志的输出，为null时不输出
+    private volatile PrintWriter logWriter;
+
+    // 登录超时（秒），0表示不超时
+    private volatile int loginTimeout;
+
+    public ProxyDataSource(String url) {
+        this(url, null);
+    }
+
+    /**
+     * @param url  代理URL
+     * @param info 连接参数，可以包含user、password和代理参数
+     */
+    public ProxyDataSource(String url, Properties info) {
+        this.proxyUrl = ProxyUrlParser.parse(url);
+        if (this.proxyUrl == null) {
+            throw new ParamError("JDBC URL must start with \"" + ProxyUrlParser.URL_PREFIX + "\" but was: " + url);
+        }
+        this.info = info == null ? new Properties() : copy(info);
+        Properties defaults;
+        try {
+            defaults = new Driver().getDefaultProperties();
+        } catch (IOException ioe) {
+            throw new ProxyDriverError("Error loading default settings param");
+        }
+        this.dbType = Driver.proxyParam(ProxyProperty.DB_TYPE, proxyUrl, this.info);
+        this.dbVersion = Driver.proxyParam(ProxyProperty.DB_VERSION, proxyUrl, this.info);
+        this.realUrl = Driver.proxyParam(ProxyProperty.REAL_URL, proxyUrl, this.info);
+        DriverInitializer.awaitIfBlocking();
+        if (dbVersion != null || !ServerVersionDiscovery.isEnabled()) {
+            // 先读取快照版本再匹配，匹配期间配置重新加载时下次获取连接会再匹配一次
+            this.snapshotVersion = LoaderContext.getSnapshot().getVersion();
+            this.driver = Driver.matchDriver(dbType, dbVersion, proxyUrl);
+        }
+        this.props = Driver.realDriverProperties(this.info, defaults);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return connect(props);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        Properties credentials = copy(props);
+        if (username != null) {
+            credentials.setProperty("user", username);
+        }
+        if (password != null) {
+            credentials.setProperty("password", password);
+        }
+        return connect(credentials);
+    }
+
+    /**
+     * 设置了登录超时时在目标数据库版本的连接线程池中建立连接，超时后放弃等待并关闭迟到的连接
+     */
+    private Connection connect(Properties props) throws SQLException {
+        int timeout = loginTimeout;
+        try {
+            if (timeout <= 0) {
+                return Driver.connect(currentDriver(props), realUrl, props, proxyUrl, info);
+            }
+            // 先确定数据库版本，按版本选择连接线程池
+            String version = dbVersion == null && ServerVersionDiscovery.isEnabled()
+                    ? ServerVersionDiscovery.discover(dbType, realUrl, props) : dbVersion;
+            CompletableFuture<Connection> future = AsyncConnector.submit(dbType, version,
+                    () -> Driver.connect(currentDriver(props), realUrl, props, proxyUrl, info),
+                    TimeUnit.SECONDS.toMillis(timeout));
+            return await(future);
+        } catch (SQLException | RuntimeException e) {
+            println("getConnection to " + realUrl + " failed : " + e);
+            throw e;
+        }
+    }
+
+    private static Connection await(CompletableFuture<Connection> future) throws SQLException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while connecting", "08001", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SQLException("connect failed : " + cause, "08001", cause);
+        }
+    }
+
+    /**
+     * 按DataSource的约定把日志写到logWriter，没有设置时不输出
+     */
+    private void println(String message) {
+        PrintWriter out = logWriter;
+        if (out != null) {
+            out.println("ProxyDataSource [" + dbType + ":" + dbVersion + "] " + message);
+            out.flush();
+        }
+    }
+
+    /**
+     * 配置重新加载后按新快照重新匹配，驱动下线或者映射到其他驱动包时使用新的驱动，与是否开启淘汰无关；
+     * 创建时匹配的驱动被淘汰后重新匹配，重新匹配时会重新初始化这个驱动版本；
+     * 没有指定版本时每次按发现的版本匹配，版本缓存过期刷新后使用新版本的驱动
+     */
+    private java.sql.Driver currentDriver(Properties props) throws SQLException {
+        java.sql.Driver current = driver;
+        if (dbVersion == null && ServerVersionDiscovery.isEnabled()) {
+            current = Driver.matchDriver(dbType, ServerVersionDiscovery.discover(dbType, realUrl, props), proxyUrl);
+            driver = current;
+            return current;
+        }
+        long version = LoaderContext.getSnapshot().getVersion();
+        if (version != snapshotVersion) {
+            java.sql.Driver matched = Driver.matchDriver(dbType, dbVersion, proxyUrl);
+            snapshotVersion = version;
+            driver = matched;
+            if (matched != current) {
+                println("driver config reloaded, rematched " + matched.getClass().getName());
+            }
+            return matched;
+        }
+        if (DriverEvictor.isEvicted(current)) {
+            current = Driver.matchDriver(dbType, dbVersion, proxyUrl);
+            driver = current;
+            println("driver evicted, rematched " + current.getClass().getName());
+        }
+        return current;
+    }
+
+    @Override
+    public PooledConnection getPooledConnection() throws SQLException {
+        return new ProxyPooledConnection(getConnection());
+    }
+
+    @Override
+    public PooledConnection getPooledConnection(String user, String password) throws SQLException {
+        return new ProxyPooledConnection(getConnection(user, password));
+    }
+
+    /**
+     * @return 当前使用的真实驱动，等待数据库版本发现时在第一次获取连接前为null
+     */
+    public java.sql.Driver getDriver() {
+        return driver;
+    }
+
+    public String getRealUrl() {
+        return realUrl;
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return logWriter;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+        this.logWriter = out;
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+        this.loginTimeout = seconds;
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return loginTimeout;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return Logger.getLogger("com.asia.driver.dynamic");
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isAssignableFrom(getClass())) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Cannot unwrap to " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isAssignableFrom(getClass());
+    }
+
+    private static Properties copy(Properties source) {
+        Properties copy = new Properties();
+        for (String name : source.stringPropertyNames()) {
+            copy.setProperty(name, source.getProperty(name));
+        }
+        return copy;
+    }
+}
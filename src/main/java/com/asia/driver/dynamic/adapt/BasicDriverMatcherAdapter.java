@@ -11,6 +11,9 @@ import java.util.Properties;
 
 public class BasicDriverMatcherAdapter extends AbstractDriverMatcherAdapter {
 
+    // 匹配器无状态，所有适配器共用一个实例
+    private static final BasicDriverMatcher MATCHER = new BasicDriverMatcher();
+
     public BasicDriverMatcherAdapter(Properties properties) {
         super(properties);
     }
@@ -22,7 +25,7 @@ public class BasicDriverMatcherAdapter extends AbstractDriverMatcherAdapter {
             String dbVersion = ProxyProperty.DB_VERSION.get(properties);
             String dbType = ProxyProperty.DB_TYPE.get(properties);
             if (dbVersion != null && dbType != null) {
-                return new BasicDriverMatcher();
+                return MATCHER;
             }
             return null;
         }catch (Exception e){
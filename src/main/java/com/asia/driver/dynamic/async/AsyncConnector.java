@@ -0,0 +1,186 @@
+package com.asia.driver.dynamic.async;
+
+import com.asia.driver.dynamic.log.DriverLog;
+import com.asia.driver.dynamic.utils.ThreadSupport;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * @author wangwei
+ * @date 2024/03/18
+ * 异步连接，每个(dbType, dbVersion)使用独立的有界线程池，慢库只会占满自己的线程池，不影响其他数据库的连接
+ *
+ * 配置项（系统属性）：
+ * proxy.driver.async.threads     每个数据库版本的连接线程数，默认4
+ * proxy.driver.async.queue.size  每个数据库版本等待连接的队列长度，默认64，队列满时直接失败
+ */
+public final class AsyncConnector {
+
+    private static final DriverLog log = DriverLog.getLog(AsyncConnector.class);
+
+    private static final int THREADS = Integer.getInteger("proxy.driver.async.threads", 4);
+
+    private static final int QUEUE_SIZE = Integer.getInteger("proxy.driver.async.queue.size", 64);
+
+    // 空闲线程的存活时间（秒）
+    private static final long KEEP_ALIVE = 60L;
+
+    // dbType -> (dbVersion -> executor)
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, ThreadPoolExecutor>> executors = new ConcurrentHashMap<>();
+
+    // 连接超时的定时器
+    private static final ScheduledThreadPoolExecutor timer;
+
+    static {
+        timer = new ScheduledThreadPoolExecutor(1, ThreadSupport.daemonFactory("proxy-driver-connect-timer"));
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    private AsyncConnector() {
+    }
+
+    /**
+     * 建立连接的任务
+     */
+    @FunctionalInterface
+    public interface ConnectTask {
+        Connection connect() throws SQLException;
+    }
+
+    /**
+     * 在目标数据库版本的线程池中建立连接
+     *
+     * @param dbType        数据库类型
+     * @param dbVersion     数据库版本
+     * @param task          建立连接的任务
+     * @param timeoutMillis 超时时间（毫秒），小于等于0表示不超时
+     * @return 连接的future，取消或超时后建立的连接会被关闭
+     */
+    public static CompletableFuture<Connection> submit(String dbType, String dbVersion, ConnectTask task, long timeoutMillis) {
+        CompletableFuture<Connection> result = new CompletableFuture<>();
+        deadline(result, dbType + ":" + dbVersion, timeoutMillis);
+        execute(dbType, dbVersion, task, result);
+        return result;
+    }
+
+    /**
+     * 数据库版本确定后在该版本的线程池中建立连接，用于需要先探测版本的连接，超时时间包含确定版本的时间
+     *
+     * @param dbType        数据库类型
+     * @param dbVersion     数据库版本的future，以异常结束时连接失败
+     * @param task          按确定的版本创建建立连接的任务
+     * @param timeoutMillis 超时时间（毫秒），小于等于0表示不超时
+     * @return 连接的future，取消或超时后建立的连接会被关闭
+     */
+    public static CompletableFuture<Connection> submit(String dbType, CompletableFuture<String> dbVersion,
+                                                       Function<String, ConnectTask> task, long timeoutMillis) {
+        CompletableFuture<Connection> result = new CompletableFuture<>();
+        deadline(result, dbType, timeoutMillis);
+        dbVersion.whenComplete((version, error) -> {
+            if (error != null) {
+                result.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+            } else {
+                execute(dbType, version, task.apply(version), result);
+            }
+        });
+        return result;
+    }
+
+    private static void execute(String dbType, String dbVersion, ConnectTask task, CompletableFuture<Connection> result) {
+        if (result.isDone()) {
+            return;
+        }
+        ThreadPoolExecutor executor = executorFor(String.valueOf(dbType), String.valueOf(dbVersion));
+        Future<?> future;
+        try {
+            future = executor.submit(() -> run(task, result));
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(new SQLException(
+                    "too many pending connects for [" + dbType + ":" + dbVersion + "]", "08004", e));
+            return;
+        }
+        result.whenComplete((connection, error) -> {
+            // 取消或超时时中断正在建立的连接
+            if (error instanceof CancellationException || error instanceof SQLTimeoutException) {
+                future.cancel(true);
+            }
+        });
+    }
+
+    private static void deadline(CompletableFuture<Connection> result, String target, long timeoutMillis) {
+        if (timeoutMillis <= 0) {
+            return;
+        }
+        ScheduledFuture<?> deadline = timer.schedule(() -> result.completeExceptionally(new SQLTimeoutException(
+                "connect to [" + target + "] timed out after " + timeoutMillis + "ms")),
+                timeoutMillis, TimeUnit.MILLISECONDS);
+        result.whenComplete((connection, error) -> deadline.cancel(false));
+    }
+
+    private static void run(ConnectTask task, CompletableFuture<Connection> result) {
+        if (result.isDone()) {
+            return;
+        }
+        try {
+            Connection connection = task.connect();
+            // 已经取消或超时，关闭迟到的连接
+            if (!result.complete(connection) && connection != null) {
+                closeQuietly(connection);
+            }
+        } catch (Throwable t) {
+            result.completeExceptionally(t);
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException | RuntimeException e) {
+            log.debug("close abandoned connection failed : {}", e.getMessage());
+        }
+    }
+
+    private static ThreadPoolExecutor executorFor(String dbType, String dbVersion) {
+        ConcurrentHashMap<String, ThreadPoolExecutor> versions = executors.get(dbType);
+        if (versions == null) {
+            versions = executors.computeIfAbsent(dbType, k -> new ConcurrentHashMap<>());
+        }
+        ThreadPoolExecutor executor = versions.get(dbVersion);
+        if (executor == null) {
+            executor = versions.computeIfAbsent(dbVersion, k -> {
+                ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, KEEP_ALIVE, TimeUnit.SECONDS,
+                        new ArrayBlockingQueue<>(QUEUE_SIZE),
+                        ThreadSupport.connectFactory("proxy-driver-connect-" + dbType + "-" + dbVersion));
+                pool.allowCoreThreadTimeOut(true);
+                return pool;
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * 关闭所有连接线程池，代理驱动注销时调用
+     */
+    public static void shutdown() {
+        for (ConcurrentHashMap<String, ThreadPoolExecutor> versions : executors.values()) {
+            for (ThreadPoolExecutor executor : versions.values()) {
+                executor.shutdownNow();
+            }
+        }
+        executors.clear();
+    }
+}
@@ -0,0 +1,18 @@
+package com.asia.driver.dynamic.bean;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * @author wangwei
+ * @date 2024/04/06
+ * 驱动清单中的一个驱动版本：数据库类型、驱动版本、驱动类和来源（内置或清单文件的路径）
+ */
+@Data
+@Builder
+public class DriverCatalogEntry {
+    private String dbType;
+    private String jarVersion;
+    private String className;
+    private String source;
+}
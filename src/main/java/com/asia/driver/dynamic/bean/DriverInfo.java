@@ -2,9 +2,12 @@ package com.asia.driver.dynamic.bean;
 
 import lombok.Builder;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 
 import java.net.URLClassLoader;
 import java.sql.Driver;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * @author wangwei
@@ -20,7 +23,13 @@ public class DriverInfo {
     private String className;
     private String jarVersion;
     private String dbType;
-    private URLClassLoader classLoader;
-    private Driver driver;
+    private volatile URLClassLoader classLoader;
+    private volatile Driver driver;
+
+    // 初始化类加载器和驱动时使用的锁，不使用synchronized，避免虚拟线程在类加载的IO上钉住载体线程
+    @Builder.Default
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private final ReentrantLock initLock = new ReentrantLock();
 
 }
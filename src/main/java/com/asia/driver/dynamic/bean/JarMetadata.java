@@ -0,0 +1,20 @@
+package com.asia.driver.dynamic.bean;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * @author wangwei
+ * @date 2024/04/07
+ * 从驱动包中读取的元数据：META-INF/services/java.sql.Driver中声明的驱动类和MANIFEST.MF中的版本
+ */
+@Data
+@Builder
+public class JarMetadata {
+    // 按声明顺序排列的驱动类，没有声明时为空
+    private List<String> driverClasses;
+    private String implementationVersion;
+    private String implementationTitle;
+}
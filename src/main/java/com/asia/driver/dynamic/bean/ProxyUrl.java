@@ -0,0 +1,86 @@
+package com.asia.driver.dynamic.bean;
+
+import com.asia.driver.dynamic.enums.ProxyProperty;
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * @author wangwei
+ * @date 2024/03/06
+ * 代理URL的解析结果，创建后不可变，可在多个连接之间共享
+ *
+ *  url="proxy:jdbc:postgresql://${host}:${port}/postgres?proxyDbVersion=1.1.1&aaa&bb=true"
+ *  dbType="postgresql"
+ *  realUrl="jdbc:postgresql://${host}:${port}/postgres?aaa&bb=true"
+ *  proxyParams={proxyDbVersion=1.1.1}
+ *  args={aaa=, bb=true}
+ */
+@Getter
+public final class ProxyUrl {
+
+    // 原始的代理URL
+    private final String url;
+
+    // 数据库类型
+    private final String dbType;
+
+    // 真实驱动的URL，已屏蔽代理驱动的参数
+    private final String realUrl;
+
+    // URL中代理驱动的参数
+    private final Map<String, String> proxyParams;
+
+    // URL中透传给真实驱动的参数
+    private final Map<String, String> args;
+
+    public ProxyUrl(String url, String dbType, String realUrl, Map<String, String> proxyParams, Map<String, String> args) {
+        this.url = url;
+        this.dbType = dbType;
+        this.realUrl = realUrl;
+        this.proxyParams = Collections.unmodifiableMap(proxyParams);
+        this.args = Collections.unmodifiableMap(args);
+    }
+
+    public String getDbVersion() {
+        return proxyParams.get(ProxyProperty.DB_VERSION.getName());
+    }
+
+    /**
+     * 获取URL中的代理参数值，不存在时返回null
+     *
+     * @param property 代理参数
+     * @return 参数值
+     */
+    public String get(ProxyProperty property) {
+        switch (property) {
+            case DB_TYPE:
+                String value = proxyParams.get(property.getName());
+                return value == null ? dbType : value;
+            case REAL_URL:
+                return realUrl;
+            default:
+                return proxyParams.get(property.getName());
+        }
+    }
+
+    /**
+     * 转换为代理参数的Properties，包括数据库类型、真实URL和URL中的代理参数
+     *
+     * @return 新的Properties对象
+     */
+    public Properties toProperties() {
+        Properties prop = new Properties();
+        ProxyProperty.DB_TYPE.set(prop, dbType);
+        prop.putAll(proxyParams);
+        ProxyProperty.REAL_URL.set(prop, realUrl);
+        return prop;
+    }
+
+    @Override
+    public String toString() {
+        return "ProxyUrl(dbType=" + dbType + ", realUrl=" + realUrl + ", proxyParams=" + proxyParams + ")";
+    }
+}
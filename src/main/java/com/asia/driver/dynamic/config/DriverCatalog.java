@@ -0,0 +1,232 @@
+package com.asia.driver.dynamic.config;
+
+import com.asia.driver.dynamic.bean.DriverCatalogEntry;
+import com.asia.driver.dynamic.bean.JarMetadata;
+import com.asia.driver.dynamic.enums.DriverEnum;
+import com.asia.driver.dynamic.exception.CanNotFindError;
+import com.asia.driver.dynamic.exception.ParseError;
+import com.asia.driver.dynamic.utils.ProxyInfo;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * @author wangwei
+ * @date 2024/04/06
+ * 驱动清单：数据库类型和驱动版本对应的驱动类。
+ * 1.内置的驱动版本来自{@link DriverEnum}，配置目录下的driver-catalog.properties可以追加或覆盖，
+ * 格式与driver.properties的键相同：${dbType}.${jarVersion}=${className}，例如postgresql.42_7_3=org.postgresql.Driver；
+ * 2.多个配置目录中的清单文件按配置文件的优先级合并，优先级高的覆盖低的；
+ * 3.每次解析配置时构建一次，按(dbType, jarVersion)、dbType和className建立哈希索引，解析每个驱动映射时直接查找；
+ * 4.驱动包中声明了驱动类时优先使用驱动包的声明，见{@link JarMetadataScanner}，清单主要用于覆盖和没有声明的旧驱动包。
+ */
+@Slf4j
+public final class DriverCatalog {
+
+    private static final char SPERATE_CHAR = '.';
+
+    private static final String BUILTIN = "builtin";
+
+    // dbType -> (jarVersion -> 驱动版本)
+    private final Map<String, Map<String, DriverCatalogEntry>> byVersion = new HashMap<>();
+
+    // dbType -> 驱动版本
+    private final Map<String, List<DriverCatalogEntry>> byDbType = new HashMap<>();
+
+    // className -> 驱动版本
+    private final Map<String, List<DriverCatalogEntry>> byClassName = new HashMap<>();
+
+    // dbType -> 所有驱动版本共用的驱动类，有多个驱动类时为null
+    private final Map<String, String> singleClassName = new HashMap<>();
+
+    private final int size;
+
+    private DriverCatalog(Collection<DriverCatalogEntry> entries) {
+        for (DriverCatalogEntry entry : entries) {
+            byVersion.computeIfAbsent(entry.getDbType(), k -> new HashMap<>()).put(entry.getJarVersion(), entry);
+            byDbType.computeIfAbsent(entry.getDbType(), k -> new ArrayList<>()).add(entry);
+            byClassName.computeIfAbsent(entry.getClassName(), k -> new ArrayList<>()).add(entry);
+        }
+        for (Map.Entry<String, List<DriverCatalogEntry>> entry : byDbType.entrySet()) {
+            Set<String> classNames = new HashSet<>();
+            for (DriverCatalogEntry catalogEntry : entry.getValue()) {
+                classNames.add(catalogEntry.getClassName());
+            }
+            singleClassName.put(entry.getKey(), classNames.size() == 1 ? classNames.iterator().next() : null);
+        }
+        this.size = entries.size();
+    }
+
+    /**
+     * 合并内置驱动版本和所有配置目录下的清单文件
+     *
+     * @return 驱动清单
+     */
+    public static DriverCatalog load() {
+        // dbType.jarVersion -> 驱动版本，后放入的覆盖先放入的
+        Map<String, DriverCatalogEntry> entries = new LinkedHashMap<>();
+        for (DriverEnum driverEnum : DriverEnum.values()) {
+            put(entries, DriverCatalogEntry.builder()
+                    .dbType(driverEnum.getDbType())
+                    .jarVersion(driverEnum.getJarVersion())
+                    .className(driverEnum.getClassName())
+                    .source(BUILTIN)
+                    .build());
+        }
+        List<String> driverPathes = ProxyInfo.DRIVER_PATHES;
+        // DRIVER_PATHES按优先级从高到低排列，倒序读取让优先级高的覆盖低的
+        for (int i = driverPathes.size() - 1; i >= 0; i--) {
+            File file = catalogFile(driverPathes.get(i));
+            if (file != null && file.isFile()) {
+                log.info("Load driver catalog from : " + file.getPath());
+                for (DriverCatalogEntry entry : read(file)) {
+                    put(entries, entry);
+                }
+            }
+        }
+        return new DriverCatalog(entries.values());
+    }
+
+    private static void put(Map<String, DriverCatalogEntry> entries, DriverCatalogEntry entry) {
+        DriverCatalogEntry old = entries.put(entry.getDbType() + SPERATE_CHAR + entry.getJarVersion(), entry);
+        if (old != null && !old.getClassName().equals(entry.getClassName())) {
+            log.info("driver catalog entry {}:{} overridden by {} : {} -> {}", entry.getDbType(), entry.getJarVersion(),
+                    entry.getSource(), old.getClassName(), entry.getClassName());
+        }
+    }
+
+    /**
+     * 配置路径可能是目录或driver.properties文件，清单文件与driver.properties在同一目录
+     */
+    static File catalogFile(String configPath) {
+        if (configPath == null) {
+            return null;
+        }
+        File file = new File(configPath);
+        File dir = file.isDirectory() ? file : file.getParentFile();
+        return dir == null ? null : new File(dir, ProxyInfo.DEFAULT_CATALOG_FILE_NAME);
+    }
+
+    private static List<DriverCatalogEntry> read(File file) {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        } catch (IOException e) {
+            throw new ParseError("read driver catalog failed : " + file, e);
+        }
+        List<DriverCatalogEntry> entries = new ArrayList<>(properties.size());
+        for (String key : properties.stringPropertyNames()) {
+            int index = key.indexOf(SPERATE_CHAR);
+            String className = properties.getProperty(key).trim();
+            if (index <= 0 || index == key.length() - 1 || className.isEmpty()) {
+                throw new ParseError("illegal driver catalog entry in " + file + " : " + key + "=" + className);
+            }
+            entries.add(DriverCatalogEntry.builder()
+                    .dbType(key.substring(0, index))
+                    .jarVersion(key.substring(index + 1).replace("_", "."))
+                    .className(className)
+                    .source(file.getPath())
+                    .build());
+        }
+        return entries;
+    }
+
+    /**
+     * @return 数据库类型和驱动版本对应的驱动版本，没有登记时返回null
+     */
+    public DriverCatalogEntry find(String dbType, String jarVersion) {
+        Map<String, DriverCatalogEntry> versions = byVersion.get(dbType);
+        return versions == null ? null : versions.get(jarVersion);
+    }
+
+    public List<DriverCatalogEntry> findByDbType(String dbType) {
+        List<DriverCatalogEntry> entries = byDbType.get(dbType);
+        return entries == null ? Collections.emptyList() : Collections.unmodifiableList(entries);
+    }
+
+    public List<DriverCatalogEntry> findByClassName(String className) {
+        List<DriverCatalogEntry> entries = byClassName.get(className);
+        return entries == null ? Collections.emptyList() : Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * 结合驱动包的元数据获取驱动类，顺序为：
+     * 1.清单文件中登记的驱动类，可以覆盖驱动包的声明；
+     * 2.驱动包META-INF/services/java.sql.Driver中声明的驱动类，声明了多个时优先使用同类型已登记的驱动类；
+     * 3.按驱动版本或MANIFEST.MF中的Implementation-Version查找内置驱动版本，再按{@link #resolveClassName(String, String)}处理
+     *
+     * @param dbType     数据库类型
+     * @param jarVersion 驱动版本
+     * @param metadata   驱动包的元数据，可以为null
+     * @return 驱动类名
+     * @throws CanNotFindError 无法确定驱动类
+     */
+    public String resolveClassName(String dbType, String jarVersion, JarMetadata metadata) {
+        DriverCatalogEntry entry = find(dbType, jarVersion);
+        if (entry != null && !BUILTIN.equals(entry.getSource())) {
+            return entry.getClassName();
+        }
+        List<String> declared = metadata == null ? Collections.emptyList() : metadata.getDriverClasses();
+        if (!declared.isEmpty()) {
+            // 例如MySQL 5.1同时声明了com.mysql.jdbc.Driver和com.mysql.fabric.jdbc.FabricMySQLDriver
+            if (declared.size() > 1) {
+                if (entry != null && declared.contains(entry.getClassName())) {
+                    return entry.getClassName();
+                }
+                for (DriverCatalogEntry known : findByDbType(dbType)) {
+                    if (declared.contains(known.getClassName())) {
+                        return known.getClassName();
+                    }
+                }
+            }
+            return declared.get(0);
+        }
+        if (entry == null && metadata != null && metadata.getImplementationVersion() != null) {
+            // 驱动目录名和驱动包实际版本不一致时，按驱动包的版本查找
+            entry = find(dbType, metadata.getImplementationVersion());
+            if (entry != null) {
+                return entry.getClassName();
+            }
+        }
+        return resolveClassName(dbType, jarVersion);
+    }
+
+    /**
+     * 获取驱动类：优先使用登记的驱动版本；没有登记但这个数据库类型的所有驱动版本使用同一个驱动类时，直接使用该驱动类
+     *
+     * @param dbType     数据库类型
+     * @param jarVersion 驱动版本
+     * @return 驱动类名
+     * @throws CanNotFindError 没有登记且无法确定驱动类
+     */
+    public String resolveClassName(String dbType, String jarVersion) {
+        DriverCatalogEntry entry = find(dbType, jarVersion);
+        if (entry != null) {
+            return entry.getClassName();
+        }
+        String className = singleClassName.get(dbType);
+        if (className == null) {
+            throw new CanNotFindError("driver class of " + dbType + ":" + jarVersion + " not in driver catalog, add it to "
+                    + ProxyInfo.DEFAULT_CATALOG_FILE_NAME);
+        }
+        log.debug("driver {}:{} not in driver catalog, use {}", dbType, jarVersion, className);
+        return className;
+    }
+
+    public int size() {
+        return size;
+    }
+}
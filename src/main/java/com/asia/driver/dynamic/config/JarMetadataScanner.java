@@ -0,0 +1,296 @@
+package com.asia.driver.dynamic.config;
+
+import com.asia.driver.dynamic.bean.JarMetadata;
+import com.asia.driver.dynamic.utils.ProxyInfo;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+/**
+ * @author wangwei
+ * @date 2024/04/07
+ * 驱动包元数据的扫描和缓存：
+ * 1.从驱动包的META-INF/services/java.sql.Driver读取驱动类，从MANIFEST.MF读取Implementation-Version和Implementation-Title；
+ * 2.扫描结果按驱动包的路径、长度和修改时间缓存在内存和缓存目录的jar-metadata文件中，
+ * 驱动包没有变化时重启后不再打开jar，只读取一次缓存文件；
+ * 3.每次解析配置后有新的扫描结果时，写入临时文件再原子替换缓存文件；
+ * 4.扫描结果决定实例化哪个驱动类，缓存文件与路由快照的位置和校验规则相同：保存在显式指定的缓存目录中，
+ * 没有指定时保存在优先级最高的driver.properties所在目录，都没有时只在内存中缓存；最后一行是内容的CRC32，
+ * POSIX系统上还要求文件属于当前用户、文件和所在目录不能被其他用户写入，不满足时忽略缓存文件重新扫描。
+ *
+ * 配置项（系统属性）：
+ * proxy.driver.jar.scan    是否从驱动包读取驱动类，默认true，关闭时只使用驱动清单
+ * proxy.driver.cache.path  缓存目录，扫描结果保存在其中的jar-metadata文件中
+ */
+@Slf4j
+public final class JarMetadataScanner {
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("proxy.driver.jar.scan", "true"));
+
+    // 缓存文件，没有可信的保存位置时为null
+    private static final Path CACHE_FILE = ProxyInfo.getConfigCacheFile("jar-metadata");
+
+    // 缓存文件的格式版本，格式变化时旧文件整体失效
+    private static final String HEADER = "# jar metadata v2";
+
+    // 最后一行的前缀，后面是之前所有内容的CRC32
+    private static final String CHECKSUM_PREFIX = "# crc32 ";
+
+    private static final String SERVICE_FILE = "META-INF/services/java.sql.Driver";
+
+    private static final String SEPARATOR = "\t";
+
+    // 路径 -> 扫描结果
+    private static final ConcurrentHashMap<String, Cached> cache = new ConcurrentHashMap<>();
+
+    private static final AtomicLong jarOpens = new AtomicLong();
+
+    private static final AtomicLong hits = new AtomicLong();
+
+    private static volatile boolean loaded;
+
+    private static volatile boolean dirty;
+
+    private JarMetadataScanner() {
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * 获取驱动包的元数据，路径、长度和修改时间都没有变化时直接使用缓存
+     *
+     * @param jarAbsolutePath 驱动包的绝对路径
+     * @return 元数据，未开启或读取失败时返回null
+     */
+    public static JarMetadata scan(String jarAbsolutePath) {
+        if (!ENABLED || jarAbsolutePath == null) {
+            return null;
+        }
+        load();
+        File file = new File(jarAbsolutePath);
+        long size = file.length();
+        long modified = file.lastModified();
+        Cached cached = cache.get(jarAbsolutePath);
+        if (cached != null && cached.size == size && cached.modified == modified) {
+            hits.incrementAndGet();
+            return cached.metadata;
+        }
+        JarMetadata metadata;
+        try {
+            metadata = read(file);
+        } catch (IOException e) {
+            log.warn("read metadata of jar {} failed : {}", jarAbsolutePath, e.toString());
+            return null;
+        }
+        cache.put(jarAbsolutePath, new Cached(size, modified, metadata));
+        dirty = true;
+        return metadata;
+    }
+
+    private static JarMetadata read(File file) throws IOException {
+        jarOpens.incrementAndGet();
+        List<String> driverClasses = new ArrayList<>();
+        String version = null;
+        String title = null;
+        try (JarFile jar = new JarFile(file, false)) {
+            ZipEntry service = jar.getEntry(SERVICE_FILE);
+            if (service != null) {
+                try (BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(jar.getInputStream(service), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        int comment = line.indexOf('#');
+                        String className = (comment < 0 ? line : line.substring(0, comment)).trim();
+                        if (!className.isEmpty() && !driverClasses.contains(className)) {
+                            driverClasses.add(className);
+                        }
+                    }
+                }
+            }
+            Manifest manifest = jar.getManifest();
+            if (manifest != null) {
+                Attributes attributes = manifest.getMainAttributes();
+                version = attributes.getValue(Attributes.Name.IMPLEMENTATION_VERSION);
+                title = attributes.getValue(Attributes.Name.IMPLEMENTATION_TITLE);
+            }
+        }
+        return JarMetadata.builder()
+                .driverClasses(Collections.unmodifiableList(driverClasses))
+                .implementationVersion(clean(version))
+                .implementationTitle(clean(title))
+                .build();
+    }
+
+    private static String clean(String value) {
+        if (value == null) {
+            return null;
+        }
+        value = value.trim().replace(SEPARATOR, " ");
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * 第一次扫描时读取缓存文件，格式为每行一个驱动包：路径、长度、修改时间、驱动类（逗号分隔）、版本、名称，以制表符分隔，
+     * 最后一行是校验和
+     */
+    private static void load() {
+        if (loaded) {
+            return;
+        }
+        synchronized (JarMetadataScanner.class) {
+            if (loaded) {
+                return;
+            }
+            if (CACHE_FILE != null && Files.isRegularFile(CACHE_FILE)) {
+                try {
+                    String content = readVerified(CACHE_FILE);
+                    if (content != null) {
+                        BufferedReader reader = new BufferedReader(new StringReader(content));
+                        if (HEADER.equals(reader.readLine())) {
+                            String line;
+                            while ((line = reader.readLine()) != null) {
+                                parseLine(line);
+                            }
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    log.warn("read jar metadata cache {} failed, jars will be rescanned : {}", CACHE_FILE, e.toString());
+                    cache.clear();
+                }
+            }
+            loaded = true;
+        }
+    }
+
+    /**
+     * @return 校验通过的内容，文件不可信或校验和不符时返回null
+     */
+    private static String readVerified(Path file) throws IOException {
+        if (!ProxyInfo.isTrustedCacheFile(file)) {
+            log.warn("jar metadata cache {} is writable by other users, jars will be rescanned", file);
+            return null;
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        int end = bytes.length;
+        if (end > 0 && bytes[end - 1] == '\n') {
+            end--;
+        }
+        int last = end - 1;
+        while (last >= 0 && bytes[last] != '\n') {
+            last--;
+        }
+        String footer = new String(bytes, last + 1, end - last - 1, StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, last + 1);
+        if (!footer.equals(CHECKSUM_PREFIX + Long.toHexString(crc.getValue()))) {
+            log.warn("jar metadata cache {} is corrupted, jars will be rescanned", file);
+            return null;
+        }
+        return new String(bytes, 0, last + 1, StandardCharsets.UTF_8);
+    }
+
+    private static void parseLine(String line) {
+        String[] fields = line.split(SEPARATOR, -1);
+        if (fields.length != 6) {
+            return;
+        }
+        List<String> driverClasses = fields[3].isEmpty() ? Collections.emptyList()
+                : Collections.unmodifiableList(Arrays.asList(fields[3].split(",")));
+        JarMetadata metadata = JarMetadata.builder()
+                .driverClasses(driverClasses)
+                .implementationVersion(fields[4].isEmpty() ? null : fields[4])
+                .implementationTitle(fields[5].isEmpty() ? null : fields[5])
+                .build();
+        cache.put(fields[0], new Cached(Long.parseLong(fields[1]), Long.parseLong(fields[2]), metadata));
+    }
+
+    /**
+     * 有新的扫描结果时写入缓存文件，由配置解析完成后调用。已经不存在的驱动包不再写入
+     */
+    public static synchronized void flush() {
+        if (!dirty || CACHE_FILE == null) {
+            return;
+        }
+        dirty = false;
+        Map<String, Cached> sorted = new TreeMap<>(cache);
+        StringBuilder content = new StringBuilder(HEADER).append('\n');
+        for (Map.Entry<String, Cached> entry : sorted.entrySet()) {
+            if (!new File(entry.getKey()).isFile()) {
+                continue;
+            }
+            Cached cached = entry.getValue();
+            JarMetadata metadata = cached.metadata;
+            content.append(entry.getKey()).append(SEPARATOR).append(cached.size).append(SEPARATOR).append(cached.modified).append(SEPARATOR)
+                    .append(String.join(",", metadata.getDriverClasses())).append(SEPARATOR)
+                    .append(metadata.getImplementationVersion() == null ? "" : metadata.getImplementationVersion()).append(SEPARATOR)
+                    .append(metadata.getImplementationTitle() == null ? "" : metadata.getImplementationTitle()).append('\n');
+        }
+        byte[] bytes = content.toString().getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        try {
+            ProxyInfo.createCacheDirectories(CACHE_FILE.getParent());
+            Path temp = Files.createTempFile(CACHE_FILE.getParent(), "jar-metadata", ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                out.write(bytes);
+                out.write((CHECKSUM_PREFIX + Long.toHexString(crc.getValue()) + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            Files.move(temp, CACHE_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            log.warn("write jar metadata cache {} failed : {}", CACHE_FILE, e.toString());
+        }
+    }
+
+    /**
+     * @return 进程启动以来为读取元数据打开jar的次数，驱动包没有变化时重启后为0
+     */
+    public static long getJarOpenCount() {
+        return jarOpens.get();
+    }
+
+    /**
+     * @return 命中缓存的次数
+     */
+    public static long getHitCount() {
+        return hits.get();
+    }
+
+    private static final class Cached {
+
+        private final long size;
+
+        private final long modified;
+
+        private final JarMetadata metadata;
+
+        private Cached(long size, long modified, JarMetadata metadata) {
+            this.size = size;
+            this.modified = modified;
+            this.metadata = metadata;
+        }
+    }
+}
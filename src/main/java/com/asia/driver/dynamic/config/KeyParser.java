@@ -2,6 +2,7 @@ package com.asia.driver.dynamic.config;
 
 import com.asia.driver.dynamic.bean.DbInfo;
 import com.asia.driver.dynamic.exception.ParseError;
+import com.asia.driver.dynamic.loader.VersionRange;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.HashMap;
@@ -13,11 +14,11 @@ import java.util.Set;
 /**
  * @author wangwei
  * @date 2024/02/22
- * 用于解析配置的键
+ * 用于解析配置的键，格式为 数据库类型.版本，第一个点之后都是版本
  */
 public class KeyParser implements Parser {
 
-    private static final String SPERATE_CHAR = "\\.";
+    private static final char SPERATE_CHAR = '.';
 
     private Properties properties;
 
@@ -41,8 +42,15 @@ public class KeyParser implements Parser {
                 dbInfos=new HashMap<>();
                 Set<Object> keys = properties.keySet();
                 for (Object key : keys) {
-                    String[] split = ((String)key).split(SPERATE_CHAR);
-                    DbInfo dbInfo= DbInfo.builder().dbType(split[0]).dbVersion(split[1].replace("_",".")).build();
+                    String name = (String) key;
+                    int index = name.indexOf(SPERATE_CHAR);
+                    if (index <= 0 || index == name.length() - 1) {
+                        throw new ParseError("illegal config key : " + name);
+                    }
+                    // 版本可以是精确版本、通配符或区间，例如9_6、9_x、[10_0,12_5)，下划线等同于点
+                    String dbVersion = name.substring(index + 1).replace("_", ".");
+                    VersionRange.validate(dbVersion);
+                    DbInfo dbInfo= DbInfo.builder().dbType(name.substring(0, index)).dbVersion(dbVersion).build();
                     dbInfos.put((String)key,dbInfo);
                 }
             }
@@ -5,6 +5,7 @@ import com.asia.driver.dynamic.bean.DbInfo;
 import com.asia.driver.dynamic.bean.DriverInfo;
 import com.asia.driver.dynamic.bean.DriverMapping;
 import com.asia.driver.dynamic.exception.ConfigParseError;
+import com.asia.driver.dynamic.jfr.DriverEvents;
 import com.asia.driver.dynamic.loader.LoaderContext;
 import com.asia.driver.dynamic.utils.Ordered;
 import com.asia.driver.dynamic.utils.ProxyInfo;
@@ -28,7 +29,7 @@ public class PropertiesFileParser implements Parser<List<DriverMapping>> {
 
     public PropertiesFileParser() {
         this.configFiles = new ConfigFiles();
-        for (int i = 1; i < ProxyInfo.DRIVER_PATHES.size(); i++) {
+        for (int i = 0; i < ProxyInfo.DRIVER_PATHES.size(); i++) {
             configFiles.addFile(i, ProxyInfo.DRIVER_PATHES.get(i));
         }
     }
@@ -60,10 +61,24 @@ public class PropertiesFileParser implements Parser<List<DriverMapping>> {
     public List<DriverMapping> parse() {
         if (this.properties == null) {
             log.info("-------------------------- start parse properties file --------------------------");
+            Object event = DriverEvents.beginConfigParse();
             try {
-                this.properties = configFiles.loadAll();
-                LoaderContext.addDriverMappings(parseDriverMapping());
-                LoaderContext.putDriverInfo(this.jarMap);
+                // 配置和驱动包都没有变化时直接读取路由快照，否则完整解析并重新生成快照
+                Properties loaded = new Properties();
+                List<DriverMapping> mappings = RoutingSnapshotFile.load(loaded);
+                if (mappings != null) {
+                    log.info("Load " + mappings.size() + " driver mappings from : " + RoutingSnapshotFile.getFile());
+                    this.properties = loaded;
+                    this.driverMappings = mappings;
+                    this.jarMap = new HashMap<>();
+                    for (DriverMapping mapping : mappings) {
+                        this.jarMap.put(mapping.getDriverInfo().getJarConfigPath(), mapping.getDriverInfo());
+                    }
+                } else {
+                    this.properties = configFiles.loadAll();
+                    mappings = parseDriverMapping();
+                }
+                LoaderContext.addDriverMappings(mappings);
                 for (DriverMapping driverMapping : driverMappings) {
                     log.debug("driver config mapping:"+driverMapping.toString());
                 }
@@ -71,12 +86,31 @@ public class PropertiesFileParser implements Parser<List<DriverMapping>> {
             } catch (Exception e) {
                 log.error(e.getMessage());
                 throw new ConfigParseError(e.getCause());
+            } finally {
+                DriverEvents.endConfigParse(event, driverMappings == null ? 0 : driverMappings.size());
             }
         }
         return driverMappings;
     }
 
 
+    /**
+     * 重新读取所有配置文件并解析，只返回解析结果，不修改上下文，由配置监听在后台调用
+     *
+     * @return 全部驱动映射
+     */
+    public List<DriverMapping> reload() {
+        Object event = DriverEvents.beginConfigParse();
+        List<DriverMapping> mappings = null;
+        try {
+            this.properties = configFiles.loadAll();
+            mappings = parseDriverMapping();
+            return mappings;
+        } finally {
+            DriverEvents.endConfigParse(event, mappings == null ? 0 : mappings.size());
+        }
+    }
+
     /**
      * 解析数据库和驱动包的映射关系
      *
@@ -88,10 +122,11 @@ public class PropertiesFileParser implements Parser<List<DriverMapping>> {
         Enumeration<Object> keys = properties.keys();
 
         KeyParser keyParser = new KeyParser(properties);
-        ValueParser valueParser = new ValueParser(properties);
+        ValueParser valueParser = new ValueParser(properties, DriverCatalog.load());
 
         HashMap<String, DbInfo> dbInfos = keyParser.parse();
         HashMap<String, DriverInfo> DriverInfos = valueParser.parse();
+        List<String> mappingKeys = new ArrayList<>(properties.size());
         while (keys.hasMoreElements()) {
             String key = (String) keys.nextElement();
             DbInfo dbInfo = dbInfos.get(key);
@@ -100,7 +135,11 @@ public class PropertiesFileParser implements Parser<List<DriverMapping>> {
             this.jarMap.put(driverInfo.getJarConfigPath(), driverInfo);
             DriverMapping driverMapping = new DriverMapping(dbInfo, driverInfo);
             this.driverMappings.add(driverMapping);
+            mappingKeys.add(key);
         }
+        // 保存新扫描的驱动包元数据，下次启动时驱动包没有变化就不再打开jar
+        JarMetadataScanner.flush();
+        RoutingSnapshotFile.save(this.driverMappings, mappingKeys);
         return this.driverMappings;
     }
 
@@ -0,0 +1,430 @@
+package com.asia.driver.dynamic.config;
+
+import com.asia.driver.dynamic.bean.DbInfo;
+import com.asia.driver.dynamic.bean.DriverInfo;
+import com.asia.driver.dynamic.bean.DriverMapping;
+import com.asia.driver.dynamic.enums.DriverEnum;
+import com.asia.driver.dynamic.utils.ProxyInfo;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * @author wangwei
+ * @date 2024/04/09
+ * 编译后的路由快照：完整解析配置后，把解析结果写成二进制文件，下次启动时直接读取，
+ * 不再合并配置文件、拆分键值、在各配置目录中查找驱动包和扫描驱动类。
+ * 1.文件内容为配置目录列表、字符串表、依赖文件和驱动映射，驱动映射包含原始配置项、驱动包的绝对路径和驱动类；
+ * 2.依赖文件包括各配置目录的driver.properties和driver-catalog.properties、每个驱动包，
+ * 以及优先级更高但不存在的驱动包路径，读取时只比较长度和修改时间，任何一个变化都回退到完整解析并重新生成；
+ * 3.驱动包记录CRC32校验和，只有修改时间变化（例如重新拷贝部署）而长度相同时重新计算校验和，内容没变仍然使用快照；
+ * 4.可以在构建或部署时执行main方法预先生成，也会在第一次完整解析和每次热加载后生成；
+ * 5.快照保存在显式指定的缓存目录中，没有指定时保存在优先级最高的driver.properties所在目录，不使用共享的临时目录；
+ * 创建的缓存目录只有当前用户可以访问；文件末尾是内容的CRC32，读取时校验，POSIX系统上还要求文件属于当前用户、
+ * 文件和所在目录不能被其他用户写入，驱动包必须位于配置目录中，任何一项不满足都回退到完整解析。
+ *
+ * 配置项（系统属性）：
+ * proxy.driver.snapshot    是否使用路由快照，默认true
+ * proxy.driver.cache.path  缓存目录，快照保存为其中的routes-${配置目录的哈希}.snapshot
+ */
+@Slf4j
+public final class RoutingSnapshotFile {
+
+
+    // "PDRS"
+    private static final int MAGIC = 0x50445253;
+
+    // 文件格式版本，格式变化时旧文件整体失效
+    private static final int FORMAT = 2;
+
+    // 不存在的文件的长度和修改时间
+    private static final long ABSENT = -1L;
+
+    // 文件末尾的校验和长度
+    private static final int CHECKSUM_BYTES = 8;
+
+    private static final Path FILE = file();
+
+    private static final boolean ENABLED = FILE != null
+            && Boolean.parseBoolean(System.getProperty("proxy.driver.snapshot", "true"));
+
+    // 允许的驱动包所在目录
+    private static final List<Path> ROOTS = roots();
+
+    // 影响解析结果的环境：代理驱动版本、是否扫描驱动包和内置驱动版本
+    private static final String ENVIRONMENT = environment();
+
+    private RoutingSnapshotFile() {
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    public static Path getFile() {
+        return FILE;
+    }
+
+    /**
+     * 显式指定了缓存目录时保存在缓存目录中，否则保存在第一个存在driver.properties的配置目录中，都没有时不使用快照
+     */
+    private static Path file() {
+        return ProxyInfo.getConfigCacheFile("routes-"
+                + Integer.toHexString(String.join(File.pathSeparator, ProxyInfo.DRIVER_PATHES).hashCode()) + ".snapshot");
+    }
+
+    private static List<Path> roots() {
+        List<Path> roots = new ArrayList<>();
+        for (String configPath : ProxyInfo.DRIVER_PATHES) {
+            roots.add(Paths.get(configPath).toAbsolutePath().normalize());
+        }
+        return roots;
+    }
+
+    private static String environment() {
+        StringBuilder builtin = new StringBuilder();
+        for (DriverEnum driverEnum : DriverEnum.values()) {
+            builtin.append(driverEnum.getDbType()).append(':').append(driverEnum.getJarVersion())
+                    .append(':').append(driverEnum.getClassName()).append(';');
+        }
+        return ProxyInfo.DRIVER_VERSION + '|' + JarMetadataScanner.isEnabled() + '|'
+                + Integer.toHexString(builtin.toString().hashCode());
+    }
+
+    /**
+     * 读取路由快照，快照不存在、格式不符或依赖文件变化时返回null，由调用方完整解析
+     *
+     * @param properties 输出参数，还原的配置项
+     * @return 驱动映射，顺序与生成快照时的解析结果相同
+     */
+    public static List<DriverMapping> load(Properties properties) {
+        if (!ENABLED || !Files.isRegularFile(FILE)) {
+            return null;
+        }
+        ByteBuffer buffer;
+        try {
+            if (!ProxyInfo.isTrustedCacheFile(FILE)) {
+                log.warn("routing snapshot {} is writable by other users, parse driver config", FILE);
+                return null;
+            }
+            buffer = readFully(FILE);
+        } catch (IOException e) {
+            log.warn("read routing snapshot {} failed : {}", FILE, e.toString());
+            return null;
+        }
+        if (buffer == null) {
+            log.warn("routing snapshot {} is corrupted, parse driver config", FILE);
+            return null;
+        }
+        try {
+            return read(buffer, properties);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            log.warn("routing snapshot {} is corrupted, parse driver config : {}", FILE, e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * 读取整个文件到堆内存并校验末尾的CRC32，不使用内存映射，读取后不占用文件
+     *
+     * @return 不包含校验和的内容，校验失败时返回null
+     */
+    private static ByteBuffer readFully(Path file) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < CHECKSUM_BYTES || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    return null;
+                }
+            }
+        }
+        int length = buffer.capacity() - CHECKSUM_BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, length);
+        if (crc.getValue() != buffer.getLong(length)) {
+            return null;
+        }
+        // 通过Buffer调用，JDK 9以上编译时不会链接到Java 8没有的ByteBuffer协变返回方法
+        ((Buffer) buffer).clear();
+        ((Buffer) buffer).limit(length);
+        return buffer;
+    }
+
+    /**
+     * @return 驱动包是否位于某个配置目录中
+     */
+    private static boolean isUnderConfig(String jar) {
+        Path path = Paths.get(jar).toAbsolutePath().normalize();
+        for (Path root : ROOTS) {
+            if (path.startsWith(root)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<DriverMapping> read(ByteBuffer buffer, Properties properties) {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT || !ENVIRONMENT.equals(readString(buffer))) {
+            log.info("routing snapshot {} was written by another version, parse driver config", FILE);
+            return null;
+        }
+        int pathCount = buffer.getInt();
+        if (pathCount != ProxyInfo.DRIVER_PATHES.size()) {
+            return null;
+        }
+        for (int i = 0; i < pathCount; i++) {
+            if (!ProxyInfo.DRIVER_PATHES.get(i).equals(readString(buffer))) {
+                return null;
+            }
+        }
+        String[] strings = new String[buffer.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = readString(buffer);
+        }
+
+        // 依赖文件只比较长度和修改时间，修改时间变化但内容相同的驱动包需要重新生成快照
+        boolean touched = false;
+        int fileCount = buffer.getInt();
+        for (int i = 0; i < fileCount; i++) {
+            String path = strings[buffer.getInt()];
+            long length = buffer.getLong();
+            long modified = buffer.getLong();
+            long checksum = buffer.getLong();
+            File file = new File(path);
+            long actualLength = file.exists() ? file.length() : ABSENT;
+            long actualModified = file.exists() ? file.lastModified() : ABSENT;
+            if (actualLength == length && actualModified == modified) {
+                continue;
+            }
+            if (checksum == ABSENT || actualLength != length || checksum(file) != checksum) {
+                log.info("{} changed since routing snapshot was written, parse driver config", path);
+                return null;
+            }
+            touched = true;
+        }
+
+        int mappingCount = buffer.getInt();
+        List<DriverMapping> mappings = new ArrayList<>(mappingCount);
+        List<String> keys = new ArrayList<>(mappingCount);
+        for (int i = 0; i < mappingCount; i++) {
+            String key = strings[buffer.getInt()];
+            DbInfo dbInfo = DbInfo.builder()
+                    .dbType(strings[buffer.getInt()])
+                    .dbVersion(strings[buffer.getInt()])
+                    .build();
+            DriverInfo driverInfo = DriverInfo.builder()
+                    .dbType(strings[buffer.getInt()])
+                    .jarVersion(strings[buffer.getInt()])
+                    .jarConfigPath(strings[buffer.getInt()])
+                    .jarAbsolutePath(strings[buffer.getInt()])
+                    .className(strings[buffer.getInt()])
+                    .build();
+            if (!isUnderConfig(driverInfo.getJarAbsolutePath())) {
+                log.warn("driver jar {} in routing snapshot is not under the config paths, parse driver config",
+                        driverInfo.getJarAbsolutePath());
+                return null;
+            }
+            properties.put(key, driverInfo.getJarConfigPath());
+            keys.add(key);
+            mappings.add(new DriverMapping(dbInfo, driverInfo));
+        }
+        if (touched) {
+            save(mappings, keys);
+        }
+        return mappings;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 生成路由快照，写入临时文件后原子替换，失败时只记录日志
+     *
+     * @param mappings 完整解析的驱动映射
+     * @param keys     每个驱动映射对应的配置项的键
+     */
+    public static void save(List<DriverMapping> mappings, List<String> keys) {
+        if (!ENABLED) {
+            return;
+        }
+        try {
+            Map<String, Integer> strings = new LinkedHashMap<>();
+            Map<String, long[]> files = dependencies(mappings);
+            for (String path : files.keySet()) {
+                intern(strings, path);
+            }
+            int[][] records = new int[mappings.size()][];
+            for (int i = 0; i < records.length; i++) {
+                DbInfo dbInfo = mappings.get(i).getDbInfo();
+                DriverInfo driverInfo = mappings.get(i).getDriverInfo();
+                records[i] = new int[]{
+                        intern(strings, keys.get(i)),
+                        intern(strings, dbInfo.getDbType()),
+                        intern(strings, dbInfo.getDbVersion()),
+                        intern(strings, driverInfo.getDbType()),
+                        intern(strings, driverInfo.getJarVersion()),
+                        intern(strings, driverInfo.getJarConfigPath()),
+                        intern(strings, driverInfo.getJarAbsolutePath()),
+                        intern(strings, driverInfo.getClassName())};
+            }
+
+            ProxyInfo.createCacheDirectories(FILE.getParent());
+            Path temp = Files.createTempFile(FILE.getParent(), "routes", ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp);
+                 CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(out, 64 * 1024), new CRC32());
+                 DataOutputStream data = new DataOutputStream(checked)) {
+                data.writeInt(MAGIC);
+                data.writeInt(FORMAT);
+                writeString(data, ENVIRONMENT);
+                data.writeInt(ProxyInfo.DRIVER_PATHES.size());
+                for (String path : ProxyInfo.DRIVER_PATHES) {
+                    writeString(data, path);
+                }
+                data.writeInt(strings.size());
+                for (String value : strings.keySet()) {
+                    writeString(data, value);
+                }
+                data.writeInt(files.size());
+                for (Map.Entry<String, long[]> file : files.entrySet()) {
+                    data.writeInt(strings.get(file.getKey()));
+                    for (long value : file.getValue()) {
+                        data.writeLong(value);
+                    }
+                }
+                data.writeInt(records.length);
+                for (int[] record : records) {
+                    for (int index : record) {
+                        data.writeInt(index);
+                    }
+                }
+                data.flush();
+                data.writeLong(checked.getChecksum().getValue());
+            }
+            Files.move(temp, FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("routing snapshot of {} driver mappings written to {}", mappings.size(), FILE);
+        } catch (IOException | RuntimeException e) {
+            log.warn("write routing snapshot {} failed : {}", FILE, e.toString());
+        }
+    }
+
+    /**
+     * @return 依赖文件的路径 -> {长度, 修改时间, 校验和}，不存在的文件长度和修改时间为-1，只有驱动包有校验和
+     */
+    private static Map<String, long[]> dependencies(List<DriverMapping> mappings) throws IOException {
+        Map<String, long[]> files = new LinkedHashMap<>();
+        for (String configPath : ProxyInfo.DRIVER_PATHES) {
+            File config = new File(configPath);
+            if (config.isDirectory()) {
+                config = new File(config, ProxyInfo.DEFAULT_FILE_NAME);
+            }
+            files.put(config.getPath(), state(config, false));
+            File catalog = DriverCatalog.catalogFile(configPath);
+            if (catalog != null) {
+                files.put(catalog.getPath(), state(catalog, false));
+            }
+        }
+        for (DriverMapping mapping : mappings) {
+            DriverInfo driverInfo = mapping.getDriverInfo();
+            String jar = driverInfo.getJarAbsolutePath();
+            if (files.containsKey(jar)) {
+                continue;
+            }
+            files.put(jar, state(new File(jar), true));
+            // 优先级更高的配置目录中出现同名驱动包时，解析结果会改变
+            for (String configPath : ProxyInfo.DRIVER_PATHES) {
+                String candidate = configPath + File.separator + driverInfo.getJarConfigPath();
+                if (candidate.equals(jar)) {
+                    break;
+                }
+                files.put(candidate, state(new File(candidate), false));
+            }
+        }
+        return files;
+    }
+
+    private static long[] state(File file, boolean jar) throws IOException {
+        if (!file.exists()) {
+            return new long[]{ABSENT, ABSENT, ABSENT};
+        }
+        return new long[]{file.length(), file.lastModified(), jar ? checksum(file) : ABSENT};
+    }
+
+    private static long checksum(File file) {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            return ABSENT;
+        }
+        return crc.getValue();
+    }
+
+    private static int intern(Map<String, Integer> strings, String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("null value in driver mapping");
+        }
+        Integer index = strings.get(value);
+        if (index == null) {
+            index = strings.size();
+            strings.put(value, index);
+        }
+        return index;
+    }
+
+    private static void writeString(DataOutputStream data, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    /**
+     * 构建或部署时预先生成路由快照，使用与应用相同的系统属性（proxy.driver.config.path、proxy.driver.cache.path等）
+     *
+     * <pre>
+     *  java -cp dynamic-driver.jar -Dproxy.driver.config.path=/opt/app/driver com.asia.driver.dynamic.config.RoutingSnapshotFile
+     * </pre>
+     */
+    public static void main(String[] args) {
+        if (!ENABLED) {
+            System.out.println("routing snapshot is disabled or no driver.properties found in " + ProxyInfo.DRIVER_PATHES);
+            return;
+        }
+        PropertiesFileParser parser = new PropertiesFileParser();
+        List<DriverMapping> mappings = parser.reload();
+        System.out.println(mappings.size() + " driver mappings compiled to " + FILE);
+    }
+}
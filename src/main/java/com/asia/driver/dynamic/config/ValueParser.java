@@ -2,7 +2,7 @@ package com.asia.driver.dynamic.config;
 
 
 import com.asia.driver.dynamic.bean.DriverInfo;
-import com.asia.driver.dynamic.enums.DriverEnum;
+import com.asia.driver.dynamic.bean.JarMetadata;
 import com.asia.driver.dynamic.exception.CanNotFindError;
 import com.asia.driver.dynamic.exception.ValueFormatError;
 import com.asia.driver.dynamic.utils.ProxyInfo;
@@ -37,12 +37,23 @@ public class ValueParser implements Parser<HashMap<String, DriverInfo>> {
 
     private HashMap<String, DriverInfo> driverInfos;
 
+    // 驱动清单，所有配置项共用，解析一次配置只构建一次
+    private DriverCatalog catalog;
+
+    // 驱动包路径 -> 驱动类，多个配置项使用同一个驱动包时只扫描一次
+    private final HashMap<String, String> classNames = new HashMap<>();
+
     public ValueParser() {
 
     }
 
     public ValueParser(Properties properties) {
+        this(properties, DriverCatalog.load());
+    }
+
+    public ValueParser(Properties properties, DriverCatalog catalog) {
         this.properties = properties;
+        this.catalog = catalog;
     }
 
     /**
@@ -76,14 +87,18 @@ public class ValueParser implements Parser<HashMap<String, DriverInfo>> {
             throw new CanNotFindError("please check jar exists : " + value);
         }
 
-        // 根据数据里类型和驱动版本，获取驱动枚举
-        List<DriverEnum> driverEnums = DriverEnum.getMatcher().findByDbType(driverInfo.getDbType()).findByJarVersion(driverInfo.getJarVersion()).get();
-
-        if (driverEnums == null || driverEnums.size() == 0) {
-            throw new CanNotFindError(value);
+        // 优先使用驱动包中声明的驱动类，没有声明时根据数据库类型和驱动版本从驱动清单获取
+        String className = classNames.get(value);
+        if (className == null) {
+            JarMetadata metadata = JarMetadataScanner.scan(driverInfo.getJarAbsolutePath());
+            className = catalog.resolveClassName(driverInfo.getDbType(), driverInfo.getJarVersion(), metadata);
+            if (metadata != null && metadata.getImplementationVersion() != null
+                    && !metadata.getImplementationVersion().startsWith(driverInfo.getJarVersion())) {
+                log.debug("jar version of {} is {} in manifest", value, metadata.getImplementationVersion());
+            }
+            classNames.put(value, className);
         }
-
-        driverInfo.setClassName(driverEnums.get(0).getClassName());
+        driverInfo.setClassName(className);
 
         return driverInfo;
     }
@@ -6,6 +6,9 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 
+/**
+ * 内置的驱动版本，其他驱动版本可以在driver-catalog.properties中登记，见{@link com.asia.driver.dynamic.config.DriverCatalog}
+ */
 public enum DriverEnum {
 
     POSTGRES_42_1_1("postgresql", "42.1.1", "org.postgresql.Driver", "lib/driver/postgresql/42_1_1/postgresql-42.1.1.jar"),
@@ -21,6 +24,10 @@ public enum DriverEnum {
     private String className;
     private String defaultJarPath;
 
+    /**
+     * @deprecated 每一步都遍历并复制列表，也不包含清单文件中登记的驱动版本，使用{@link com.asia.driver.dynamic.config.DriverCatalog}
+     */
+    @Deprecated
     public static DriverMatcher getMatcher(){
          return new DriverMatcher();
     }
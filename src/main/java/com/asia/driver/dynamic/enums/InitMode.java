@@ -0,0 +1,39 @@
+package com.asia.driver.dynamic.enums;
+
+import com.asia.driver.dynamic.exception.ParamError;
+
+/**
+ * @author wangwei
+ * @date 2024/03/29
+ * 驱动的初始化方式，通过系统属性proxy.driver.init.mode配置
+ */
+public enum InitMode {
+    // 第一次连接某个路由时初始化类加载器和驱动
+    LAZY("lazy"),
+    // 启动时并行初始化所有驱动映射，初始化完成前连接会等待
+    EAGER_BLOCKING("eager-blocking"),
+    // 启动时在后台并行初始化所有驱动映射，连接不等待，未初始化的路由按lazy方式初始化
+    EAGER_BACKGROUND("eager-background");
+
+    private final String name;
+
+    InitMode(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public static InitMode of(String name) {
+        if (name == null || name.isEmpty()) {
+            return LAZY;
+        }
+        for (InitMode mode : values()) {
+            if (mode.name.equalsIgnoreCase(name)) {
+                return mode;
+            }
+        }
+        throw new ParamError("unknown proxy.driver.init.mode : " + name);
+    }
+}
@@ -31,7 +31,29 @@ public enum ProxyProperty {
     DB_VERSION(
             "proxyDbVersion",
             "",
-            "The version of target database");
+            "The version of target database"),
+
+    // 连接池参数，来源于URL param部分或者连接参数
+    POOL_SIZE(
+            "proxyPoolSize",
+            "0",
+            "The maximum number of physical connections kept by the built-in pool, 0 means pooling is disabled"),
+    POOL_IDLE_TIMEOUT(
+            "proxyPoolIdleTimeout",
+            "600000",
+            "The maximum time in milliseconds a pooled connection may sit idle before it is closed"),
+    POOL_MAX_LIFETIME(
+            "proxyPoolMaxLifetime",
+            "1800000",
+            "The maximum lifetime in milliseconds of a pooled physical connection"),
+    POOL_VALIDATION_INTERVAL(
+            "proxyPoolValidationInterval",
+            "5000",
+            "Pooled connections used within this many milliseconds are handed out without validation"),
+    POOL_BORROW_TIMEOUT(
+            "proxyPoolBorrowTimeout",
+            "30000",
+            "The maximum time in milliseconds to wait for a pooled connection when the pool is exhausted");
 
 
     private final String name;
@@ -0,0 +1,63 @@
+package com.asia.driver.dynamic.jfr;
+
+/**
+ * @author wangwei
+ * @date 2024/03/25
+ * 代理驱动的JFR事件入口，Java 8版本为空实现。
+ * Java 11及以上使用src/main/java11下的多版本实现，发出连接、匹配、类加载器和驱动初始化、类加载以及配置解析的事件，
+ * 未开启JFR记录时begin返回null，不创建事件对象。
+ *
+ * 用法：
+ * <pre>
+ *  Object event = DriverEvents.beginConnect();
+ *  ...
+ *  DriverEvents.endConnect(event, dbType, dbVersion, success);
+ * </pre>
+ */
+public final class DriverEvents {
+
+    private DriverEvents() {
+    }
+
+    public static Object beginConnect() {
+        return null;
+    }
+
+    public static void endConnect(Object event, String dbType, String dbVersion, boolean success) {
+    }
+
+    public static Object beginMatch() {
+        return null;
+    }
+
+    public static void endMatch(Object event, String dbType, String dbVersion, String jarPath) {
+    }
+
+    public static Object beginInitClassLoader() {
+        return null;
+    }
+
+    public static void endInitClassLoader(Object event, String dbType, String jarPath, int jarCount) {
+    }
+
+    public static Object beginInitDriver() {
+        return null;
+    }
+
+    public static void endInitDriver(Object event, String dbType, String jarPath, String className) {
+    }
+
+    public static Object beginClassLoad() {
+        return null;
+    }
+
+    public static void endClassLoad(Object event, String className, String jarPath, boolean found) {
+    }
+
+    public static Object beginConfigParse() {
+        return null;
+    }
+
+    public static void endConfigParse(Object event, int mappings) {
+    }
+}
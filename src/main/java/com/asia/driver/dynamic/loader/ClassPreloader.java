@@ -0,0 +1,227 @@
+package com.asia.driver.dynamic.loader;
+
+import com.asia.driver.dynamic.log.DriverLog;
+import com.asia.driver.dynamic.utils.ProxyInfo;
+import com.asia.driver.dynamic.utils.ThreadSupport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * @author wangwei
+ * @date 2024/03/30
+ * 驱动类的记录和预加载：
+ * 1.每个驱动类加载器记录从驱动包中加载过的类名，定时和进程退出时按驱动包的校验和写入缓存目录；
+ * 2.创建类加载器时如果缓存目录中有相同校验和的类列表，在后台并行预加载这些类（只加载不初始化），
+ * 第一次连接和查询时不再逐个从jar中加载协议、SSL、类型转换等类；
+ * 3.默认关闭，开启时需要通过proxy.driver.cache.path指定一个只有当前用户可写、重启后保留的缓存目录，
+ * 默认的${java.io.tmpdir}/dynamic-driver可能被其他用户写入，也可能在重启或容器重建后被清空，此时只打印警告。
+ *
+ * 配置项（系统属性）：
+ * proxy.driver.preload                 是否开启记录和预加载，默认false
+ * proxy.driver.preload.parallelism     预加载的并行度，默认CPU核数，最多4
+ * proxy.driver.preload.flush.interval  写入类列表的间隔（毫秒），默认60000
+ * proxy.driver.cache.path              缓存目录，类列表保存在其中的preload目录下
+ */
+public final class ClassPreloader {
+
+    private static final DriverLog log = DriverLog.getLog(ClassPreloader.class);
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("proxy.driver.preload", "false"));
+
+    private static final int PARALLELISM = Integer.getInteger("proxy.driver.preload.parallelism",
+            Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static final long FLUSH_INTERVAL = Long.getLong("proxy.driver.preload.flush.interval", 60000L);
+
+    private static final Path PRELOAD_DIR = Paths.get(ProxyInfo.CACHE_PATH, "preload");
+
+    private static final String FILE_SUFFIX = ".classes";
+
+    // 类加载器 -> 记录状态
+    private static final ConcurrentHashMap<DriverClassLoader, Recording> recordings = new ConcurrentHashMap<>();
+
+    private static volatile ExecutorService executor;
+
+    private static volatile ScheduledExecutorService flusher;
+
+    private ClassPreloader() {
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * 开始记录类加载器加载的类，并在后台计算驱动包校验和、预加载上次记录的类
+     *
+     * @param loader 驱动类加载器
+     * @param jars   类加载器中所有驱动包的路径
+     */
+    public static void attach(DriverClassLoader loader, List<String> jars) {
+        if (!ENABLED) {
+            return;
+        }
+        loader.startRecording();
+        start();
+        List<String> sorted = new ArrayList<>(jars);
+        Collections.sort(sorted);
+        executor.execute(() -> {
+            try {
+                Recording recording = new Recording(loader, checksum(sorted));
+                recordings.put(loader, recording);
+                replay(recording);
+            } catch (IOException | RuntimeException e) {
+                log.warn("preload classes failed for {} : {}", sorted, e.toString());
+            }
+        });
+    }
+
+    /**
+     * 停止记录，类加载器关闭前调用，已记录的类先写入缓存
+     *
+     * @param loader 驱动类加载器
+     */
+    public static void detach(DriverClassLoader loader) {
+        Recording recording = recordings.remove(loader);
+        if (recording != null) {
+            flush(recording);
+        }
+    }
+
+    private static void start() {
+        if (executor == null) {
+            synchronized (ClassPreloader.class) {
+                if (executor == null) {
+                    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+                            ThreadSupport.daemonFactory("proxy-driver-preload-flush"));
+                    scheduler.scheduleWithFixedDelay(ClassPreloader::flushAll, FLUSH_INTERVAL, FLUSH_INTERVAL,
+                            TimeUnit.MILLISECONDS);
+                    flusher = scheduler;
+                    Runtime.getRuntime().addShutdownHook(new Thread(ClassPreloader::flushAll, "proxy-driver-preload-exit"));
+                    executor = Executors.newFixedThreadPool(PARALLELISM, ThreadSupport.daemonFactory("proxy-driver-preload"));
+                    if (System.getProperty("proxy.driver.cache.path") == null) {
+                        log.warn("class preload uses the default cache path {}, set proxy.driver.cache.path to a private "
+                                + "persistent directory", ProxyInfo.CACHE_PATH);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 读取上次记录的类列表，分成多份并行加载
+     */
+    private static void replay(Recording recording) throws IOException {
+        Path file = recording.file();
+        if (!Files.exists(file)) {
+            return;
+        }
+        List<String> names = Files.readAllLines(file, StandardCharsets.UTF_8);
+        recording.persisted = names.size();
+        long begin = System.nanoTime();
+        int parts = Math.max(1, Math.min(PARALLELISM, names.size() / 32));
+        int size = (names.size() + parts - 1) / parts;
+        for (int i = 0; i < parts; i++) {
+            List<String> part = names.subList(i * size, Math.min(names.size(), (i + 1) * size));
+            boolean last = i == parts - 1;
+            executor.execute(() -> {
+                for (String name : part) {
+                    try {
+                        Class.forName(name, false, recording.loader);
+                    } catch (ClassNotFoundException | LinkageError e) {
+                        // 驱动包已变化或类依赖可选的库，跳过
+                    }
+                }
+                if (last) {
+                    log.debug("preloaded {} classes in {} ms", names.size(),
+                            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+                }
+            });
+        }
+    }
+
+    private static void flushAll() {
+        for (Recording recording : recordings.values()) {
+            flush(recording);
+        }
+    }
+
+    /**
+     * 记录的类比上次写入的多时，合并后写入临时文件再原子替换
+     */
+    private static void flush(Recording recording) {
+        Set<String> recorded = recording.loader.getRecordedClasses();
+        if (recorded.size() <= recording.persisted) {
+            return;
+        }
+        try {
+            Path file = recording.file();
+            TreeSet<String> names = new TreeSet<>(recorded);
+            if (Files.exists(file)) {
+                names.addAll(Files.readAllLines(file, StandardCharsets.UTF_8));
+            }
+            ProxyInfo.createCacheDirectories(PRELOAD_DIR);
+            Path temp = Files.createTempFile(PRELOAD_DIR, recording.checksum, ".tmp");
+            Files.write(temp, names, StandardCharsets.UTF_8);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            recording.persisted = names.size();
+        } catch (IOException | RuntimeException e) {
+            log.warn("write preload classes failed for {} : {}", recording.checksum, e.toString());
+        }
+    }
+
+    /**
+     * 所有驱动包的长度和内容的CRC32
+     */
+    private static String checksum(List<String> jars) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        long length = 0;
+        for (String jar : jars) {
+            try (InputStream in = Files.newInputStream(Paths.get(jar))) {
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    crc.update(buffer, 0, n);
+                    length += n;
+                }
+            }
+        }
+        return Long.toHexString(length) + "-" + Long.toHexString(crc.getValue());
+    }
+
+    private static final class Recording {
+
+        private final DriverClassLoader loader;
+
+        private final String checksum;
+
+        // 缓存文件中已有的类数量
+        private volatile int persisted;
+
+        private Recording(DriverClassLoader loader, String checksum) {
+            this.loader = loader;
+            this.checksum = checksum;
+        }
+
+        private Path file() {
+            return PRELOAD_DIR.resolve(checksum + FILE_SUFFIX);
+        }
+    }
+}
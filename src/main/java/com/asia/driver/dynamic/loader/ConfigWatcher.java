@@ -0,0 +1,219 @@
+package com.asia.driver.dynamic.loader;
+
+import com.asia.driver.dynamic.bean.DriverInfo;
+import com.asia.driver.dynamic.bean.DriverMapping;
+import com.asia.driver.dynamic.config.PropertiesFileParser;
+import com.asia.driver.dynamic.log.DriverLog;
+import com.asia.driver.dynamic.utils.ProxyInfo;
+import com.asia.driver.dynamic.utils.ThreadSupport;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author wangwei
+ * @date 2024/04/02
+ * 驱动配置的热加载：
+ * 1.后台线程通过WatchService监听配置目录（ProxyInfo.DRIVER_PATHES）和所有驱动目录，
+ * driver.properties或jar变化后等待一段静默时间，再在后台重新解析全部配置；
+ * 2.解析结果作为新的{@link DriverSnapshot}整体替换旧快照，解析失败时保留旧快照；
+ * 未变化的驱动沿用已初始化的类加载器和驱动，新快照的路由表中预先填充这些驱动；
+ * 3.删除或变化的驱动立即从路由中移除，已经匹配到旧驱动的连接继续使用旧驱动，
+ * 排空时间过后再关闭旧驱动的连接池和类加载器。
+ *
+ * 配置项（系统属性）：
+ * proxy.driver.reload           是否开启配置热加载，默认false
+ * proxy.driver.reload.debounce  文件变化后的静默时间（毫秒），默认500
+ * proxy.driver.reload.drain     移除的驱动关闭前的排空时间（毫秒），默认60000
+ */
+public final class ConfigWatcher {
+
+    private static final DriverLog log = DriverLog.getLog(ConfigWatcher.class);
+
+    private static final boolean ENABLED = Boolean.getBoolean("proxy.driver.reload");
+
+    private static final long DEBOUNCE = Long.getLong("proxy.driver.reload.debounce", 500L);
+
+    private static final long DRAIN = Long.getLong("proxy.driver.reload.drain", 60000L);
+
+    private static final AtomicBoolean started = new AtomicBoolean();
+
+    // 已注册到WatchService的目录，访问时对集合本身加锁
+    private static final Set<Path> watched = new HashSet<>();
+
+    private static volatile WatchService watchService;
+
+    private static volatile ScheduledExecutorService drainer;
+
+    private ConfigWatcher() {
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * 开启热加载时启动监听线程，只执行一次
+     */
+    public static void start() {
+        if (!ENABLED || !started.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            log.warn("create watch service failed, driver config will not be reloaded : {}", e.toString());
+            return;
+        }
+        registerAll();
+        ThreadSupport.daemonFactory("proxy-driver-config-watcher").newThread(ConfigWatcher::watch).start();
+        log.info("watching driver config directories {}", watched);
+    }
+
+    private static void watch() {
+        WatchService service = watchService;
+        try {
+            while (true) {
+                if (!isRelevant(service.take())) {
+                    continue;
+                }
+                // 静默时间内的后续变化合并为一次重新加载
+                WatchKey next;
+                while ((next = service.poll(DEBOUNCE, TimeUnit.MILLISECONDS)) != null) {
+                    isRelevant(next);
+                }
+                reload();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            log.info("driver config watcher stopped : {}", e.toString());
+        }
+    }
+
+    /**
+     * 取出事件并重置监听，判断是否有配置文件或jar的变化
+     */
+    private static boolean isRelevant(WatchKey key) {
+        boolean relevant = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                relevant = true;
+                continue;
+            }
+            String name = String.valueOf(event.context());
+            if (name.endsWith(".properties") || name.endsWith(".jar")) {
+                relevant = true;
+            }
+        }
+        if (!key.reset()) {
+            synchronized (watched) {
+                watched.remove((Path) key.watchable());
+            }
+        }
+        return relevant;
+    }
+
+    /**
+     * 重新解析全部配置并替换快照，也可以由外部直接调用
+     *
+     * @return 当前快照的版本，解析失败时为旧快照的版本
+     */
+    public static synchronized long reload() {
+        List<DriverMapping> mappings;
+        try {
+            mappings = new PropertiesFileParser().reload();
+        } catch (RuntimeException e) {
+            log.error("reload driver config failed, keep snapshot " + LoaderContext.getSnapshot(), e);
+            return LoaderContext.getSnapshot().getVersion();
+        }
+        List<DriverInfo> retired = LoaderContext.replaceDriverMappings(mappings);
+        DriverSnapshot snapshot = LoaderContext.getSnapshot();
+        log.info("driver config reloaded as {}, {} drivers retired", snapshot, retired.size());
+        retire(retired);
+        DriverInitializer.warm(snapshot);
+        registerAll();
+        return snapshot.getVersion();
+    }
+
+    /**
+     * 排空时间过后关闭已初始化的旧驱动，排空期间旧快照上的匹配仍可能初始化旧驱动，所以到期时再判断
+     */
+    private static void retire(List<DriverInfo> retired) {
+        if (retired.isEmpty()) {
+            return;
+        }
+        startDrainer();
+        drainer.schedule(() -> {
+            for (DriverInfo driverInfo : retired) {
+                if (driverInfo.getClassLoader() != null) {
+                    release(driverInfo);
+                }
+            }
+        }, DRAIN, TimeUnit.MILLISECONDS);
+    }
+
+    private static void release(DriverInfo driverInfo) {
+        DriverEvictor.release(driverInfo.getDriver(), driverInfo.getClassLoader());
+        log.info("released retired driver {}", driverInfo.getJarAbsolutePath());
+    }
+
+    private static void startDrainer() {
+        if (drainer == null) {
+            synchronized (ConfigWatcher.class) {
+                if (drainer == null) {
+                    drainer = Executors.newSingleThreadScheduledExecutor(
+                            ThreadSupport.daemonFactory("proxy-driver-config-drain"));
+                }
+            }
+        }
+    }
+
+    /**
+     * 注册配置目录和当前快照中的驱动目录，已注册的目录跳过
+     */
+    private static void registerAll() {
+        WatchService service = watchService;
+        if (service == null) {
+            return;
+        }
+        List<String> dirs = new ArrayList<>();
+        for (String path : ProxyInfo.DRIVER_PATHES) {
+            File file = new File(path);
+            dirs.add(file.isFile() ? file.getParent() : path);
+        }
+        dirs.addAll(LoaderContext.getSnapshot().getDirs());
+        synchronized (watched) {
+            for (String dir : dirs) {
+                File file = dir == null ? null : new File(dir);
+                if (file == null || !file.isDirectory()) {
+                    continue;
+                }
+                Path path = file.toPath().toAbsolutePath().normalize();
+                if (watched.contains(path)) {
+                    continue;
+                }
+                try {
+                    path.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                    watched.add(path);
+                } catch (IOException e) {
+                    log.warn("watch directory {} failed : {}", path, e.toString());
+                }
+            }
+        }
+    }
+}
@@ -1,12 +1,27 @@
 package com.asia.driver.dynamic.loader;
 
+import com.asia.driver.dynamic.jfr.DriverEvents;
+import com.asia.driver.dynamic.utils.ModuleSupport;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
-
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.jar.JarEntry;
+import java.util.jar.Manifest;
 
 
 @Slf4j
@@ -14,8 +29,34 @@ public class DriverClassLoader extends URLClassLoader {
 
     private static final String CLASS_FILE_SUFFIX = ".class";
 
+    static {
+        // 不同的类可以并行加载，JVM也不会再在类加载器对象上加监视器锁
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    // 每个类名一把锁，使用ReentrantLock代替synchronized，类加载的IO不会钉住虚拟线程的载体线程
+    private final ConcurrentHashMap<String, ReentrantLock> loadingLocks = new ConcurrentHashMap<>();
+
     private ClassLoader javaseClassLoader;
 
+    // 加载失败的类名最多缓存的数量，超过后清空
+    private static final int MAX_MISSES = 4096;
+
+    // 包名 -> 是否委托给extClassloader
+    private final ConcurrentHashMap<String, Delegation> packageDelegations = new ConcurrentHashMap<>();
+
+    // 加载失败的类名
+    private final Set<String> misses = ConcurrentHashMap.newKeySet();
+
+    // jar条目索引，URL不全是本地jar时为null
+    private final JarIndex jarIndex;
+
+    // 共享依赖层的类加载器，自己的jar中没有的类从这里加载，没有共享依赖时为null
+    private final DriverClassLoader shared;
+
+    // 开启记录后，从驱动包中加载过的类名，用于下次启动时预加载
+    private volatile Set<String> recordedClasses;
+
     /**
      * 存放数据库版本的对象
      **/
@@ -33,6 +74,14 @@ public class DriverClassLoader extends URLClassLoader {
     private String dmsDriverVersion;
 
     public DriverClassLoader(URL[] urls) {
+        this(urls, null);
+    }
+
+    /**
+     * @param urls   当前驱动版本自己的jar
+     * @param shared 共享依赖层的类加载器，可以为null
+     */
+    public DriverClassLoader(URL[] urls, DriverClassLoader shared) {
 
         super(urls,null);
         ClassLoader javese = String.class.getClassLoader();
@@ -44,7 +93,114 @@ public class DriverClassLoader extends URLClassLoader {
         }
         // extClassloader
         this.javaseClassLoader = javese;
+        this.jarIndex = buildIndex(urls);
+        this.shared = shared;
+    }
 
+    private static JarIndex buildIndex(URL[] urls) {
+        try {
+            return JarIndex.build(urls);
+        } catch (IOException e) {
+            log.warn("build jar index failed, fall back to URLClassLoader : {}", e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * 通过jar条目索引查找类，索引中没有的类不读jar直接失败
+     */
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        JarIndex index = jarIndex;
+        if (index == null) {
+            return super.findClass(name);
+        }
+        String path = binaryNameToPath(name, false);
+        int jar = index.find(path);
+        if (jar < 0) {
+            throw new ClassNotFoundException(name);
+        }
+        try {
+            JarEntry entry = index.entry(jar, path);
+            byte[] bytes = index.read(jar, entry);
+            URL codeSource = index.codeSource(jar);
+            definePackageIfNecessary(name, index.manifest(jar), codeSource);
+            Class<?> clazz = defineClass(name, bytes, 0, bytes.length, new CodeSource(codeSource, entry.getCodeSigners()));
+            index.recordDefine(jar, bytes.length);
+            return clazz;
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+    }
+
+    private void definePackageIfNecessary(String className, Manifest manifest, URL codeSource) {
+        int dot = className.lastIndexOf('.');
+        if (dot < 0) {
+            return;
+        }
+        String packageName = className.substring(0, dot);
+        if (getPackage(packageName) != null) {
+            return;
+        }
+        try {
+            if (manifest != null) {
+                definePackage(packageName, manifest, codeSource);
+            } else {
+                definePackage(packageName, null, null, null, null, null, null, null);
+            }
+        } catch (IllegalArgumentException e) {
+            // 其他线程已经定义了这个包
+        }
+    }
+
+    @Override
+    public URL findResource(String name) {
+        URL url = findLocalResource(name);
+        if (url == null && shared != null) {
+            url = shared.findResource(name);
+        }
+        return url;
+    }
+
+    private URL findLocalResource(String name) {
+        JarIndex index = jarIndex;
+        if (index == null) {
+            return super.findResource(name);
+        }
+        int jar = index.find(name);
+        if (jar < 0) {
+            return null;
+        }
+        try {
+            return index.resource(jar, name);
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Enumeration<URL> findResources(String name) throws IOException {
+        JarIndex index = jarIndex;
+        Enumeration<URL> local = index == null ? super.findResources(name) : Collections.enumeration(index.resources(name));
+        if (shared == null) {
+            return local;
+        }
+        List<URL> urls = Collections.list(local);
+        urls.addAll(Collections.list(shared.findResources(name)));
+        return Collections.enumeration(urls);
+    }
+
+    @Override
+    public void close() throws IOException {
+        SharedJarLayer.release(this);
+        try {
+            super.close();
+        } finally {
+            JarIndex index = jarIndex;
+            if (index != null) {
+                index.close();
+            }
+        }
     }
 
 
@@ -55,7 +211,9 @@ public class DriverClassLoader extends URLClassLoader {
     }
 
     /**
-     * 跳过从classpath下加载类，先通过extClassloader进行加载，加载不到再使用当前类加载器进行加载
+     * 跳过从classpath下加载类，先通过extClassloader进行加载，加载不到再使用当前类加载器进行加载，
+     * 自己的jar中没有的类最后从共享依赖层加载。
+     * 是否委托给extClassloader见{@link #delegation(String, String)}；加载失败的类名缓存下来，再次加载时直接失败。
      *
      * @param name
      * @param resolve
@@ -64,54 +222,287 @@ public class DriverClassLoader extends URLClassLoader {
      */
     @Override
     public Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
-        synchronized (getClassLoadingLock(name)) {
-            Class<?> clazz = findLoadedClass(name);
-            if (clazz != null) {
-                if (resolve) {
-                    resolveClass(clazz);
-                }
-                return (clazz);
+        // 已加载的类和缓存的失败不需要加锁
+        Class<?> clazz = findLoadedClass(name);
+        if (clazz == null) {
+            if (misses.contains(name)) {
+                throw new CachedMiss(name);
             }
-            String resourceName = binaryNameToPath(name, false);
-            boolean tryLoadingFromJavaseLoader;
+            ReentrantLock lock = loadingLock(name);
+            lock.lock();
             try {
-                URL url = javaseClassLoader.getResource(resourceName);
-                tryLoadingFromJavaseLoader = (url != null);
-            } catch (Throwable t) {
-                tryLoadingFromJavaseLoader = true;
-            }
-            if (tryLoadingFromJavaseLoader) {
-                try {
-                    clazz = javaseClassLoader.loadClass(name);
-                    if (clazz != null) {
-                        if (resolve) {
-                            resolveClass(clazz);
-                        }
-                        return (clazz);
-                    }
-                } catch (ClassNotFoundException e) {
-                    // Ignore
+                clazz = findLoadedClass(name);
+                if (clazz == null) {
+                    clazz = loadNew(name);
                 }
+            } finally {
+                lock.unlock();
             }
+        }
+        if (resolve) {
+            resolveClass(clazz);
+        }
+        return clazz;
+    }
 
-            //
+    private Class<?> loadNew(String name) throws ClassNotFoundException {
+        String packageName = packageOf(name);
+        Delegation delegation = delegation(name, packageName);
+        if (delegation == Delegation.SHARED) {
+            return loadShared(name);
+        }
+        if (delegation == Delegation.JAVASE) {
             try {
-                clazz = findClass(name);
-                if (clazz != null) {
-                    if (resolve) {
-                        resolveClass(clazz);
-                    }
-                    return (clazz);
+                return javaseClassLoader.loadClass(name);
+            } catch (ClassNotFoundException e) {
+                // 驱动包中也有这个包时继续从驱动包加载
+                if (jarIndex != null && !jarIndex.hasPackage(packageName)) {
+                    throw miss(name);
                 }
+            }
+        }
+
+        // 从驱动包首次加载，慢加载记录JFR事件
+        Object event = DriverEvents.beginClassLoad();
+        Class<?> clazz = null;
+        try {
+            clazz = findClass(name);
+            Set<String> recorded = recordedClasses;
+            if (recorded != null) {
+                recorded.add(name);
+            }
+            return clazz;
+        } catch (ClassNotFoundException e) {
+            // 同一个包的类也可能在共享依赖中
+        } finally {
+            if (event != null) {
+                DriverEvents.endClassLoad(event, name, codeSource(clazz), clazz != null);
+            }
+        }
+        return loadShared(name);
+    }
+
+    private Class<?> loadShared(String name) throws ClassNotFoundException {
+        if (shared != null) {
+            try {
+                return shared.loadClass(name);
             } catch (ClassNotFoundException e) {
-                // Ignore
+                // 缓存到当前类加载器的失败中
+            }
+        }
+        throw miss(name);
+    }
+
+    /**
+     * 按包决定先委托给extClassloader还是直接从驱动包加载：
+     * java.开头的包和驱动包中没有的包委托给extClassloader，只在共享依赖中的包委托给共享依赖层，
+     * JDK中没有的包直接从驱动包加载，以上决策按包缓存；
+     * 驱动包和JDK中都有的包（例如javax.xml下的包，Java 8下无法列出JDK的包，驱动包中的包都按这种情况处理）
+     * 每个类单独探测extClassloader中是否存在，同一个包中JDK有的类仍然优先从JDK加载。
+     */
+    private Delegation delegation(String name, String packageName) {
+        if (name.startsWith("java.")) {
+            return Delegation.JAVASE;
+        }
+        Delegation delegation = packageDelegations.get(packageName);
+        if (delegation != null) {
+            return delegation;
+        }
+        if (jarIndex != null && !jarIndex.hasPackage(packageName)) {
+            delegation = shared != null && shared.hasPackage(packageName) ? Delegation.SHARED : Delegation.JAVASE;
+        } else if (!ModuleSupport.isPlatformPackage(packageName)) {
+            delegation = Delegation.LOCAL;
+        } else {
+            boolean javase;
+            try {
+                javase = javaseClassLoader.getResource(binaryNameToPath(name, false)) != null;
+            } catch (Throwable t) {
+                javase = true;
+            }
+            return javase ? Delegation.JAVASE : Delegation.LOCAL;
+        }
+        packageDelegations.putIfAbsent(packageName, delegation);
+        return delegation;
+    }
+
+    private ClassNotFoundException miss(String name) {
+        if (misses.size() >= MAX_MISSES) {
+            misses.clear();
+        }
+        misses.add(name);
+        return new ClassNotFoundException(name);
+    }
+
+    /**
+     * @return 类是否已经由当前类加载器加载
+     */
+    boolean isLoaded(String name) {
+        return findLoadedClass(name) != null;
+    }
+
+    /**
+     * @return 自己的jar中是否有这个包的类
+     */
+    boolean hasPackage(String packageName) {
+        JarIndex index = jarIndex;
+        return index != null && index.hasPackage(packageName);
+    }
+
+    /**
+     * @return 从驱动包中已定义的类数量
+     */
+    public int getDefinedClassCount() {
+        JarIndex index = jarIndex;
+        return index == null ? 0 : index.totalDefinedClasses();
+    }
+
+    /**
+     * @return 从驱动包中已定义的类的字节码大小，元空间占用的近似值
+     */
+    public long getDefinedBytes() {
+        JarIndex index = jarIndex;
+        return index == null ? 0 : index.totalDefinedBytes();
+    }
+
+    /**
+     * @return 打开的jar文件句柄数，类加载器关闭后为0
+     */
+    public int getOpenJarCount() {
+        JarIndex index = jarIndex;
+        return index == null ? 0 : index.openJars();
+    }
+
+    /**
+     * @return 下标为jar的驱动包中已定义的类数量
+     */
+    int definedClasses(int jar) {
+        JarIndex index = jarIndex;
+        return index == null ? 0 : index.definedClasses(jar);
+    }
+
+    /**
+     * @return 下标为jar的驱动包中已定义的类的字节码大小
+     */
+    long definedBytes(int jar) {
+        JarIndex index = jarIndex;
+        return index == null ? 0 : index.definedBytes(jar);
+    }
+
+    /**
+     * @return 共享依赖层的类加载器，没有时返回null
+     */
+    public DriverClassLoader getShared() {
+        return shared;
+    }
+
+    private static String packageOf(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(0, dot);
+    }
+
+    /**
+     * 开始记录从驱动包中加载的类
+     */
+    void startRecording() {
+        if (recordedClasses == null) {
+            recordedClasses = ConcurrentHashMap.newKeySet();
+        }
+    }
+
+    /**
+     * @return 已记录的类名，未开启记录时返回空集合
+     */
+    Set<String> getRecordedClasses() {
+        Set<String> recorded = recordedClasses;
+        return recorded == null ? Collections.emptySet() : recorded;
+    }
+
+    private ReentrantLock loadingLock(String name) {
+        ReentrantLock lock = loadingLocks.get(name);
+        if (lock == null) {
+            ReentrantLock newLock = new ReentrantLock();
+            lock = loadingLocks.putIfAbsent(name, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+        return lock;
+    }
+
+
+
+    /**
+     * 在当前类加载器中重新定义代理驱动的辅助类，辅助类只能依赖JDK中的类
+     *
+     * @param template 代理驱动中的辅助类
+     * @return 当前类加载器中定义的辅助类
+     * @throws IOException 读取辅助类字节码失败
+     */
+    Class<?> defineHelperClass(Class<?> template) throws IOException {
+        String name = template.getName();
+        ReentrantLock lock = loadingLock(name);
+        lock.lock();
+        try {
+            Class<?> clazz = findLoadedClass(name);
+            if (clazz != null) {
+                return clazz;
             }
+            try (InputStream in = template.getClassLoader().getResourceAsStream(binaryNameToPath(name, false))) {
+                if (in == null) {
+                    throw new IOException("can not read class : " + name);
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+                byte[] bytes = out.toByteArray();
+                return defineClass(name, bytes, 0, bytes.length);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
 
+    private static String codeSource(Class<?> clazz) {
+        if (clazz == null || clazz.getProtectionDomain().getCodeSource() == null) {
+            return null;
         }
-        throw new ClassNotFoundException(name);
+        URL location = clazz.getProtectionDomain().getCodeSource().getLocation();
+        return location == null ? null : location.getPath();
     }
 
+    /**
+     * 注销当前类加载器中的驱动在DriverManager中的注册，避免DriverManager中的驱动随着加载的版本不断增加
+     *
+     * @return 注销的驱动数量
+     */
+    public int deregisterDrivers() {
+        try {
+            Class<?> helper = defineHelperClass(IsolatedDriverDeregister.class);
+            Method deregister = helper.getMethod("deregister");
+            deregister.setAccessible(true);
+            return (Integer) deregister.invoke(null);
+        } catch (Exception e) {
+            log.warn("deregister isolated drivers failed : {}", e.toString());
+            return 0;
+        }
+    }
 
+    /**
+     * @return 当前类加载器加载的驱动中仍然注册在DriverManager中的数量，检查失败时返回-1
+     */
+    int registeredDriverCount() {
+        try {
+            Class<?> helper = defineHelperClass(IsolatedDriverDeregister.class);
+            Method registered = helper.getMethod("registered");
+            registered.setAccessible(true);
+            return (Integer) registered.invoke(null);
+        } catch (Exception | LinkageError e) {
+            return -1;
+        }
+    }
 
     private String binaryNameToPath(String binaryName, boolean withLeadingSlash) {
         // 1 for leading '/', 6 for ".class"
@@ -123,4 +514,28 @@ public class DriverClassLoader extends URLClassLoader {
         path.append(CLASS_FILE_SUFFIX);
         return path.toString();
     }
-}
\ No newline at end of file
+
+    private enum Delegation {
+        // 委托给extClassloader
+        JAVASE,
+        // 直接从驱动包加载
+        LOCAL,
+        // 委托给共享依赖层，共享依赖层自己再决定是否委托给extClassloader
+        SHARED
+    }
+
+    /**
+     * 命中失败缓存时抛出的异常，不填充堆栈
+     */
+    private static final class CachedMiss extends ClassNotFoundException {
+
+        private CachedMiss(String name) {
+            super(name);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,416 @@
+package com.asia.driver.dynamic.loader;
+
+import com.asia.driver.dynamic.bean.DriverInfo;
+import com.asia.driver.dynamic.log.DriverLog;
+import com.asia.driver.dynamic.pool.PoolContext;
+import com.asia.driver.dynamic.utils.ThreadSupport;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.net.URLClassLoader;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author wangwei
+ * @date 2024/04/03
+ * 驱动版本的淘汰：
+ * 1.每次连接记录驱动的最近使用时间，超过空闲时间没有新连接的驱动版本被淘汰；
+ * 2.已加载的驱动版本超过上限时，按最近使用时间淘汰最久未使用的版本（LRU），只淘汰空闲超过空闲时间的版本，
+ * 没有设置空闲时间时只淘汰一个检查间隔内没有新连接的版本，所以上限是软上限；
+ * 3.淘汰时从路由表中移除，关闭内置连接池，注销DriverManager中的注册，下次连接这个版本时重新初始化；
+ * 4.开启淘汰或热加载时记录每个驱动建立的物理连接（弱引用），驱动还有未关闭的物理连接时，
+ * 停止驱动的后台线程和关闭类加载器推迟到这些连接都关闭或被回收之后，由后台检查完成。
+ *
+ * 配置项（系统属性）：
+ * proxy.driver.evict.max.loaded  最多同时加载的驱动版本数，默认0，不限制
+ * proxy.driver.evict.idle.ttl    驱动版本的空闲时间（毫秒），默认0，不按空闲时间淘汰
+ * proxy.driver.evict.interval    后台检查的间隔（毫秒），默认30000
+ */
+public final class DriverEvictor {
+
+    private static final DriverLog log = DriverLog.getLog(DriverEvictor.class);
+
+    private static final int MAX_LOADED = Integer.getInteger("proxy.driver.evict.max.loaded", 0);
+
+    private static final long IDLE_TTL = Long.getLong("proxy.driver.evict.idle.ttl", 0L);
+
+    private static final long INTERVAL = Long.getLong("proxy.driver.evict.interval", 30000L);
+
+    private static final boolean ENABLED = MAX_LOADED > 0 || IDLE_TTL > 0;
+
+    // 超过上限时可以淘汰的最短空闲时间
+    private static final long MIN_IDLE = IDLE_TTL > 0 ? IDLE_TTL : INTERVAL;
+
+    // 类加载器可能被释放时才记录物理连接
+    private static final boolean TRACKED = ENABLED || ConfigWatcher.isEnabled();
+
+    // 驱动已知的后台线程的停止方法：类名和静态方法名，按顺序尝试
+    private static final String[][] THREAD_SHUTDOWNS = {
+            {"com.mysql.cj.jdbc.AbandonedConnectionCleanupThread", "checkedShutdown"},
+            {"com.mysql.jdbc.AbandonedConnectionCleanupThread", "checkedShutdown"},
+            {"com.mysql.jdbc.AbandonedConnectionCleanupThread", "shutdown"}
+    };
+
+    // 已加载的驱动 -> 使用情况
+    private static final ConcurrentHashMap<Driver, Usage> usages = new ConcurrentHashMap<>();
+
+    // 驱动 -> 建立的物理连接
+    private static final ConcurrentHashMap<Driver, OpenConnections> connections = new ConcurrentHashMap<>();
+
+    // 已释放但还有未关闭的物理连接、等待关闭类加载器的驱动
+    private static final ConcurrentLinkedQueue<Retired> retired = new ConcurrentLinkedQueue<>();
+
+    private static final AtomicLong evictions = new AtomicLong();
+
+    private static volatile ScheduledExecutorService evictor;
+
+    private DriverEvictor() {
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * 记录驱动被使用，由连接路径调用，未开启淘汰时不做任何事
+     *
+     * @param driver 真实驱动
+     */
+    public static void touch(Driver driver) {
+        if (!ENABLED) {
+            return;
+        }
+        Usage usage = usages.get(driver);
+        if (usage != null) {
+            usage.lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 记录驱动建立的物理连接，内置连接池和不使用连接池的连接路径在真实驱动返回连接后调用，
+     * 未开启淘汰和热加载时不做任何事
+     *
+     * @param driver     真实驱动
+     * @param connection 真实驱动返回的物理连接，可以为null
+     */
+    public static void opened(Driver driver, Connection connection) {
+        if (!TRACKED || connection == null) {
+            return;
+        }
+        OpenConnections open = connections.get(driver);
+        if (open == null) {
+            open = connections.computeIfAbsent(driver, k -> new OpenConnections());
+            start();
+        }
+        open.add(connection);
+    }
+
+    /**
+     * 驱动已经被淘汰，持有驱动引用的调用方需要重新匹配；未开启淘汰时总是返回false，
+     * 配置重新加载后驱动是否下线由调用方比较{@link LoaderContext#getSnapshot()}的版本判断
+     *
+     * @param driver 真实驱动
+     * @return 开启淘汰且驱动不再处于加载状态时返回true
+     */
+    public static boolean isEvicted(Driver driver) {
+        return ENABLED && !usages.containsKey(driver);
+    }
+
+    /**
+     * 驱动初始化完成后登记，超过加载上限时在后台淘汰
+     *
+     * @param driverInfo 已初始化的驱动信息
+     */
+    static void loaded(DriverInfo driverInfo) {
+        if (!ENABLED) {
+            return;
+        }
+        usages.put(driverInfo.getDriver(), new Usage(driverInfo, driverInfo.getDriver()));
+        start();
+        if (MAX_LOADED > 0 && usages.size() > MAX_LOADED) {
+            evictor.execute(DriverEvictor::evictOverflow);
+        }
+    }
+
+    private static void start() {
+        if (evictor == null) {
+            synchronized (DriverEvictor.class) {
+                if (evictor == null) {
+                    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+                            ThreadSupport.daemonFactory("proxy-driver-evictor"));
+                    executor.scheduleWithFixedDelay(DriverEvictor::evictExpired, INTERVAL, INTERVAL, TimeUnit.MILLISECONDS);
+                    evictor = executor;
+                }
+            }
+        }
+    }
+
+    private static void evictExpired() {
+        try {
+            if (IDLE_TTL > 0) {
+                long now = System.currentTimeMillis();
+                for (Usage usage : usages.values()) {
+                    if (now - usage.lastUsed > IDLE_TTL) {
+                        evict(usage, "idle");
+                    }
+                }
+            }
+            evictOverflow();
+            closeRetired();
+        } catch (RuntimeException e) {
+            log.error("evict driver versions failed", e);
+        }
+    }
+
+    /**
+     * 按最近使用时间从旧到新淘汰空闲超过{@link #MIN_IDLE}的版本，直到不超过加载上限
+     */
+    private static void evictOverflow() {
+        if (MAX_LOADED <= 0 || usages.size() <= MAX_LOADED) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<Usage> candidates = new ArrayList<>(usages.size());
+        // 排序过程中使用时间可能变化，先固定下来
+        for (Usage usage : usages.values()) {
+            usage.snapshot = usage.lastUsed;
+            if (now - usage.snapshot > MIN_IDLE) {
+                candidates.add(usage);
+            }
+        }
+        candidates.sort(Comparator.comparingLong(usage -> usage.snapshot));
+        for (Usage usage : candidates) {
+            if (usages.size() <= MAX_LOADED) {
+                break;
+            }
+            evict(usage, "lru");
+        }
+    }
+
+    /**
+     * 关闭物理连接都已关闭的已释放驱动，同时清理其他驱动已关闭的连接记录
+     */
+    private static void closeRetired() {
+        for (Iterator<Retired> iterator = retired.iterator(); iterator.hasNext(); ) {
+            Retired next = iterator.next();
+            if (openCount(next.driver) == 0) {
+                iterator.remove();
+                close(next.driver, next.loader);
+                log.info("closed retired driver class loader {}", next.loader);
+            }
+        }
+        for (OpenConnections open : connections.values()) {
+            open.count();
+        }
+    }
+
+    private static void evict(Usage usage, String reason) {
+        DriverInfo driverInfo = usage.driverInfo;
+        ReentrantLock lock = driverInfo.getInitLock();
+        // 正在初始化的驱动跳过，下次再检查
+        if (!lock.tryLock()) {
+            return;
+        }
+        URLClassLoader loader;
+        try {
+            if (driverInfo.getDriver() != usage.driver) {
+                usages.remove(usage.driver, usage);
+                return;
+            }
+            usages.remove(usage.driver, usage);
+            LoaderContext.getDriverRoutes().remove(usage.driver);
+            loader = driverInfo.getClassLoader();
+            driverInfo.setDriver(null);
+            driverInfo.setClassLoader(null);
+        } finally {
+            lock.unlock();
+        }
+        release(usage.driver, loader);
+        evictions.incrementAndGet();
+        log.info("evicted driver version {} ({}), {} versions loaded", driverInfo.getJarAbsolutePath(), reason, usages.size());
+    }
+
+    /**
+     * 释放不再使用的驱动：关闭内置连接池，注销DriverManager中的注册，
+     * 没有未关闭的物理连接时停止已知的后台线程并关闭类加载器，否则推迟到后台检查时
+     *
+     * @param driver 真实驱动，可以为null
+     * @param loader 驱动的类加载器
+     */
+    static void release(Driver driver, URLClassLoader loader) {
+        if (driver != null) {
+            usages.remove(driver);
+            PoolContext.closePools(driver);
+        }
+        if (loader instanceof DriverClassLoader) {
+            DriverClassLoader driverLoader = (DriverClassLoader) loader;
+            ClassPreloader.detach(driverLoader);
+            driverLoader.deregisterDrivers();
+        }
+        int open = driver == null ? 0 : openCount(driver);
+        if (open > 0) {
+            retired.add(new Retired(driver, loader));
+            start();
+            log.info("driver class loader {} has {} open connections, close it after they are closed", loader, open);
+            return;
+        }
+        close(driver, loader);
+    }
+
+    private static void close(Driver driver, URLClassLoader loader) {
+        if (driver != null) {
+            connections.remove(driver);
+        }
+        if (loader instanceof DriverClassLoader) {
+            DriverClassLoader driverLoader = (DriverClassLoader) loader;
+            stopThreads(driverLoader);
+            LoaderTracker.retire(driverLoader);
+        }
+        try {
+            loader.close();
+        } catch (IOException e) {
+            log.warn("close class loader {} failed : {}", loader, e.toString());
+        }
+    }
+
+    private static int openCount(Driver driver) {
+        OpenConnections open = connections.get(driver);
+        return open == null ? 0 : open.count();
+    }
+
+    /**
+     * 调用驱动已知的后台线程停止方法，只处理已经加载过的类，不为了停止线程去加载和初始化类。
+     * 调用时把线程上下文类加载器设置为驱动的类加载器，部分驱动会据此校验调用方
+     */
+    private static void stopThreads(DriverClassLoader loader) {
+        Thread current = Thread.currentThread();
+        ClassLoader context = current.getContextClassLoader();
+        current.setContextClassLoader(loader);
+        try {
+            for (String[] shutdown : THREAD_SHUTDOWNS) {
+                if (!loader.isLoaded(shutdown[0])) {
+                    continue;
+                }
+                try {
+                    Class<?> clazz = Class.forName(shutdown[0], false, loader);
+                    Method method = clazz.getMethod(shutdown[1]);
+                    method.invoke(null);
+                    log.info("stopped driver thread {}.{}", shutdown[0], shutdown[1]);
+                    break;
+                } catch (NoSuchMethodException e) {
+                    // 旧版本驱动没有这个方法，尝试下一个
+                } catch (Exception | LinkageError e) {
+                    log.warn("stop driver thread {} failed : {}", shutdown[0], e.toString());
+                }
+            }
+        } finally {
+            current.setContextClassLoader(context);
+        }
+        // 驱动自己定义的线程类启动的其他线程直接中断
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread != current && thread.isAlive() && thread.getClass().getClassLoader() == loader) {
+                log.info("interrupt driver thread {} of {}", thread.getName(), thread.getClass().getName());
+                thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return 已加载的驱动版本数，未开启淘汰时为0
+     */
+    public static int getLoadedCount() {
+        return usages.size();
+    }
+
+    /**
+     * @return 累计淘汰的驱动版本数
+     */
+    public static long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return 已释放但还有未关闭的物理连接的驱动数
+     */
+    public static int getRetiredCount() {
+        return retired.size();
+    }
+
+    private static final class Usage {
+
+        private final DriverInfo driverInfo;
+
+        private final Driver driver;
+
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        // LRU排序时固定的使用时间，只由淘汰线程读写
+        private long snapshot;
+
+        private Usage(DriverInfo driverInfo, Driver driver) {
+            this.driverInfo = driverInfo;
+            this.driver = driver;
+        }
+    }
+
+    /**
+     * 一个驱动建立的物理连接，弱引用不阻止连接被回收，已关闭和已回收的连接在统计时清理。
+     * 连接路径只追加，isClosed只在后台检查时调用，部分驱动的isClosed需要获取连接上的锁
+     */
+    private static final class OpenConnections {
+
+        private final ConcurrentLinkedQueue<WeakReference<Connection>> refs = new ConcurrentLinkedQueue<>();
+
+        private void add(Connection connection) {
+            refs.add(new WeakReference<>(connection));
+        }
+
+        private int count() {
+            int open = 0;
+            for (Iterator<WeakReference<Connection>> iterator = refs.iterator(); iterator.hasNext(); ) {
+                Connection connection = iterator.next().get();
+                if (connection == null || isClosed(connection)) {
+                    iterator.remove();
+                } else {
+                    open++;
+                }
+            }
+            return open;
+        }
+
+        private static boolean isClosed(Connection connection) {
+            try {
+                return connection.isClosed();
+            } catch (SQLException | RuntimeException e) {
+                // 连接已经不可用，按已关闭处理
+                return true;
+            }
+        }
+    }
+
+    private static final class Retired {
+
+        private final Driver driver;
+
+        private final URLClassLoader loader;
+
+        private Retired(Driver driver, URLClassLoader loader) {
+            this.driver = driver;
+            this.loader = loader;
+        }
+    }
+}
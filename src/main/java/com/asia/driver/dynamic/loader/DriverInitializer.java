@@ -0,0 +1,231 @@
+package com.asia.driver.dynamic.loader;
+
+import com.asia.driver.dynamic.bean.DbInfo;
+import com.asia.driver.dynamic.bean.DriverMapping;
+import com.asia.driver.dynamic.enums.InitMode;
+import com.asia.driver.dynamic.log.DriverLog;
+
+import java.sql.Driver;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author wangwei
+ * @date 2024/03/29
+ * 驱动的预初始化和就绪状态：
+ * 1.eager模式下，代理驱动加载时在独立的ForkJoinPool上并行初始化所有驱动映射的类加载器和驱动，并回填路由表；
+ * 2.eager-blocking模式下，初始化完成前（或超过proxy.driver.init.timeout）连接会等待，
+ * 不在Driver的类初始化中等待，避免和DriverManager的驱动加载互相等待；
+ * 3.就绪接口返回已初始化、未初始化和初始化失败的路由，供健康检查使用。
+ *
+ * 配置项（系统属性）：
+ * proxy.driver.init.mode         lazy、eager-blocking或eager-background，默认lazy
+ * proxy.driver.init.parallelism  预初始化的并行度，默认CPU核数
+ * proxy.driver.init.timeout      eager-blocking模式下连接等待初始化的最长时间（毫秒），默认60000
+ */
+public final class DriverInitializer {
+
+    private static final DriverLog log = DriverLog.getLog(DriverInitializer.class);
+
+    private static final InitMode MODE = InitMode.of(System.getProperty("proxy.driver.init.mode"));
+
+    private static final int PARALLELISM = Integer.getInteger("proxy.driver.init.parallelism",
+            Runtime.getRuntime().availableProcessors());
+
+    private static final long TIMEOUT = Long.getLong("proxy.driver.init.timeout", 60000L);
+
+    private static final AtomicBoolean started = new AtomicBoolean();
+
+    private static final CountDownLatch done = new CountDownLatch(1);
+
+    // 初始化完成后连接不再检查计数器
+    private static volatile boolean ready = MODE == InitMode.LAZY;
+
+    // 初始化失败的路由 -> 失败原因
+    private static final ConcurrentHashMap<String, String> failures = new ConcurrentHashMap<>();
+
+    private DriverInitializer() {
+    }
+
+    public static InitMode getMode() {
+        return MODE;
+    }
+
+    /**
+     * eager模式下开始在后台初始化所有驱动映射，只执行一次，lazy模式下不做任何事
+     */
+    public static void start() {
+        if (MODE == InitMode.LAZY || !started.compareAndSet(false, true)) {
+            return;
+        }
+        // 驱动映射和路由表来自同一个快照，初始化期间配置重新加载时不会写入新快照的路由表
+        DriverSnapshot snapshot = LoaderContext.getSnapshot();
+        List<DriverMapping> mappings = new ArrayList<>(snapshot.getMappings());
+        log.info("eager init {} driver mappings with parallelism {}", mappings.size(), PARALLELISM);
+        if (mappings.isEmpty()) {
+            finish(System.nanoTime());
+            return;
+        }
+        long begin = System.nanoTime();
+        initAll(snapshot.getRoutes(), mappings, () -> finish(begin));
+    }
+
+    /**
+     * eager模式下在后台初始化配置重新加载后还未初始化的驱动映射，不影响就绪状态
+     *
+     * @param snapshot 新快照，初始化后的驱动写入这个快照的路由表
+     */
+    static void warm(DriverSnapshot snapshot) {
+        if (MODE == InitMode.LAZY) {
+            return;
+        }
+        List<DriverMapping> cold = new ArrayList<>();
+        for (DriverMapping mapping : snapshot.getMappings()) {
+            if (mapping.getDriverInfo().getDriver() == null) {
+                cold.add(mapping);
+            }
+        }
+        if (!cold.isEmpty()) {
+            log.info("eager init {} reloaded driver mappings", cold.size());
+            initAll(snapshot.getRoutes(), cold, () -> { });
+        }
+    }
+
+    private static void initAll(DriverRoutes routes, List<DriverMapping> mappings, Runnable onDone) {
+        ForkJoinPool pool = new ForkJoinPool(PARALLELISM, DriverInitializer::newWorker, null, false);
+        AtomicInteger remaining = new AtomicInteger(mappings.size());
+        for (DriverMapping mapping : mappings) {
+            pool.execute(() -> {
+                try {
+                    init(routes, mapping);
+                } finally {
+                    if (remaining.decrementAndGet() == 0) {
+                        pool.shutdown();
+                        onDone.run();
+                    }
+                }
+            });
+        }
+    }
+
+    private static ForkJoinWorkerThread newWorker(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("proxy-driver-init-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static void init(DriverRoutes routes, DriverMapping mapping) {
+        DbInfo dbInfo = mapping.getDbInfo();
+        try {
+            Driver driver = LoaderContext.initIfNecessary(mapping.getDriverInfo());
+            initialized(dbInfo);
+            // 通配符和区间不是请求中的版本，不填充路由表，第一次连接时匹配
+            if (!VersionRange.isPattern(dbInfo.getDbVersion())) {
+                routes.put(dbInfo.getDbType(), dbInfo.getDbVersion(), driver);
+            }
+        } catch (RuntimeException | LinkageError e) {
+            failures.put(route(dbInfo), String.valueOf(e));
+            log.error("eager init driver failed for [" + route(dbInfo) + "]", e);
+        }
+    }
+
+    /**
+     * 驱动映射初始化成功后清除之前的失败记录，重新加载后的预初始化和第一次连接时的初始化都会调用
+     *
+     * @param dbInfo 驱动映射的数据库信息
+     */
+    public static void initialized(DbInfo dbInfo) {
+        if (!failures.isEmpty()) {
+            failures.remove(route(dbInfo));
+        }
+    }
+
+    private static void finish(long begin) {
+        ready = true;
+        done.countDown();
+        log.info("eager init finished in {} ms, {} failed", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin),
+                failures.size());
+    }
+
+    /**
+     * eager-blocking模式下等待初始化完成，由连接路径调用，初始化完成后只读一次volatile变量
+     */
+    public static void awaitIfBlocking() {
+        if (ready || MODE != InitMode.EAGER_BLOCKING) {
+            return;
+        }
+        try {
+            if (!awaitReady(TIMEOUT, TimeUnit.MILLISECONDS)) {
+                log.warn("eager init not finished after {} ms, {} routes still cold", TIMEOUT, getColdRoutes().size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return 预初始化是否已完成，lazy模式下总是返回true
+     */
+    public static boolean isReady() {
+        start();
+        return ready;
+    }
+
+    /**
+     * 等待预初始化完成
+     *
+     * @param timeout 最长等待时间
+     * @param unit    时间单位
+     * @return 是否已完成
+     */
+    public static boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        start();
+        return ready || done.await(timeout, unit);
+    }
+
+    /**
+     * @return 驱动已初始化的路由，格式为dbType:dbVersion
+     */
+    public static List<String> getWarmRoutes() {
+        return routes(true);
+    }
+
+    /**
+     * @return 驱动未初始化的路由，包括初始化失败的路由
+     */
+    public static List<String> getColdRoutes() {
+        return routes(false);
+    }
+
+    /**
+     * @return 预初始化失败的路由和失败原因
+     */
+    public static Map<String, String> getFailedRoutes() {
+        return Collections.unmodifiableMap(new TreeMap<>(failures));
+    }
+
+    private static List<String> routes(boolean warm) {
+        List<String> routes = new ArrayList<>();
+        for (DriverMapping mapping : LoaderContext.getDriverMappings()) {
+            if ((mapping.getDriverInfo().getDriver() != null) == warm) {
+                routes.add(route(mapping.getDbInfo()));
+            }
+        }
+        return routes;
+    }
+
+    private static String route(DbInfo dbInfo) {
+        return dbInfo.getDbType() + ":" + dbInfo.getDbVersion();
+    }
+}
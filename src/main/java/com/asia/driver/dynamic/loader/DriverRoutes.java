@@ -0,0 +1,99 @@
+package com.asia.driver.dynamic.loader;
+
+import java.sql.Driver;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author wangwei
+ * @date 2024/03/04
+ * 路由表，缓存(dbType, dbVersion)到已初始化驱动的映射，连接时直接命中，无需遍历全部驱动映射。
+ * 配置中的精确版本总是缓存；通过通配符、区间或就近匹配命中的请求版本数量不受配置限制，
+ * 路由表超过上限后不再缓存新的请求版本，这些版本每次连接都通过版本索引查找。
+ *
+ * 配置项（系统属性）：
+ * proxy.driver.routes.max  路由表缓存的路由数上限，默认1024
+ */
+public class DriverRoutes {
+
+    private static final int MAX_ROUTES = Integer.getInteger("proxy.driver.routes.max", 1024);
+
+    // dbType -> (dbVersion -> driver)，两级key避免每次查询拼接字符串或创建key对象
+    private volatile ConcurrentHashMap<String, ConcurrentHashMap<String, Driver>> routes = new ConcurrentHashMap<>();
+
+    /**
+     * 查询已缓存的驱动，未命中返回null
+     *
+     * @param dbType    数据库类型
+     * @param dbVersion 数据库版本
+     * @return 已初始化的驱动
+     */
+    public Driver get(String dbType, String dbVersion) {
+        if (dbType == null || dbVersion == null) {
+            return null;
+        }
+        ConcurrentHashMap<String, Driver> versions = routes.get(dbType);
+        return versions == null ? null : versions.get(dbVersion);
+    }
+
+    /**
+     * 缓存驱动，同一个key只会填充一次，返回最终生效的驱动
+     *
+     * @param dbType    数据库类型
+     * @param dbVersion 数据库版本
+     * @param driver    已初始化的驱动，为null（已被淘汰）时不缓存
+     * @return 路由表中的驱动
+     */
+    public Driver put(String dbType, String dbVersion, Driver driver) {
+        if (driver == null) {
+            return null;
+        }
+        ConcurrentHashMap<String, Driver> versions = routes.computeIfAbsent(dbType, k -> new ConcurrentHashMap<>());
+        Driver exists = versions.putIfAbsent(dbVersion, driver);
+        return exists == null ? driver : exists;
+    }
+
+    /**
+     * 缓存通过通配符、区间或就近匹配命中的请求版本，路由表已达到上限时不缓存，直接返回驱动
+     *
+     * @param dbType    数据库类型
+     * @param dbVersion 请求中的数据库版本
+     * @param driver    已初始化的驱动，为null时不缓存
+     * @return 路由表中的驱动，未缓存时为传入的驱动
+     */
+    public Driver putMatched(String dbType, String dbVersion, Driver driver) {
+        Driver exists = get(dbType, dbVersion);
+        if (exists != null) {
+            return exists;
+        }
+        if (size() >= MAX_ROUTES) {
+            return driver;
+        }
+        return put(dbType, dbVersion, driver);
+    }
+
+    /**
+     * 移除指向某个驱动的所有路由，驱动被淘汰时调用
+     *
+     * @param driver 被淘汰的驱动
+     */
+    public void remove(Driver driver) {
+        for (ConcurrentHashMap<String, Driver> versions : routes.values()) {
+            versions.values().removeIf(value -> value == driver);
+        }
+    }
+
+    /**
+     * 驱动映射发生变化时清空路由表，整体替换引用，正在填充的旧表直接丢弃
+     */
+    public void clear() {
+        routes = new ConcurrentHashMap<>();
+    }
+
+    public int size() {
+        int size = 0;
+        for (ConcurrentHashMap<String, Driver> versions : routes.values()) {
+            size += versions.size();
+        }
+        return size;
+    }
+}
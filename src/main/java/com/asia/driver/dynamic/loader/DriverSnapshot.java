@@ -0,0 +1,244 @@
+package com.asia.driver.dynamic.loader;
+
+import com.asia.driver.dynamic.bean.DbInfo;
+import com.asia.driver.dynamic.bean.DriverInfo;
+import com.asia.driver.dynamic.bean.DriverMapping;
+import com.asia.driver.dynamic.utils.ProxyInfo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author wangwei
+ * @date 2024/04/02
+ * 驱动配置的不可变快照：驱动映射、驱动包到DriverInfo的映射、路由表、版本索引和驱动目录的指纹。
+ * 配置变化时整体替换快照，连接只读取一次volatile引用，不加锁；路由表随快照一起替换，
+ * 填充到旧快照路由表中的驱动不会出现在新快照中。版本索引在第一次未命中路由表时构建。
+ */
+public final class DriverSnapshot {
+
+    static final DriverSnapshot EMPTY = new DriverSnapshot(0, Collections.emptyList(),
+            Collections.emptyMap(), new DriverRoutes(), Collections.emptyMap());
+
+    private final long version;
+
+    private final List<DriverMapping> mappings;
+
+    // 驱动包配置路径 -> DriverInfo
+    private final Map<String, DriverInfo> driverInfos;
+
+    private final DriverRoutes routes;
+
+    // 驱动目录 -> 目录中所有jar的名称、长度和修改时间
+    private final Map<String, String> fingerprints;
+
+    private volatile VersionIndex versionIndex;
+
+    private DriverSnapshot(long version, List<DriverMapping> mappings, Map<String, DriverInfo> driverInfos,
+                           DriverRoutes routes, Map<String, String> fingerprints) {
+        this.version = version;
+        this.mappings = mappings;
+        this.driverInfos = driverInfos;
+        this.routes = routes;
+        this.fingerprints = fingerprints;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<DriverMapping> getMappings() {
+        return mappings;
+    }
+
+    public DriverRoutes getRoutes() {
+        return routes;
+    }
+
+    public DriverInfo getDriverInfo(String jarConfigPath) {
+        return driverInfos.get(jarConfigPath);
+    }
+
+    /**
+     * 按版本索引查找驱动映射，支持精确版本、通配符、区间和同一主版本的就近匹配，见{@link VersionIndex}
+     *
+     * @param dbType    数据库类型
+     * @param dbVersion 请求的数据库版本
+     * @return 驱动映射，找不到时返回null
+     */
+    public DriverMapping find(String dbType, String dbVersion) {
+        return versionIndex().find(dbType, dbVersion);
+    }
+
+    /**
+     * 查找数据库类型中版本最高的驱动映射，没有能比较的版本时取配置中的第一个
+     *
+     * @param dbType 数据库类型
+     * @return 驱动映射，没有这个类型的映射时返回null
+     */
+    public DriverMapping findNewest(String dbType) {
+        DriverMapping newest = versionIndex().newest(dbType);
+        if (newest != null) {
+            return newest;
+        }
+        for (DriverMapping mapping : mappings) {
+            if (mapping.getDbInfo() != null && dbType.equals(mapping.getDbInfo().getDbType())) {
+                return mapping;
+            }
+        }
+        return null;
+    }
+
+    private VersionIndex versionIndex() {
+        VersionIndex index = versionIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = versionIndex;
+                if (index == null) {
+                    index = VersionIndex.build(mappings);
+                    versionIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * 在当前快照上追加驱动映射，追加后路由表重新填充
+     *
+     * @param added 追加的驱动映射
+     * @return 新快照
+     */
+    DriverSnapshot append(List<DriverMapping> added) {
+        List<DriverMapping> all = new ArrayList<>(mappings.size() + added.size());
+        all.addAll(mappings);
+        all.addAll(added);
+        Map<String, String> dirs = new HashMap<>(fingerprints);
+        for (DriverMapping mapping : added) {
+            String dir = dirOf(mapping.getDriverInfo());
+            if (dir != null && !dirs.containsKey(dir)) {
+                dirs.put(dir, fingerprint(dir));
+            }
+        }
+        return new DriverSnapshot(version + 1, Collections.unmodifiableList(all), index(all), new DriverRoutes(),
+                Collections.unmodifiableMap(dirs));
+    }
+
+    /**
+     * 用重新解析的驱动映射替换当前快照。数据库类型和版本相同、驱动包和驱动类相同且驱动目录中的jar没有变化的映射
+     * 沿用旧的DriverInfo，已初始化的类加载器和驱动直接复用，并预先填充到新的路由表中
+     *
+     * @param parsed  重新解析的驱动映射
+     * @param retired 输出参数，不再被引用的旧DriverInfo
+     * @return 新快照
+     */
+    DriverSnapshot replace(List<DriverMapping> parsed, List<DriverInfo> retired) {
+        Map<DbInfo, DriverInfo> previous = new HashMap<>();
+        for (DriverMapping mapping : mappings) {
+            previous.put(mapping.getDbInfo(), mapping.getDriverInfo());
+        }
+        Map<String, String> dirs = new HashMap<>();
+        for (DriverMapping mapping : parsed) {
+            String dir = dirOf(mapping.getDriverInfo());
+            if (dir != null && !dirs.containsKey(dir)) {
+                dirs.put(dir, fingerprint(dir));
+            }
+        }
+
+        List<DriverMapping> all = new ArrayList<>(parsed.size());
+        DriverRoutes newRoutes = new DriverRoutes();
+        Set<DriverInfo> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (DriverMapping mapping : parsed) {
+            DbInfo dbInfo = mapping.getDbInfo();
+            DriverInfo old = previous.get(dbInfo);
+            if (old != null && isUnchanged(old, mapping.getDriverInfo(), dirs)) {
+                all.add(new DriverMapping(dbInfo, old));
+                kept.add(old);
+                if (old.getDriver() != null && !VersionRange.isPattern(dbInfo.getDbVersion())) {
+                    newRoutes.put(dbInfo.getDbType(), dbInfo.getDbVersion(), old.getDriver());
+                }
+            } else {
+                all.add(mapping);
+            }
+        }
+        Set<DriverInfo> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (DriverMapping mapping : mappings) {
+            DriverInfo old = mapping.getDriverInfo();
+            if (!kept.contains(old) && seen.add(old)) {
+                retired.add(old);
+            }
+        }
+        return new DriverSnapshot(version + 1, Collections.unmodifiableList(all), index(all), newRoutes,
+                Collections.unmodifiableMap(dirs));
+    }
+
+    private boolean isUnchanged(DriverInfo old, DriverInfo parsed, Map<String, String> dirs) {
+        if (!equals(old.getJarAbsolutePath(), parsed.getJarAbsolutePath())
+                || !equals(old.getClassName(), parsed.getClassName())) {
+            return false;
+        }
+        String dir = dirOf(old);
+        return dir == null || equals(fingerprints.get(dir), dirs.get(dir));
+    }
+
+    /**
+     * @return 快照中所有驱动目录
+     */
+    Set<String> getDirs() {
+        return fingerprints.keySet();
+    }
+
+    private static boolean equals(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static Map<String, DriverInfo> index(List<DriverMapping> mappings) {
+        Map<String, DriverInfo> driverInfos = new HashMap<>();
+        for (DriverMapping mapping : mappings) {
+            DriverInfo driverInfo = mapping.getDriverInfo();
+            if (driverInfo != null && driverInfo.getJarConfigPath() != null) {
+                driverInfos.put(driverInfo.getJarConfigPath(), driverInfo);
+            }
+        }
+        return Collections.unmodifiableMap(driverInfos);
+    }
+
+    static String dirOf(DriverInfo driverInfo) {
+        String jar = driverInfo == null ? null : driverInfo.getJarAbsolutePath();
+        if (jar == null || jar.lastIndexOf(ProxyInfo.SPERATE_CHAR) < 0) {
+            return null;
+        }
+        return jar.substring(0, jar.lastIndexOf(ProxyInfo.SPERATE_CHAR));
+    }
+
+    /**
+     * 目录中所有jar按名称排序后的名称、长度和修改时间，任何jar增加、删除或替换都会改变指纹
+     */
+    private static String fingerprint(String dir) {
+        File[] files = new File(dir).listFiles();
+        if (files == null) {
+            return "";
+        }
+        Arrays.sort(files);
+        StringBuilder fingerprint = new StringBuilder();
+        for (File file : files) {
+            if (file.getName().endsWith(".jar")) {
+                fingerprint.append(file.getName()).append(':').append(file.length()).append(':')
+                        .append(file.lastModified()).append(';');
+            }
+        }
+        return fingerprint.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "DriverSnapshot{version=" + version + ", mappings=" + mappings.size() + ", dirs=" + fingerprints.size() + "}";
+    }
+}
@@ -0,0 +1,53 @@
+package com.asia.driver.dynamic.loader;
+
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.util.Enumeration;
+
+/**
+ * @author wangwei
+ * @date 2024/03/14
+ * 注销隔离驱动在DriverManager中的注册。
+ * 真实驱动的静态代码块会把自己注册到DriverManager，而DriverManager只允许类加载器能看到驱动类的调用方注销驱动，
+ * 因此该类会被{@link DriverClassLoader#defineHelperClass(Class)}重新定义到隔离的类加载器中再调用，
+ * 只能依赖JDK中的类。
+ */
+final class IsolatedDriverDeregister {
+
+    private IsolatedDriverDeregister() {
+    }
+
+    /**
+     * 注销当前类加载器加载的所有驱动
+     *
+     * @return 注销的驱动数量
+     */
+    public static int deregister() throws Exception {
+        ClassLoader loader = IsolatedDriverDeregister.class.getClassLoader();
+        int count = 0;
+        Enumeration<Driver> drivers = DriverManager.getDrivers();
+        while (drivers.hasMoreElements()) {
+            Driver driver = drivers.nextElement();
+            if (driver.getClass().getClassLoader() == loader) {
+                DriverManager.deregisterDriver(driver);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return 当前类加载器加载的驱动中仍然注册在DriverManager中的数量
+     */
+    public static int registered() {
+        ClassLoader loader = IsolatedDriverDeregister.class.getClassLoader();
+        int count = 0;
+        Enumeration<Driver> drivers = DriverManager.getDrivers();
+        while (drivers.hasMoreElements()) {
+            if (drivers.nextElement().getClass().getClassLoader() == loader) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
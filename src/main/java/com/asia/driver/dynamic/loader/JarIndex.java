@@ -0,0 +1,270 @@
+package com.asia.driver.dynamic.loader;
+
+import com.asia.driver.dynamic.utils.JarFileSupport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * @author wangwei
+ * @date 2024/03/31
+ * 驱动类加载器中所有jar的条目索引，创建时遍历一次各jar的目录，之后：
+ * 1.条目名直接定位到所在的jar，不存在的类和资源不读任何jar；
+ * 2.类的字节码从打开的JarFile中直接读取，不经过URLClassPath逐个jar查找。
+ * 多个jar中有同名条目时，与URLClassLoader一样使用第一个jar中的条目。
+ * Java 11及以上多版本jar按当前运行时的版本建立索引和读取，类的CodeSource带上条目的签名者。
+ */
+final class JarIndex {
+
+    private final JarFile[] jars;
+
+    // jar文件的URL，作为类的CodeSource
+    private final URL[] codeSources;
+
+    // jar:file:...!/，用于拼接资源的URL
+    private final String[] baseUrls;
+
+    private final Manifest[] manifests;
+
+    // 条目名 -> jar下标
+    private final HashMap<String, Integer> entries;
+
+    // 所有jar中包含类的包名
+    private final HashSet<String> packages;
+
+    // 每个jar中已定义的类数量和字节码大小
+    private final AtomicIntegerArray definedClasses;
+
+    private final AtomicLongArray definedBytes;
+
+    private volatile boolean closed;
+
+    private JarIndex(JarFile[] jars, URL[] codeSources, String[] baseUrls, Manifest[] manifests,
+                     HashMap<String, Integer> entries, HashSet<String> packages) {
+        this.jars = jars;
+        this.codeSources = codeSources;
+        this.baseUrls = baseUrls;
+        this.manifests = manifests;
+        this.entries = entries;
+        this.packages = packages;
+        this.definedClasses = new AtomicIntegerArray(jars.length);
+        this.definedBytes = new AtomicLongArray(jars.length);
+    }
+
+    /**
+     * 为类加载器的URL建立索引
+     *
+     * @param urls jar:file:...!/或file:...jar形式的URL
+     * @return 索引，有URL不是本地jar文件时返回null，由URLClassLoader处理
+     */
+    static JarIndex build(URL[] urls) throws IOException {
+        List<File> files = new ArrayList<>(urls.length);
+        for (URL url : urls) {
+            File file = toJarFile(url);
+            if (file == null) {
+                return null;
+            }
+            files.add(file);
+        }
+        JarFile[] jars = new JarFile[files.size()];
+        URL[] codeSources = new URL[files.size()];
+        String[] baseUrls = new String[files.size()];
+        Manifest[] manifests = new Manifest[files.size()];
+        HashMap<String, Integer> entries = new HashMap<>();
+        HashSet<String> packages = new HashSet<>();
+        try {
+            for (int i = 0; i < jars.length; i++) {
+                jars[i] = JarFileSupport.open(files.get(i));
+                codeSources[i] = files.get(i).toURI().toURL();
+                baseUrls[i] = "jar:" + codeSources[i] + "!/";
+                manifests[i] = jars[i].getManifest();
+                for (String name : JarFileSupport.entryNames(jars[i])) {
+                    entries.putIfAbsent(name, i);
+                    if (name.endsWith(".class")) {
+                        int slash = name.lastIndexOf('/');
+                        packages.add(slash < 0 ? "" : name.substring(0, slash).replace('/', '.'));
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            closeAll(jars);
+            throw e;
+        }
+        return new JarIndex(jars, codeSources, baseUrls, manifests, entries, packages);
+    }
+
+    private static File toJarFile(URL url) {
+        String spec = url.toString();
+        if (spec.startsWith("jar:file:") && spec.endsWith("!/")) {
+            spec = spec.substring("jar:".length(), spec.length() - "!/".length());
+        } else if (!spec.startsWith("file:") || !spec.endsWith(".jar")) {
+            return null;
+        }
+        try {
+            File file = new File(new URL(spec).toURI());
+            return file.isFile() ? file : null;
+        } catch (Exception e) {
+            // 路径中有未转义的字符时按原始路径处理
+            File file = new File(spec.substring("file:".length()));
+            return file.isFile() ? file : null;
+        }
+    }
+
+    /**
+     * @param name 条目名，如org/postgresql/Driver.class
+     * @return 所在jar的下标，不存在时返回-1
+     */
+    int find(String name) {
+        Integer index = entries.get(name);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @param packageName 包名，如org.postgresql
+     * @return jar中是否有这个包的类
+     */
+    boolean hasPackage(String packageName) {
+        return packages.contains(packageName);
+    }
+
+    /**
+     * @param jar  jar下标
+     * @param name 条目名，多版本jar中返回当前运行时版本的条目
+     * @return 条目
+     */
+    JarEntry entry(int jar, String name) throws IOException {
+        JarEntry entry = jars[jar].getJarEntry(name);
+        if (entry == null) {
+            throw new IOException("entry removed from " + jars[jar].getName() + " : " + name);
+        }
+        return entry;
+    }
+
+    /**
+     * 读取条目的全部内容，签名的jar在读完之后条目的{@link JarEntry#getCodeSigners()}才可用
+     */
+    byte[] read(int jar, JarEntry entry) throws IOException {
+        try (InputStream in = jars[jar].getInputStream(entry)) {
+            int size = (int) entry.getSize();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(size > 0 ? size : 4096);
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * 记录从jar中定义了一个类
+     */
+    void recordDefine(int jar, int bytes) {
+        definedClasses.incrementAndGet(jar);
+        definedBytes.addAndGet(jar, bytes);
+    }
+
+    int definedClasses(int jar) {
+        return definedClasses.get(jar);
+    }
+
+    long definedBytes(int jar) {
+        return definedBytes.get(jar);
+    }
+
+    URL codeSource(int jar) {
+        return codeSources[jar];
+    }
+
+    Manifest manifest(int jar) {
+        return manifests[jar];
+    }
+
+    URL resource(int jar, String name) throws MalformedURLException {
+        return new URL(baseUrls[jar] + name);
+    }
+
+    /**
+     * 同名资源可能在多个jar中，按jar顺序返回
+     */
+    List<URL> resources(String name) throws MalformedURLException {
+        List<URL> urls = new ArrayList<>(1);
+        if (find(name) < 0) {
+            return urls;
+        }
+        for (int i = 0; i < jars.length; i++) {
+            if (jars[i].getJarEntry(name) != null) {
+                urls.add(resource(i, name));
+            }
+        }
+        return urls;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return 所有jar中已定义的类数量
+     */
+    int totalDefinedClasses() {
+        int total = 0;
+        for (int i = 0; i < definedClasses.length(); i++) {
+            total += definedClasses.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * @return 所有jar中已定义的类的字节码大小
+     */
+    long totalDefinedBytes() {
+        long total = 0;
+        for (int i = 0; i < definedBytes.length(); i++) {
+            total += definedBytes.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * @return 打开的jar文件数，关闭后为0
+     */
+    int openJars() {
+        return closed ? 0 : jars.length;
+    }
+
+    void close() throws IOException {
+        closed = true;
+        closeAll(jars);
+    }
+
+    private static void closeAll(JarFile[] jars) throws IOException {
+        IOException failure = null;
+        for (JarFile jar : jars) {
+            if (jar == null) {
+                continue;
+            }
+            try {
+                jar.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import com.asia.driver.dynamic.bean.DriverMapping;
 import com.asia.driver.dynamic.config.Parser;
 import com.asia.driver.dynamic.config.PropertiesFileParser;
 import com.asia.driver.dynamic.exception.ParseError;
+import com.asia.driver.dynamic.jfr.DriverEvents;
 import com.asia.driver.dynamic.utils.ProxyInfo;
 
 import java.io.File;
@@ -12,10 +13,9 @@ import java.net.URL;
 import java.net.URLClassLoader;
 import java.sql.Driver;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * @author wangwei
@@ -24,16 +24,12 @@ import java.util.concurrent.CopyOnWriteArrayList;
  */
 public class LoaderContext {
     static {
-        driverMappings = new CopyOnWriteArrayList<>();
-        driverInfoMap = new ConcurrentHashMap<>();
+        snapshot = DriverSnapshot.EMPTY;
         getParse().parse();
     }
 
-    // 封装解析出来的驱动配置
-    private final static List<DriverMapping> driverMappings;
-
-    // 一个驱动包对应一个DriverInfo
-    private final static ConcurrentHashMap<String, DriverInfo> driverInfoMap;
+    // 驱动映射、驱动包到DriverInfo的映射和(dbType, dbVersion)到已初始化驱动的路由表，配置变化时整体替换
+    private static volatile DriverSnapshot snapshot;
 
     private static Parser parse;
 
@@ -48,15 +44,26 @@ public class LoaderContext {
         return parse;
     }
 
+    /**
+     * @return 当前的配置快照，需要同时读取驱动映射和路由表时只读取一次快照
+     */
+    public static DriverSnapshot getSnapshot() {
+        return snapshot;
+    }
+
     public static List<DriverMapping> getDriverMappings() {
-        return driverMappings;
+        return snapshot.getMappings();
+    }
+
+    public static DriverRoutes getDriverRoutes() {
+        return snapshot.getRoutes();
     }
 
     // 当前线程所匹配到的driver对象
     private static ThreadLocal<Driver> driverContext = ThreadLocal.withInitial(() -> null);
 
     public static URLClassLoader getClassLoad(String url) {
-        DriverInfo driverInfo = driverInfoMap.get(url);
+        DriverInfo driverInfo = snapshot.getDriverInfo(url);
         return driverInfo == null ? null : driverInfo.getClassLoader();
     }
 
@@ -70,35 +77,59 @@ public class LoaderContext {
     }
 
     public static void addOneDriverMapping(DriverMapping driverMapping) {
-        driverMappings.add(driverMapping);
+        addDriverMappings(Collections.singletonList(driverMapping));
     }
 
-
-    public static void putDriverInfo(HashMap<String, DriverInfo> map) {
-        driverInfoMap.putAll(map);
+    public static synchronized void addDriverMappings(List<DriverMapping> mappings) {
+        snapshot = snapshot.append(mappings);
+        SharedJarLayer.rebuild(snapshot.getMappings());
     }
 
-    public static void addDriverMappings(List<DriverMapping> mappings) {
-        driverMappings.addAll(mappings);
+    /**
+     * 用重新解析的驱动映射替换当前快照，未变化的驱动沿用已初始化的类加载器和驱动
+     *
+     * @param mappings 重新解析的全部驱动映射
+     * @return 不再被新快照引用的DriverInfo，由调用方在排空后释放
+     */
+    public static synchronized List<DriverInfo> replaceDriverMappings(List<DriverMapping> mappings) {
+        List<DriverInfo> retired = new ArrayList<>();
+        snapshot = snapshot.replace(mappings, retired);
+        SharedJarLayer.rebuild(snapshot.getMappings());
+        return retired;
     }
 
     public static void initClassLoader(DriverInfo driverInfo) {
         if (driverInfo.getClassLoader() == null) {
+            Object event = DriverEvents.beginInitClassLoader();
+            int jarCount = 0;
             try {
                 List<URL> allUrl = new ArrayList<>();
 //                URL url = new URL("jar:file:" + driverInfo.getJarAbsolutePath() + "!/");
 //                allUrl.add(url);
 
-                // 扩展包的处理
-                List<String> otherJars = findJars(driverInfo.getJarAbsolutePath());
-                for (int i = 0; i < otherJars.size(); i++) {
-                    URL otherUrl = new URL("jar:file:" + otherJars.get(i) + "!/");
-                    allUrl.add(otherUrl);
+                // 扩展包的处理，多个驱动目录中相同的依赖包由共享依赖层加载
+                SharedJarLayer.Split split = SharedJarLayer.split(findJars(driverInfo.getJarAbsolutePath()));
+                List<String> otherJars = split.getOwnJars();
+                DriverClassLoader classLoader = null;
+                try {
+                    for (int i = 0; i < otherJars.size(); i++) {
+                        URL otherUrl = new URL("jar:file:" + otherJars.get(i) + "!/");
+                        allUrl.add(otherUrl);
+                    }
+                    jarCount = allUrl.size();
+                    classLoader = new DriverClassLoader((URL[]) allUrl.toArray(new URL[0]), split.getShared());
+                } finally {
+                    // 创建失败时也要登记，释放对共享层的占用
+                    split.register(classLoader);
                 }
-                URLClassLoader classLoader = new DriverClassLoader((URL[]) allUrl.toArray(new URL[0]));
+                // 记录加载的类，并预加载上次运行时记录的类
+                ClassPreloader.attach(classLoader, otherJars);
+                LoaderTracker.track(classLoader, driverInfo.getJarAbsolutePath());
                 driverInfo.setClassLoader(classLoader);
             } catch (Exception e) {
                 throw new ParseError(e);
+            } finally {
+                DriverEvents.endInitClassLoader(event, driverInfo.getDbType(), driverInfo.getJarAbsolutePath(), jarCount);
             }
         }
     }
@@ -117,15 +148,46 @@ public class LoaderContext {
         return otherJars;
     }
 
+    /**
+     * 初始化类加载器和驱动，已经初始化过时直接返回
+     *
+     * @param driverInfo 驱动信息
+     * @return 已初始化的驱动
+     */
+    public static Driver initIfNecessary(DriverInfo driverInfo) {
+        Driver driver = driverInfo.getDriver();
+        if (driver != null) {
+            return driver;
+        }
+        ReentrantLock lock = driverInfo.getInitLock();
+        lock.lock();
+        try {
+            initClassLoader(driverInfo);
+            initDriver(driverInfo);
+            return driverInfo.getDriver();
+        } finally {
+            lock.unlock();
+        }
+    }
+
     public static void initDriver(DriverInfo driverInfo) {
         if (driverInfo.getDriver() == null) {
+            initClassLoader(driverInfo);
+            Object event = DriverEvents.beginInitDriver();
             try {
-                initClassLoader(driverInfo);
                 Class<?> driverCls = driverInfo.getClassLoader().loadClass(driverInfo.getClassName());
                 Driver driver = (Driver) driverCls.newInstance();
+                // 驱动直接调用，不需要保留驱动静态代码块在DriverManager中的注册
+                if (driverInfo.getClassLoader() instanceof DriverClassLoader) {
+                    ((DriverClassLoader) driverInfo.getClassLoader()).deregisterDrivers();
+                }
                 driverInfo.setDriver(driver);
+                // 开启淘汰时登记驱动的使用情况
+                DriverEvictor.loaded(driverInfo);
             } catch (Exception e) {
                 throw new ParseError(e);
+            } finally {
+                DriverEvents.endInitDriver(event, driverInfo.getDbType(), driverInfo.getJarAbsolutePath(), driverInfo.getClassName());
             }
 
         }
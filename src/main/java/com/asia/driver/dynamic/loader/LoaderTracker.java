@@ -0,0 +1,345 @@
+package com.asia.driver.dynamic.loader;
+
+import com.asia.driver.dynamic.log.DriverLog;
+import com.asia.driver.dynamic.metrics.ConnectMetrics;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author wangwei
+ * @date 2024/04/04
+ * 驱动类加载器的占用统计和泄漏检测：
+ * 1.每个驱动类加载器创建时登记，统计已定义的类数量、字节码大小和打开的jar句柄；
+ * 2.类加载器被淘汰或随配置重新加载释放后只保留弱引用，超过宽限时间仍未被回收的视为疑似泄漏，
+ * 并检查线程、线程上下文类加载器、ThreadLocal和DriverManager注册，给出可能的GC根类型。
+ * 统计通过MBean com.asia.driver.dynamic:type=DriverLoaders查看。
+ *
+ * 配置项（系统属性）：
+ * proxy.driver.leak.grace         释放后到判定为疑似泄漏的宽限时间（毫秒），默认60000
+ * proxy.driver.leak.threadlocals  是否反射读取线程的ThreadLocal检查GC根，默认false；
+ *                                 JDK 9及以上需要--add-opens java.base/java.lang=ALL-UNNAMED，否则JDK 9-15会打印非法反射访问警告
+ */
+public final class LoaderTracker {
+
+    private static final DriverLog log = DriverLog.getLog(LoaderTracker.class);
+
+    private static final long GRACE = Long.getLong("proxy.driver.leak.grace", 60000L);
+
+    private static final boolean THREAD_LOCALS_ENABLED = Boolean.getBoolean("proxy.driver.leak.threadlocals");
+
+    private static final ReferenceQueue<DriverClassLoader> queue = new ReferenceQueue<>();
+
+    private static final Set<Entry> entries = ConcurrentHashMap.newKeySet();
+
+    private static final AtomicLong collected = new AtomicLong();
+
+    private static final AtomicBoolean registered = new AtomicBoolean();
+
+    // Thread.threadLocals和ThreadLocalMap的字段，没有开启或JDK 9以上没有开放java.lang时为null
+    private static final Field THREAD_LOCALS;
+
+    private static final Field TABLE;
+
+    private static final Field VALUE;
+
+    static {
+        Field threadLocals = null;
+        Field table = null;
+        Field value = null;
+        if (THREAD_LOCALS_ENABLED) {
+            try {
+                threadLocals = Thread.class.getDeclaredField("threadLocals");
+                threadLocals.setAccessible(true);
+                Class<?> mapClass = Class.forName("java.lang.ThreadLocal$ThreadLocalMap");
+                table = mapClass.getDeclaredField("table");
+                table.setAccessible(true);
+                value = Class.forName("java.lang.ThreadLocal$ThreadLocalMap$Entry").getDeclaredField("value");
+                value.setAccessible(true);
+            } catch (Exception e) {
+                // 不能访问时不检查ThreadLocal
+                log.warn("thread locals are not accessible, skip checking them : {}", e.toString());
+                threadLocals = null;
+            }
+        }
+        THREAD_LOCALS = threadLocals;
+        TABLE = table;
+        VALUE = value;
+    }
+
+    private LoaderTracker() {
+    }
+
+    /**
+     * 登记新创建的驱动类加载器
+     *
+     * @param loader 驱动类加载器
+     * @param label  说明，例如驱动包路径
+     */
+    static void track(DriverClassLoader loader, String label) {
+        expunge();
+        entries.add(new Entry(loader, label));
+        register();
+    }
+
+    /**
+     * 类加载器已释放，之后只等待被回收
+     *
+     * @param loader 驱动类加载器
+     */
+    static void retire(DriverClassLoader loader) {
+        expunge();
+        for (Entry entry : entries) {
+            if (entry.get() == loader) {
+                entry.retire(loader);
+            }
+        }
+    }
+
+    private static void expunge() {
+        Reference<? extends DriverClassLoader> reference;
+        while ((reference = queue.poll()) != null) {
+            if (entries.remove(reference)) {
+                Entry entry = (Entry) reference;
+                if (entry.retiredAt > 0) {
+                    collected.incrementAndGet();
+                } else {
+                    log.warn("driver class loader {} collected without being released", entry.label);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 每个未被回收的类加载器一行：状态、已定义的类、字节码大小、打开的jar句柄
+     */
+    public static List<String> getLoaders() {
+        expunge();
+        long now = System.currentTimeMillis();
+        List<String> loaders = new ArrayList<>();
+        for (Entry entry : entries) {
+            DriverClassLoader loader = entry.get();
+            if (loader == null) {
+                continue;
+            }
+            String state = entry.retiredAt > 0 ? "retired " + (now - entry.retiredAt) / 1000 + "s" : "live";
+            loaders.add(String.format("%s [%s] classes=%d bytes=%d jars=%d", entry.label, state,
+                    loader.getDefinedClassCount(), loader.getDefinedBytes(), loader.getOpenJarCount()));
+        }
+        return loaders;
+    }
+
+    /**
+     * @return 释放后超过宽限时间仍未被回收的类加载器和可能的GC根
+     */
+    public static List<String> getSuspectedLeaks() {
+        expunge();
+        long now = System.currentTimeMillis();
+        List<String> leaks = new ArrayList<>();
+        for (Entry entry : entries) {
+            DriverClassLoader loader = entry.get();
+            if (loader != null && entry.retiredAt > 0 && now - entry.retiredAt > GRACE) {
+                leaks.add(String.format("%s retired %ds ago, classes=%d bytes=%d, roots: %s", entry.label,
+                        (now - entry.retiredAt) / 1000, entry.classes, entry.bytes, roots(loader)));
+            }
+        }
+        return leaks;
+    }
+
+    /**
+     * 清理已经被回收的类加载器后检测疑似泄漏，不主动触发GC，
+     * 需要排除已经不可达但还没有被回收的类加载器时先通过jcmd GC.run等方式触发一次GC
+     */
+    public static List<String> detectLeaks() {
+        return getSuspectedLeaks();
+    }
+
+    /**
+     * 查找可能引用类加载器的GC根
+     */
+    private static List<String> roots(DriverClassLoader loader) {
+        List<String> roots = new ArrayList<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getClass().getClassLoader() == loader) {
+                roots.add("thread " + thread.getName());
+            } else if (thread.getContextClassLoader() == loader) {
+                roots.add(("java.util.TimerThread".equals(thread.getClass().getName()) ? "timer " : "context class loader of thread ")
+                        + thread.getName());
+            }
+            if (hasThreadLocal(thread, loader)) {
+                roots.add("ThreadLocal of thread " + thread.getName());
+            }
+        }
+        int drivers = loader.registeredDriverCount();
+        if (drivers > 0) {
+            roots.add("DriverManager registration x" + drivers);
+        }
+        if (roots.isEmpty()) {
+            roots.add("unknown (static cache or Driver/Connection still referenced by the application)");
+        }
+        return roots;
+    }
+
+    private static boolean hasThreadLocal(Thread thread, DriverClassLoader loader) {
+        if (THREAD_LOCALS == null) {
+            return false;
+        }
+        try {
+            Object map = THREAD_LOCALS.get(thread);
+            if (map == null) {
+                return false;
+            }
+            for (Object entry : (Object[]) TABLE.get(map)) {
+                if (entry == null) {
+                    continue;
+                }
+                Object value = VALUE.get(entry);
+                if (value == loader || (value != null && value.getClass().getClassLoader() == loader)) {
+                    return true;
+                }
+            }
+        } catch (Exception e) {
+            // 线程的ThreadLocal在读取时被修改，忽略
+        }
+        return false;
+    }
+
+    public static int getLiveCount() {
+        return count(false);
+    }
+
+    public static int getRetiredCount() {
+        return count(true);
+    }
+
+    private static int count(boolean retired) {
+        expunge();
+        int count = 0;
+        for (Entry entry : entries) {
+            if ((entry.retiredAt > 0) == retired && entry.get() != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void register() {
+        if (!registered.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(ConnectMetrics.DOMAIN + ":type=DriverLoaders");
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new Stats(), name);
+            }
+        } catch (Exception e) {
+            log.warn("register driver loaders mbean failed : {}", e.toString());
+        }
+    }
+
+    /**
+     * 类加载器的弱引用，释放时记录最后的统计值，被回收后仍可报告
+     */
+    private static final class Entry extends WeakReference<DriverClassLoader> {
+
+        private final String label;
+
+        private volatile long retiredAt;
+
+        private volatile int classes;
+
+        private volatile long bytes;
+
+        private Entry(DriverClassLoader loader, String label) {
+            super(loader, queue);
+            this.label = label;
+        }
+
+        private void retire(DriverClassLoader loader) {
+            classes = loader.getDefinedClassCount();
+            bytes = loader.getDefinedBytes();
+            retiredAt = System.currentTimeMillis();
+        }
+    }
+
+    private static final class Stats implements LoaderTrackerMXBean {
+
+        @Override
+        public int getLiveCount() {
+            return LoaderTracker.getLiveCount();
+        }
+
+        @Override
+        public int getRetiredCount() {
+            return LoaderTracker.getRetiredCount();
+        }
+
+        @Override
+        public int getLeakCount() {
+            return LoaderTracker.getSuspectedLeaks().size();
+        }
+
+        @Override
+        public long getCollectedCount() {
+            expunge();
+            return collected.get();
+        }
+
+        @Override
+        public int getDefinedClasses() {
+            int total = 0;
+            for (Entry entry : entries) {
+                DriverClassLoader loader = entry.get();
+                total += loader == null ? 0 : loader.getDefinedClassCount();
+            }
+            return total;
+        }
+
+        @Override
+        public long getDefinedBytes() {
+            long total = 0;
+            for (Entry entry : entries) {
+                DriverClassLoader loader = entry.get();
+                total += loader == null ? 0 : loader.getDefinedBytes();
+            }
+            return total;
+        }
+
+        @Override
+        public int getOpenJarHandles() {
+            int total = 0;
+            for (Entry entry : entries) {
+                DriverClassLoader loader = entry.get();
+                total += loader == null ? 0 : loader.getOpenJarCount();
+            }
+            return total;
+        }
+
+        @Override
+        public String[] getLoaders() {
+            return LoaderTracker.getLoaders().toArray(new String[0]);
+        }
+
+        @Override
+        public String[] getSuspectedLeaks() {
+            return LoaderTracker.getSuspectedLeaks().toArray(new String[0]);
+        }
+
+        @Override
+        public String[] detectLeaks() {
+            return LoaderTracker.detectLeaks().toArray(new String[0]);
+        }
+    }
+}
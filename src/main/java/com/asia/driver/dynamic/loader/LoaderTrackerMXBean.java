@@ -0,0 +1,36 @@
+package com.asia.driver.dynamic.loader;
+
+/**
+ * @author wangwei
+ * @date 2024/04/04
+ * 驱动类加载器的占用和泄漏检测，字节数为类字节码大小，是元空间占用的近似值
+ */
+public interface LoaderTrackerMXBean {
+
+    // 未释放的类加载器数量
+    int getLiveCount();
+
+    // 已释放但还没有被回收的类加载器数量
+    int getRetiredCount();
+
+    // 释放后超过宽限时间仍未被回收的类加载器数量
+    int getLeakCount();
+
+    // 已释放并被回收的类加载器数量
+    long getCollectedCount();
+
+    int getDefinedClasses();
+
+    long getDefinedBytes();
+
+    int getOpenJarHandles();
+
+    // 每个未被回收的类加载器一行
+    String[] getLoaders();
+
+    // 疑似泄漏的类加载器和可能的GC根类型
+    String[] getSuspectedLeaks();
+
+    // 清理已被回收的类加载器后检测泄漏，不触发GC
+    String[] detectLeaks();
+}
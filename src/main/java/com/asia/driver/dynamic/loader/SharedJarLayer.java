@@ -0,0 +1,753 @@
+package com.asia.driver.dynamic.loader;
+
+import com.asia.driver.dynamic.bean.DriverInfo;
+import com.asia.driver.dynamic.bean.DriverMapping;
+import com.asia.driver.dynamic.log.DriverLog;
+import com.asia.driver.dynamic.utils.ProxyInfo;
+import com.asia.driver.dynamic.utils.ThreadSupport;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * @author wangwei
+ * @date 2024/04/01
+ * 共享依赖层：多个驱动版本目录中内容完全相同的依赖包（按SHA-256判断）只加载到一个共享的类加载器中，
+ * 每个驱动版本的类加载器只加载自己目录下的其余jar，自己的jar中找不到的类再从共享类加载器加载。
+ * 1.默认关闭；开启后每次安装新的配置快照时在后台线程扫描所有驱动映射的目录，出现在至少两个目录中的jar作为共享依赖，
+ * 连接路径上不计算hash，构建完成之前创建的类加载器不使用共享依赖；
+ * 2.驱动包本身不共享，驱动类和DriverManager的注册仍然按版本隔离；
+ * 3.共享依赖之间有同名类时（同一依赖的不同版本），这些jar都不共享，避免版本混用；
+ * 4.共享类加载器看不到各版本目录中的其他jar，引用了这些jar中的类的依赖包不共享，直到剩下的共享依赖只引用共享依赖和JDK；
+ * 5.创建类加载器时再检查一次jar的长度和修改时间，与构建时不一致的jar由当前版本自己加载；
+ * 6.共享包变化后旧的共享类加载器不再分配给新的驱动类加载器，使用它的驱动类加载器全部关闭后再关闭并登记为已退役。
+ *
+ * 配置项（系统属性）：
+ * proxy.driver.shared.layer  是否开启共享依赖层，默认false
+ */
+public final class SharedJarLayer {
+
+    private static final DriverLog log = DriverLog.getLog(SharedJarLayer.class);
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("proxy.driver.shared.layer", "false"));
+
+    private static final String CLASS_SUFFIX = ".class";
+
+    // 路径|长度|修改时间 -> 内容的SHA-256，每次构建后只保留本次用到的jar
+    private static volatile Map<String, String> hashes = new HashMap<>();
+
+    // 等待构建的驱动映射，构建开始前有新快照时只构建最新的
+    private static final AtomicReference<List<DriverMapping>> pending = new AtomicReference<>();
+
+    // 使用共享依赖的驱动类加载器 -> 使用的共享包，类加载器关闭或被回收后不再计数
+    private static final Map<DriverClassLoader, Set<SharedJar>> users = Collections.synchronizedMap(new WeakHashMap<>());
+
+    // 当前的共享层，替换时持有users的锁
+    private static volatile Layer layer;
+
+    // 被替换但还有驱动类加载器在使用的共享层，由users的锁保护
+    private static final List<Layer> retired = new ArrayList<>();
+
+    private SharedJarLayer() {
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * 安装新的配置快照后在后台重新构建共享依赖层，未开启时不做任何事
+     *
+     * @param mappings 新快照中的全部驱动映射
+     */
+    static void rebuild(List<DriverMapping> mappings) {
+        if (!ENABLED) {
+            return;
+        }
+        if (pending.getAndSet(mappings) == null) {
+            Builder.EXECUTOR.execute(() -> {
+                List<DriverMapping> latest = pending.getAndSet(null);
+                if (latest == null) {
+                    return;
+                }
+                try {
+                    Layer previous = layer;
+                    Layer built = build(latest, previous);
+                    synchronized (users) {
+                        layer = built;
+                        if (previous != null && previous != built && previous.loader != null) {
+                            retired.add(previous);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    log.warn("build shared layer failed, keep the previous layer : {}", e.toString());
+                }
+                closeUnused();
+            });
+        }
+    }
+
+    /**
+     * 等待已提交的构建完成，用于基准测试等需要确定状态的场景
+     *
+     * @param timeout 最长等待时间
+     * @param unit    时间单位
+     * @return 是否在超时前完成
+     */
+    public static boolean awaitBuilt(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!ENABLED) {
+            return true;
+        }
+        try {
+            // 单线程按提交顺序执行，空任务完成时之前提交的构建都已完成
+            Builder.EXECUTOR.submit(() -> { }).get(timeout, unit);
+            return true;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 把驱动目录下的jar分为当前版本自己加载的jar和共享依赖
+     *
+     * @param jars 驱动目录下所有jar的路径
+     * @return 拆分结果，未开启、还未构建完成或没有共享依赖时所有jar都由当前版本加载
+     */
+    static Split split(List<String> jars) {
+        // 在锁内取得共享层并计入待登记的使用者，避免登记前共享层被替换并关闭
+        synchronized (users) {
+            Layer current = layer;
+            if (current == null || current.loader == null) {
+                return new Split(jars, null, Collections.emptySet());
+            }
+            List<String> own = new ArrayList<>(jars.size());
+            Set<SharedJar> used = new HashSet<>();
+            for (String jar : jars) {
+                SharedJar shared = current.byPath.get(jar);
+                if (shared == null || !shared.unchanged(jar)) {
+                    own.add(jar);
+                } else {
+                    used.add(shared);
+                }
+            }
+            if (used.isEmpty()) {
+                return new Split(jars, null, used);
+            }
+            current.pending++;
+            return new Split(own, current, used);
+        }
+    }
+
+    /**
+     * 驱动类加载器关闭时调用，不再计入共享包的使用者，被替换的共享层没有使用者后关闭
+     */
+    static void release(DriverClassLoader loader) {
+        if (users.remove(loader) != null) {
+            closeUnused();
+        }
+    }
+
+    /**
+     * 关闭已被替换、没有驱动类加载器使用也没有待登记使用者的共享层
+     */
+    private static void closeUnused() {
+        List<Layer> unused = new ArrayList<>();
+        synchronized (users) {
+            for (Iterator<Layer> it = retired.iterator(); it.hasNext(); ) {
+                Layer old = it.next();
+                if (old.pending == 0 && !isUsed(old)) {
+                    it.remove();
+                    unused.add(old);
+                }
+            }
+        }
+        for (Layer old : unused) {
+            LoaderTracker.retire(old.loader);
+            try {
+                old.loader.close();
+                log.info("closed replaced shared layer with {} jars", old.jars.size());
+            } catch (IOException e) {
+                log.warn("close replaced shared layer failed : {}", e.toString());
+            }
+        }
+    }
+
+    private static boolean isUsed(Layer old) {
+        for (Set<SharedJar> used : users.values()) {
+            if (!Collections.disjoint(used, old.jars)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Layer build(List<DriverMapping> mappings, Layer previous) {
+        long start = System.currentTimeMillis();
+        // 驱动目录和驱动包
+        Set<String> dirs = new TreeSet<>();
+        Set<String> driverJars = new HashSet<>();
+        for (DriverMapping mapping : mappings) {
+            DriverInfo driverInfo = mapping.getDriverInfo();
+            String jar = driverInfo == null ? null : driverInfo.getJarAbsolutePath();
+            if (jar == null || jar.lastIndexOf(ProxyInfo.SPERATE_CHAR) < 0) {
+                continue;
+            }
+            driverJars.add(jar);
+            dirs.add(jar.substring(0, jar.lastIndexOf(ProxyInfo.SPERATE_CHAR)));
+        }
+
+        // 内容hash -> 包含这个jar的目录中的路径
+        Map<String, List<String>> pathsByHash = new LinkedHashMap<>();
+        Set<String> driverHashes = new HashSet<>();
+        // 目录 -> 目录中的jar
+        Map<String, List<String>> jarsByDir = new HashMap<>();
+        Map<String, String> oldHashes = hashes;
+        Map<String, String> newHashes = new HashMap<>();
+        // 路径 -> 长度|修改时间
+        Map<String, String> stats = new HashMap<>();
+        for (String dir : dirs) {
+            File[] files = new File(dir).listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                if (!file.getPath().endsWith(".jar") || !file.isFile()) {
+                    continue;
+                }
+                jarsByDir.computeIfAbsent(dir, k -> new ArrayList<>()).add(file.getPath());
+                try {
+                    String stat = stat(file);
+                    String hash = hash(file, file.getPath() + '|' + stat, oldHashes, newHashes);
+                    stats.put(file.getPath(), stat);
+                    if (driverJars.contains(file.getPath())) {
+                        driverHashes.add(hash);
+                    } else {
+                        pathsByHash.computeIfAbsent(hash, k -> new ArrayList<>()).add(file.getPath());
+                    }
+                } catch (IOException e) {
+                    log.warn("hash jar {} failed, not shared : {}", file, e.toString());
+                }
+            }
+        }
+        hashes = newHashes;
+
+        // 出现在两个及以上目录中的依赖包，按第一个路径排序保证加载顺序稳定
+        TreeMap<String, List<String>> candidates = new TreeMap<>();
+        Map<String, String> hashByFirst = new HashMap<>();
+        for (Map.Entry<String, List<String>> entry : pathsByHash.entrySet()) {
+            if (dirCount(entry.getValue()) > 1 && !driverHashes.contains(entry.getKey())) {
+                candidates.put(entry.getValue().get(0), entry.getValue());
+                hashByFirst.put(entry.getValue().get(0), entry.getKey());
+            }
+        }
+        removeConflicts(candidates);
+        removeLocalDependents(candidates, jarsByDir);
+        if (candidates.isEmpty()) {
+            log.info(() -> "shared layer empty, no shareable jars in " + dirs.size() + " driver directories");
+            return Layer.EMPTY;
+        }
+
+        // 共享的jar和内容都没有变化时沿用之前的共享类加载器，不重复加载相同的类
+        List<String> signature = new ArrayList<>(candidates.size());
+        for (Map.Entry<String, List<String>> entry : candidates.entrySet()) {
+            signature.add(hashByFirst.get(entry.getKey()) + entry.getValue());
+        }
+        if (previous != null && previous.loader != null && previous.signature.equals(signature)) {
+            log.debug("shared layer unchanged, {} jars", candidates.size());
+            return previous;
+        }
+
+        List<URL> urls = new ArrayList<>(candidates.size());
+        List<SharedJar> sharedJars = new ArrayList<>(candidates.size());
+        Map<String, SharedJar> byPath = new HashMap<>();
+        try {
+            for (List<String> paths : candidates.values()) {
+                Map<String, String> jarStats = new HashMap<>();
+                for (String path : paths) {
+                    jarStats.put(path, stats.get(path));
+                }
+                SharedJar shared = new SharedJar(sharedJars.size(), paths, jarStats);
+                urls.add(new URL("jar:file:" + paths.get(0) + "!/"));
+                sharedJars.add(shared);
+                for (String path : paths) {
+                    byPath.put(path, shared);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("create shared layer failed, every version loads its own jars : {}", e.toString());
+            return Layer.EMPTY;
+        }
+        DriverClassLoader loader = new DriverClassLoader(urls.toArray(new URL[0]));
+        LoaderTracker.track(loader, "shared layer");
+        long cost = System.currentTimeMillis() - start;
+        log.info(() -> "shared layer with " + sharedJars.size() + " jars from " + dirs.size()
+                + " driver directories in " + cost + "ms : " + candidates.keySet());
+        return new Layer(loader, sharedJars, byPath, signature);
+    }
+
+    private static int dirCount(List<String> paths) {
+        Set<String> dirs = new HashSet<>();
+        for (String path : paths) {
+            dirs.add(new File(path).getParent());
+        }
+        return dirs.size();
+    }
+
+    /**
+     * 去掉和其他候选包有同名类的依赖包，有冲突的包都不共享
+     */
+    private static void removeConflicts(TreeMap<String, List<String>> candidates) {
+        Map<String, String> owners = new HashMap<>();
+        Set<String> conflicts = new HashSet<>();
+        for (String path : candidates.keySet()) {
+            try {
+                for (String name : classNames(path)) {
+                    String owner = owners.putIfAbsent(name, path);
+                    if (owner != null && !owner.equals(path)) {
+                        conflicts.add(owner);
+                        conflicts.add(path);
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("read jar {} failed, not shared : {}", path, e.toString());
+                conflicts.add(path);
+            }
+        }
+        if (!conflicts.isEmpty()) {
+            log.warn("jars with conflicting classes are not shared : {}", conflicts);
+            candidates.keySet().removeAll(conflicts);
+        }
+    }
+
+    /**
+     * 去掉引用了所在目录中非共享jar的类的依赖包。共享类加载器看不到这些jar，共享后加载会失败；
+     * 去掉一个包后它的类也变成目录中的非共享类，重复检查直到没有变化。
+     *
+     * @param candidates 候选包：第一个路径 -> 各目录中的路径
+     * @param jarsByDir  目录 -> 目录中的全部jar
+     */
+    private static void removeLocalDependents(TreeMap<String, List<String>> candidates, Map<String, List<String>> jarsByDir) {
+        Set<String> candidatePaths = new HashSet<>();
+        for (List<String> paths : candidates.values()) {
+            candidatePaths.addAll(paths);
+        }
+        // 目录 -> 目录中非共享jar的类名，同一个jar只读取一次
+        Map<String, Set<String>> localClasses = new HashMap<>();
+        Map<String, Set<String>> jarClasses = new HashMap<>();
+        try {
+            for (Map.Entry<String, List<String>> entry : jarsByDir.entrySet()) {
+                Set<String> classes = new HashSet<>();
+                for (String jar : entry.getValue()) {
+                    if (!candidatePaths.contains(jar)) {
+                        classes.addAll(cached(jarClasses, jar));
+                    }
+                }
+                localClasses.put(entry.getKey(), classes);
+            }
+            Map<String, Set<String>> references = new HashMap<>();
+            for (String first : candidates.keySet()) {
+                references.put(first, references(first));
+            }
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (Iterator<Map.Entry<String, List<String>>> it = candidates.entrySet().iterator(); it.hasNext(); ) {
+                    Map.Entry<String, List<String>> entry = it.next();
+                    String missing = findLocal(references.get(entry.getKey()), entry.getValue(), localClasses);
+                    if (missing == null) {
+                        continue;
+                    }
+                    log.info("jar {} references {} from an unshared jar, not shared", entry.getKey(), missing);
+                    it.remove();
+                    Set<String> classes = cached(jarClasses, entry.getKey());
+                    for (String path : entry.getValue()) {
+                        localClasses.computeIfAbsent(new File(path).getParent(), k -> new HashSet<>()).addAll(classes);
+                    }
+                    changed = true;
+                }
+            }
+        } catch (IOException e) {
+            log.warn("read jar classes failed, nothing shared : {}", e.toString());
+            candidates.clear();
+        }
+    }
+
+    private static String findLocal(Set<String> references, List<String> paths, Map<String, Set<String>> localClasses) {
+        for (String path : paths) {
+            Set<String> local = localClasses.get(new File(path).getParent());
+            if (local == null || local.isEmpty()) {
+                continue;
+            }
+            for (String reference : references) {
+                if (local.contains(reference)) {
+                    return reference;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Set<String> cached(Map<String, Set<String>> jarClasses, String jar) throws IOException {
+        Set<String> classes = jarClasses.get(jar);
+        if (classes == null) {
+            classes = classNames(jar);
+            jarClasses.put(jar, classes);
+        }
+        return classes;
+    }
+
+    /**
+     * @return jar中的类，内部名称，如org/postgresql/Driver
+     */
+    private static Set<String> classNames(String path) throws IOException {
+        Set<String> names = new HashSet<>();
+        try (JarFile jar = new JarFile(path)) {
+            for (Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements(); ) {
+                String name = e.nextElement().getName();
+                if (name.endsWith(CLASS_SUFFIX) && !name.startsWith("META-INF/")) {
+                    names.add(name.substring(0, name.length() - CLASS_SUFFIX.length()));
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * 读取jar中所有类的常量池，返回引用的类：CONSTANT_Class的类名，以及字段和方法描述符等字符串中L...;形式的类名
+     *
+     * @return 引用的类，内部名称
+     */
+    private static Set<String> references(String path) throws IOException {
+        Set<String> references = new HashSet<>();
+        try (JarFile jar = new JarFile(path)) {
+            for (Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements(); ) {
+                JarEntry entry = e.nextElement();
+                if (!entry.getName().endsWith(CLASS_SUFFIX) || entry.getName().startsWith("META-INF/")) {
+                    continue;
+                }
+                try (InputStream in = jar.getInputStream(entry)) {
+                    readConstantPool(new DataInputStream(in), references);
+                }
+            }
+        }
+        return references;
+    }
+
+    private static void readConstantPool(DataInputStream in, Set<String> references) throws IOException {
+        if (in.readInt() != 0xCAFEBABE) {
+            return;
+        }
+        in.readUnsignedShort();
+        in.readUnsignedShort();
+        int count = in.readUnsignedShort();
+        String[] utf8 = new String[count];
+        int[] classNames = new int[count];
+        int classCount = 0;
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1:
+                    utf8[i] = in.readUTF();
+                    break;
+                case 7:
+                    classNames[classCount++] = in.readUnsignedShort();
+                    break;
+                case 8:
+                case 16:
+                case 19:
+                case 20:
+                    in.readUnsignedShort();
+                    break;
+                case 15:
+                    in.readUnsignedByte();
+                    in.readUnsignedShort();
+                    break;
+                case 3:
+                case 4:
+                case 9:
+                case 10:
+                case 11:
+                case 12:
+                case 17:
+                case 18:
+                    in.readInt();
+                    break;
+                case 5:
+                case 6:
+                    in.readLong();
+                    // long和double占两个常量池位置
+                    i++;
+                    break;
+                default:
+                    throw new IOException("unknown constant pool tag " + tag);
+            }
+        }
+        for (int i = 0; i < classCount; i++) {
+            String name = utf8[classNames[i]];
+            if (name != null && !name.startsWith("[")) {
+                references.add(name);
+            }
+        }
+        // 描述符和数组类型中的类名
+        for (String value : utf8) {
+            if (value == null) {
+                continue;
+            }
+            int from = value.indexOf('L');
+            while (from >= 0) {
+                int end = value.indexOf(';', from);
+                if (end < 0) {
+                    break;
+                }
+                if (from == 0 || "([L)".indexOf(value.charAt(from - 1)) >= 0 || isPrimitive(value.charAt(from - 1))) {
+                    references.add(value.substring(from + 1, end));
+                }
+                from = value.indexOf('L', end);
+            }
+        }
+    }
+
+    private static boolean isPrimitive(char c) {
+        return "BCDFIJSZV".indexOf(c) >= 0;
+    }
+
+    private static String stat(File file) {
+        return file.length() + "|" + file.lastModified();
+    }
+
+    private static String hash(File file, String key, Map<String, String> oldHashes, Map<String, String> newHashes)
+            throws IOException {
+        String hash = oldHashes.get(key);
+        if (hash == null) {
+            hash = sha256(file);
+        }
+        newHashes.put(key, hash);
+        return hash;
+    }
+
+    private static String sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * @return 共享包当前的使用者数量，只统计未关闭的驱动类加载器
+     */
+    private static Map<SharedJar, Integer> userCounts() {
+        Map<SharedJar, Integer> counts = new HashMap<>();
+        synchronized (users) {
+            for (Set<SharedJar> used : users.values()) {
+                for (SharedJar shared : used) {
+                    counts.merge(shared, 1, Integer::sum);
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return 共享依赖层节省的元空间估算（字节）：每个共享包已定义的类字节码大小 x (使用它的类加载器数 - 1)
+     */
+    public static long getSavedBytes() {
+        Layer current = layer;
+        if (current == null || current.loader == null) {
+            return 0;
+        }
+        Map<SharedJar, Integer> counts = userCounts();
+        long saved = 0;
+        for (SharedJar shared : current.jars) {
+            saved += shared.savedBytes(current.loader, counts.getOrDefault(shared, 0));
+        }
+        return saved;
+    }
+
+    /**
+     * 共享依赖层的报告，每个共享包一行：使用它的类加载器数、已定义的类和字节码大小、估算节省的元空间。
+     * 字节码大小只是元空间占用的近似值，实际占用随JVM版本和类的结构变化。
+     *
+     * @return 报告文本
+     */
+    public static String report() {
+        Layer current = layer;
+        if (!ENABLED) {
+            return "shared layer disabled";
+        }
+        if (current == null) {
+            return "shared layer not built";
+        }
+        if (current.loader == null) {
+            return "shared layer empty, no shareable jars across driver directories";
+        }
+        Map<SharedJar, Integer> counts = userCounts();
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-48s %5s %6s %8s %10s %10s%n", "jar", "dirs", "users", "classes", "bytes", "saved"));
+        for (SharedJar shared : current.jars) {
+            String path = shared.paths.get(0);
+            int count = counts.getOrDefault(shared, 0);
+            report.append(String.format("%-48s %5d %6d %8d %10d %10d%n",
+                    path.substring(path.lastIndexOf(ProxyInfo.SPERATE_CHAR) + 1),
+                    shared.paths.size(), count,
+                    current.loader.definedClasses(shared.index), current.loader.definedBytes(shared.index),
+                    shared.savedBytes(current.loader, count)));
+        }
+        report.append(String.format("metaspace saved (estimated from class bytes) : %d KB", getSavedBytes() / 1024));
+        return report.toString();
+    }
+
+    /**
+     * 驱动目录中jar的拆分结果
+     */
+    static final class Split {
+
+        // 当前版本自己加载的jar
+        private final List<String> ownJars;
+
+        // 使用的共享层，没有共享依赖时为null
+        private final Layer layer;
+
+        private final Set<SharedJar> used;
+
+        private Split(List<String> ownJars, Layer layer, Set<SharedJar> used) {
+            this.ownJars = ownJars;
+            this.layer = layer;
+            this.used = used;
+        }
+
+        List<String> getOwnJars() {
+            return ownJars;
+        }
+
+        /**
+         * @return 共享类加载器，没有共享依赖时为null
+         */
+        DriverClassLoader getShared() {
+            return layer == null ? null : layer.loader;
+        }
+
+        /**
+         * 登记使用共享依赖的驱动类加载器，同一个目录重新初始化时旧的类加载器关闭后不再计数。
+         * 拆分后必须调用一次，类加载器创建失败时传入null，只释放对共享层的占用
+         */
+        void register(DriverClassLoader loader) {
+            if (layer == null) {
+                return;
+            }
+            synchronized (users) {
+                layer.pending--;
+                if (loader != null) {
+                    users.put(loader, used);
+                }
+            }
+            if (loader == null) {
+                closeUnused();
+            }
+        }
+    }
+
+    private static final class SharedJar {
+
+        // 在共享类加载器中的下标
+        private final int index;
+
+        // 各目录中内容相同的jar
+        private final List<String> paths;
+
+        // 路径 -> 构建时的长度|修改时间
+        private final Map<String, String> stats;
+
+        private SharedJar(int index, List<String> paths, Map<String, String> stats) {
+            this.index = index;
+            this.paths = paths;
+            this.stats = stats;
+        }
+
+        /**
+         * @return jar的长度和修改时间与构建时是否一致
+         */
+        private boolean unchanged(String path) {
+            return stat(new File(path)).equals(stats.get(path));
+        }
+
+        private long savedBytes(DriverClassLoader loader, int users) {
+            return loader.definedBytes(index) * Math.max(0, users - 1);
+        }
+    }
+
+    private static final class Layer {
+
+        private static final Layer EMPTY = new Layer(null, Collections.emptyList(), Collections.emptyMap(),
+                Collections.emptyList());
+
+        private final DriverClassLoader loader;
+
+        private final List<SharedJar> jars;
+
+        // 各目录中的路径 -> 共享包
+        private final Map<String, SharedJar> byPath;
+
+        // 共享包的hash和路径，用于判断重新构建时是否有变化
+        private final List<String> signature;
+
+        // 已拆分但还未登记的驱动类加载器数，由users的锁保护
+        private int pending;
+
+        private Layer(DriverClassLoader loader, List<SharedJar> jars, Map<String, SharedJar> byPath, List<String> signature) {
+            this.loader = loader;
+            this.jars = jars;
+            this.byPath = byPath;
+            this.signature = signature;
+        }
+    }
+
+    /**
+     * 构建线程，开启共享依赖层后第一次构建时创建
+     */
+    private static final class Builder {
+
+        private static final ExecutorService EXECUTOR =
+                Executors.newSingleThreadExecutor(ThreadSupport.daemonFactory("proxy-driver-shared-layer"));
+    }
+}
@@ -0,0 +1,221 @@
+package com.asia.driver.dynamic.loader;
+
+import com.asia.driver.dynamic.bean.DbInfo;
+import com.asia.driver.dynamic.bean.DriverMapping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * @author wangwei
+ * @date 2024/04/05
+ * 驱动映射的版本索引，随快照创建，构建后只读。按以下顺序查找驱动映射：
+ * 1.数据库类型和版本字符串完全相同的映射，和原来的匹配方式一致；
+ * 2.包含请求版本的精确版本、通配符或区间中范围最小的一个，范围相同时取配置中靠前的；
+ * 3.开启就近匹配时，取同一主版本中不大于请求版本的最大精确版本，例如配置了12.3时12.5也使用它。
+ * 每种数据库类型的区间预先切分为互不重叠的有序段，每段记录命中的映射，查找时二分，复杂度为O(log n)。
+ *
+ * 配置项（系统属性）：
+ * proxy.driver.match.nearest  没有版本命中时是否就近匹配同一主版本的驱动，默认true
+ */
+final class VersionIndex {
+
+    private static final boolean NEAREST = Boolean.parseBoolean(System.getProperty("proxy.driver.match.nearest", "true"));
+
+    // 版本字符串完全相同的映射，重复配置时取第一个
+    private final Map<DbInfo, DriverMapping> exact;
+
+    // dbType -> 压缩版本号索引
+    private final Map<String, TypeIndex> types;
+
+    private VersionIndex(Map<DbInfo, DriverMapping> exact, Map<String, TypeIndex> types) {
+        this.exact = exact;
+        this.types = types;
+    }
+
+    static VersionIndex build(List<DriverMapping> mappings) {
+        Map<DbInfo, DriverMapping> exact = new HashMap<>(mappings.size() * 2);
+        Map<String, List<Entry>> entries = new HashMap<>();
+        for (DriverMapping mapping : mappings) {
+            DbInfo dbInfo = mapping.getDbInfo();
+            if (dbInfo == null || dbInfo.getDbType() == null || dbInfo.getDbVersion() == null) {
+                continue;
+            }
+            exact.putIfAbsent(dbInfo, mapping);
+            // 配置解析时已经校验过格式，这里只处理能压缩的版本
+            VersionRange range;
+            try {
+                range = VersionRange.parse(dbInfo.getDbVersion());
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            if (range != null) {
+                List<Entry> list = entries.computeIfAbsent(dbInfo.getDbType(), k -> new ArrayList<>());
+                list.add(new Entry(range, mapping, list.size()));
+            }
+        }
+        Map<String, TypeIndex> types = new HashMap<>();
+        for (Map.Entry<String, List<Entry>> entry : entries.entrySet()) {
+            types.put(entry.getKey(), new TypeIndex(entry.getValue()));
+        }
+        return new VersionIndex(exact, types);
+    }
+
+    /**
+     * 查找请求版本对应的驱动映射
+     *
+     * @param dbType    数据库类型
+     * @param dbVersion 请求的数据库版本
+     * @return 驱动映射，找不到时返回null
+     */
+    DriverMapping find(String dbType, String dbVersion) {
+        DriverMapping mapping = exact.get(DbInfo.builder().dbType(dbType).dbVersion(dbVersion).build());
+        if (mapping != null) {
+            return mapping;
+        }
+        TypeIndex index = types.get(dbType);
+        long version = VersionRange.pack(dbVersion);
+        if (index == null || version < 0) {
+            return null;
+        }
+        mapping = index.covering(version);
+        if (mapping == null && NEAREST) {
+            mapping = index.nearest(version);
+        }
+        return mapping;
+    }
+
+    /**
+     * @return 数据库类型中版本最高的映射，精确版本取版本号，通配符和区间取下限；没有能压缩的版本时返回null
+     */
+    DriverMapping newest(String dbType) {
+        TypeIndex index = types.get(dbType);
+        return index == null ? null : index.newest;
+    }
+
+    private static final class Entry {
+
+        private final VersionRange range;
+
+        private final DriverMapping mapping;
+
+        // 在配置中的顺序
+        private final int order;
+
+        private Entry(VersionRange range, DriverMapping mapping, int order) {
+            this.range = range;
+            this.mapping = mapping;
+            this.order = order;
+        }
+
+        private long width() {
+            return range.getHigh() - range.getLow();
+        }
+    }
+
+    private static final class TypeIndex {
+
+        // 各段的起点，第k段为[starts[k], starts[k + 1])
+        private final long[] starts;
+
+        // 各段命中的映射，没有区间覆盖时为null
+        private final DriverMapping[] winners;
+
+        // 精确版本按版本号排序，用于就近匹配
+        private final long[] points;
+
+        private final DriverMapping[] pointMappings;
+
+        // 起点最大的映射，通常是最新的驱动
+        private final DriverMapping newest;
+
+        private TypeIndex(List<Entry> entries) {
+            long[] bounds = new long[entries.size() * 2];
+            int count = 0;
+            for (Entry entry : entries) {
+                bounds[count++] = entry.range.getLow();
+                if (entry.range.getHigh() != VersionRange.UNBOUNDED) {
+                    bounds[count++] = entry.range.getHigh();
+                }
+            }
+            Arrays.sort(bounds, 0, count);
+            int unique = 0;
+            for (int i = 0; i < count; i++) {
+                if (unique == 0 || bounds[unique - 1] != bounds[i]) {
+                    bounds[unique++] = bounds[i];
+                }
+            }
+            starts = Arrays.copyOf(bounds, unique);
+            winners = new DriverMapping[unique];
+
+            // 按起点扫描，堆顶是覆盖当前段的范围最小的区间，已结束的区间延迟出堆
+            List<Entry> byLow = new ArrayList<>(entries);
+            byLow.sort(Comparator.comparingLong(entry -> entry.range.getLow()));
+            PriorityQueue<Entry> active = new PriorityQueue<>(
+                    Comparator.comparingLong(Entry::width).thenComparingInt(entry -> entry.order));
+            int next = 0;
+            for (int k = 0; k < unique; k++) {
+                while (next < byLow.size() && byLow.get(next).range.getLow() == starts[k]) {
+                    active.add(byLow.get(next++));
+                }
+                while (!active.isEmpty() && active.peek().range.getHigh() <= starts[k]) {
+                    active.poll();
+                }
+                winners[k] = active.isEmpty() ? null : active.peek().mapping;
+            }
+
+            List<Entry> pointEntries = new ArrayList<>();
+            for (Entry entry : entries) {
+                if (entry.range.isPoint()) {
+                    pointEntries.add(entry);
+                }
+            }
+            pointEntries.sort(Comparator.<Entry>comparingLong(entry -> entry.range.getLow()).thenComparingInt(entry -> entry.order));
+            long[] pointValues = new long[pointEntries.size()];
+            DriverMapping[] mappings = new DriverMapping[pointEntries.size()];
+            int size = 0;
+            for (Entry entry : pointEntries) {
+                if (size == 0 || pointValues[size - 1] != entry.range.getLow()) {
+                    pointValues[size] = entry.range.getLow();
+                    mappings[size++] = entry.mapping;
+                }
+            }
+            points = Arrays.copyOf(pointValues, size);
+            pointMappings = Arrays.copyOf(mappings, size);
+
+            Entry top = null;
+            for (Entry entry : entries) {
+                if (top == null || entry.range.getLow() > top.range.getLow()) {
+                    top = entry;
+                }
+            }
+            newest = top == null ? null : top.mapping;
+        }
+
+        private DriverMapping covering(long version) {
+            int k = floor(starts, version);
+            return k < 0 ? null : winners[k];
+        }
+
+        private DriverMapping nearest(long version) {
+            int k = floor(points, version);
+            if (k < 0 || VersionRange.major(points[k]) != VersionRange.major(version)) {
+                return null;
+            }
+            return pointMappings[k];
+        }
+
+        /**
+         * @return 不大于value的最大元素的下标，没有时返回-1
+         */
+        private static int floor(long[] values, long value) {
+            int index = Arrays.binarySearch(values, value);
+            return index >= 0 ? index : -index - 2;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.asia.driver.dynamic.loader;
+
+/**
+ * @author wangwei
+ * @date 2024/04/05
+ * 配置键中的数据库版本，解析为压缩版本号上的左闭右开区间[low, high)：
+ * 1.精确版本 9.6，匹配压缩后相等的版本，如9.6和9.6.0；
+ * 2.通配符 9.x、9.6.x、9.*，匹配前缀相同的版本，单独的x或*匹配所有版本；只有以.x、.*结尾或单独的x、*是通配符，
+ * 其他以x结尾的版本（如5.7.linux）是精确版本；
+ * 3.区间 [10.0,12.5)、(9.6,]、[,11)，方括号包含端点，圆括号不包含，端点为空表示不限制。
+ * 压缩版本号把最多4段数字分别放在long的16位中（第一段最大32767，其余最大65535），可以直接比较大小；
+ * 超出范围或不以数字开头的版本不能压缩，只能按字符串精确匹配。
+ */
+public final class VersionRange {
+
+    static final long UNBOUNDED = Long.MAX_VALUE;
+
+    private static final int PARTS = 4;
+
+    private static final int[] SHIFTS = {48, 32, 16, 0};
+
+    private static final int[] LIMITS = {0x7FFF, 0xFFFF, 0xFFFF, 0xFFFF};
+
+    private final long low;
+
+    private final long high;
+
+    private VersionRange(long low, long high) {
+        this.low = low;
+        this.high = high;
+    }
+
+    long getLow() {
+        return low;
+    }
+
+    long getHigh() {
+        return high;
+    }
+
+    /**
+     * @return 是否是单个版本，而不是通配符或区间
+     */
+    boolean isPoint() {
+        return high - low == 1;
+    }
+
+    /**
+     * 判断配置的版本是否是通配符或区间，这类版本不能作为路由表的key
+     *
+     * @param spec 配置的版本
+     * @return 是否是通配符或区间
+     */
+    public static boolean isPattern(String spec) {
+        if (spec == null || spec.isEmpty()) {
+            return false;
+        }
+        char first = spec.charAt(0);
+        return first == '[' || first == '(' || isWildcard(spec);
+    }
+
+    /**
+     * @return 是否是单独的x、*，或以.x、.*结尾
+     */
+    private static boolean isWildcard(String value) {
+        int length = value.length();
+        char last = value.charAt(length - 1);
+        if (last != 'x' && last != 'X' && last != '*') {
+            return false;
+        }
+        return length == 1 || value.charAt(length - 2) == '.';
+    }
+
+    /**
+     * 校验配置的版本，由配置解析调用，格式错误的配置不会生效
+     *
+     * @param spec 配置的版本
+     * @throws IllegalArgumentException 通配符或区间格式错误
+     */
+    public static void validate(String spec) {
+        parse(spec);
+    }
+
+    /**
+     * 解析配置的版本
+     *
+     * @param spec 配置的版本
+     * @return 版本区间，不能压缩的精确版本返回null
+     * @throws IllegalArgumentException 通配符或区间格式错误
+     */
+    static VersionRange parse(String spec) {
+        String value = spec.trim();
+        char first = value.isEmpty() ? ' ' : value.charAt(0);
+        if (first == '[' || first == '(') {
+            return parseInterval(value);
+        }
+        if (!value.isEmpty() && isWildcard(value)) {
+            if (value.length() == 1) {
+                return new VersionRange(0, UNBOUNDED);
+            }
+            int[] prefix = parts(value.substring(0, value.length() - 2), true);
+            if (prefix == null || prefix.length >= PARTS) {
+                throw new IllegalArgumentException("illegal version wildcard : " + spec);
+            }
+            long low = pack(prefix);
+            return new VersionRange(low, low + (1L << SHIFTS[prefix.length - 1]));
+        }
+        int[] parts = parts(value, true);
+        if (parts == null) {
+            return null;
+        }
+        long point = pack(parts);
+        return new VersionRange(point, point + 1);
+    }
+
+    private static VersionRange parseInterval(String spec) {
+        char last = spec.charAt(spec.length() - 1);
+        int comma = spec.indexOf(',');
+        if ((last != ']' && last != ')') || comma < 0 || spec.indexOf(',', comma + 1) >= 0) {
+            throw new IllegalArgumentException("illegal version range : " + spec);
+        }
+        String lower = spec.substring(1, comma).trim();
+        String upper = spec.substring(comma + 1, spec.length() - 1).trim();
+        long low = 0;
+        if (!lower.isEmpty()) {
+            low = packStrict(lower, spec) + (spec.charAt(0) == '(' ? 1 : 0);
+        }
+        long high = UNBOUNDED;
+        if (!upper.isEmpty()) {
+            high = packStrict(upper, spec) + (last == ']' ? 1 : 0);
+        }
+        if (low >= high) {
+            throw new IllegalArgumentException("empty version range : " + spec);
+        }
+        return new VersionRange(low, high);
+    }
+
+    private static long packStrict(String version, String spec) {
+        int[] parts = parts(version, true);
+        if (parts == null) {
+            throw new IllegalArgumentException("illegal version in range : " + spec);
+        }
+        return pack(parts);
+    }
+
+    /**
+     * 压缩连接请求中的数据库版本，只取开头的数字部分，例如8.0.33-log取8.0.33
+     *
+     * @param version 数据库版本
+     * @return 压缩版本号，不能压缩时返回-1
+     */
+    static long pack(String version) {
+        int[] parts = version == null ? null : parts(version, false);
+        return parts == null ? -1 : pack(parts);
+    }
+
+    /**
+     * @return 压缩版本号的第一段
+     */
+    static long major(long packed) {
+        return packed >>> SHIFTS[0];
+    }
+
+    private static long pack(int[] parts) {
+        long packed = 0;
+        for (int i = 0; i < parts.length; i++) {
+            packed |= (long) parts[i] << SHIFTS[i];
+        }
+        return packed;
+    }
+
+    /**
+     * 拆分版本的数字段，最多取4段
+     *
+     * @param strict true时整个字符串必须是点分隔的数字，false时遇到其他字符结束
+     * @return 每段的数字，没有数字、超出范围或strict下有其他字符时返回null
+     */
+    private static int[] parts(String version, boolean strict) {
+        int[] parts = new int[PARTS];
+        int count = 0;
+        int i = 0;
+        int length = version.length();
+        while (i < length && count < PARTS) {
+            int start = i;
+            long value = 0;
+            while (i < length && Character.isDigit(version.charAt(i)) && value <= LIMITS[count]) {
+                value = value * 10 + (version.charAt(i++) - '0');
+            }
+            if (i == start || value > LIMITS[count]) {
+                return null;
+            }
+            parts[count++] = (int) value;
+            if (i < length && version.charAt(i) == '.' && i + 1 < length && Character.isDigit(version.charAt(i + 1))) {
+                i++;
+            } else {
+                break;
+            }
+        }
+        if (strict && i < length) {
+            return null;
+        }
+        int[] result = new int[count];
+        System.arraycopy(parts, 0, result, 0, count);
+        return result;
+    }
+}
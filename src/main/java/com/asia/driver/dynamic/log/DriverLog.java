@@ -0,0 +1,256 @@
+package com.asia.driver.dynamic.log;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * @author wangwei
+ * @date 2024/03/08
+ * 代理驱动统一的日志门面：
+ * 1.先判断日志级别，未开启时不做任何字符串拼接；
+ * 2.消息通过占位符或Supplier延迟构造；
+ * 3.连接路径上的日志按路由采样，同一路由在采样间隔内只输出一次；单独采样的路由数量超过上限后，
+ * 新路由共用一个other采样，客户端传入大量不同的版本时不会无限占用内存；
+ * 4.可选的异步模式，日志写入有界队列由后台线程输出，队列满时丢弃，连接线程不会阻塞在日志IO上。
+ *
+ * 配置项（系统属性）：
+ * proxy.driver.log.async            是否开启异步模式，默认false
+ * proxy.driver.log.queue.size       异步队列长度，默认1024
+ * proxy.driver.log.sample.interval  同一路由日志的采样间隔（毫秒），默认1000，0表示不采样
+ * proxy.driver.log.sample.max.routes  单独采样的路由数上限，默认256
+ */
+public final class DriverLog {
+
+    private static final boolean ASYNC = Boolean.getBoolean("proxy.driver.log.async");
+
+    private static final int QUEUE_SIZE = Integer.getInteger("proxy.driver.log.queue.size", 1024);
+
+    private static final long SAMPLE_INTERVAL_NANOS =
+            Long.getLong("proxy.driver.log.sample.interval", 1000L) * 1_000_000L;
+
+    private static final BlockingQueue<Event> QUEUE = ASYNC ? new ArrayBlockingQueue<>(QUEUE_SIZE) : null;
+
+    // 异步模式下因队列已满而丢弃的日志数量
+    private static final AtomicLong DROPPED = new AtomicLong();
+
+    private static final int MAX_SAMPLE_ROUTES = Integer.getInteger("proxy.driver.log.sample.max.routes", 256);
+
+    // dbType -> (dbVersion -> 上次输出日志的时间)
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, AtomicLong>> SAMPLES = new ConcurrentHashMap<>();
+
+    // 单独采样的路由数量
+    private static final AtomicInteger SAMPLE_ROUTES = new AtomicInteger();
+
+    // 超过上限后的路由共用的上次输出日志的时间
+    private static final AtomicLong OTHER_SAMPLE = new AtomicLong(System.nanoTime() - SAMPLE_INTERVAL_NANOS);
+
+    static {
+        if (ASYNC) {
+            Thread writer = new Thread(DriverLog::drain, "proxy-driver-log");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    private final Logger logger;
+
+    private DriverLog(Logger logger) {
+        this.logger = logger;
+    }
+
+    public static DriverLog getLog(Class<?> clazz) {
+        return new DriverLog(LoggerFactory.getLogger(clazz));
+    }
+
+    public boolean isDebugEnabled() {
+        return logger.isDebugEnabled();
+    }
+
+    public boolean isInfoEnabled() {
+        return logger.isInfoEnabled();
+    }
+
+    public void debug(String format, Object arg) {
+        if (logger.isDebugEnabled()) {
+            write(Level.DEBUG, format, arg, null, null);
+        }
+    }
+
+    public void debug(String format, Object arg1, Object arg2) {
+        if (logger.isDebugEnabled()) {
+            write(Level.DEBUG, format, arg1, arg2, null);
+        }
+    }
+
+    public void debug(String format, Object arg1, Object arg2, Object arg3) {
+        if (logger.isDebugEnabled()) {
+            write(Level.DEBUG, format, arg1, arg2, arg3);
+        }
+    }
+
+    public void debug(Supplier<String> message) {
+        if (logger.isDebugEnabled()) {
+            write(Level.DEBUG, "{}", message.get(), null, null);
+        }
+    }
+
+    public void info(String format, Object arg) {
+        if (logger.isInfoEnabled()) {
+            write(Level.INFO, format, arg, null, null);
+        }
+    }
+
+    public void info(String format, Object arg1, Object arg2) {
+        if (logger.isInfoEnabled()) {
+            write(Level.INFO, format, arg1, arg2, null);
+        }
+    }
+
+    public void info(String format, Object arg1, Object arg2, Object arg3) {
+        if (logger.isInfoEnabled()) {
+            write(Level.INFO, format, arg1, arg2, arg3);
+        }
+    }
+
+    public void info(Supplier<String> message) {
+        if (logger.isInfoEnabled()) {
+            write(Level.INFO, "{}", message.get(), null, null);
+        }
+    }
+
+    public void warn(String format, Object arg) {
+        if (logger.isWarnEnabled()) {
+            write(Level.WARN, format, arg, null, null);
+        }
+    }
+
+    public void warn(String format, Object arg1, Object arg2) {
+        if (logger.isWarnEnabled()) {
+            write(Level.WARN, format, arg1, arg2, null);
+        }
+    }
+
+    public void error(String message, Throwable t) {
+        if (logger.isErrorEnabled()) {
+            write(Level.ERROR, message, t, null, null);
+        }
+    }
+
+    /**
+     * 按路由采样，同一路由在采样间隔内只返回一次true，调用方应先判断日志级别
+     *
+     * @param dbType    数据库类型
+     * @param dbVersion 数据库版本
+     * @return 本次是否输出日志
+     */
+    public static boolean sample(String dbType, String dbVersion) {
+        if (SAMPLE_INTERVAL_NANOS <= 0) {
+            return true;
+        }
+        if (dbType == null || dbVersion == null) {
+            return true;
+        }
+        long now = System.nanoTime();
+        ConcurrentHashMap<String, AtomicLong> versions = SAMPLES.get(dbType);
+        AtomicLong last = versions == null ? null : versions.get(dbVersion);
+        if (last != null) {
+            return tryAcquire(last, now);
+        }
+        if (SAMPLE_ROUTES.get() >= MAX_SAMPLE_ROUTES) {
+            return tryAcquire(OTHER_SAMPLE, now);
+        }
+        if (versions == null) {
+            versions = SAMPLES.computeIfAbsent(dbType, k -> new ConcurrentHashMap<>());
+        }
+        last = versions.putIfAbsent(dbVersion, new AtomicLong(now));
+        if (last == null) {
+            SAMPLE_ROUTES.incrementAndGet();
+            return true;
+        }
+        return tryAcquire(last, now);
+    }
+
+    private static boolean tryAcquire(AtomicLong last, long now) {
+        long prev = last.get();
+        return now - prev >= SAMPLE_INTERVAL_NANOS && last.compareAndSet(prev, now);
+    }
+
+    /**
+     * @return 异步模式下丢弃的日志数量
+     */
+    public static long getDropped() {
+        return DROPPED.get();
+    }
+
+    private void write(Level level, String format, Object arg1, Object arg2, Object arg3) {
+        if (ASYNC) {
+            if (!QUEUE.offer(new Event(this, level, format, arg1, arg2, arg3))) {
+                DROPPED.incrementAndGet();
+            }
+            return;
+        }
+        log(level, format, arg1, arg2, arg3);
+    }
+
+    private void log(Level level, String format, Object arg1, Object arg2, Object arg3) {
+        switch (level) {
+            case DEBUG:
+                logger.debug(format, arg1, arg2, arg3);
+                break;
+            case INFO:
+                logger.info(format, arg1, arg2, arg3);
+                break;
+            case WARN:
+                logger.warn(format, arg1, arg2, arg3);
+                break;
+            default:
+                if (arg1 instanceof Throwable) {
+                    logger.error(format, (Throwable) arg1);
+                } else {
+                    logger.error(format, arg1, arg2, arg3);
+                }
+        }
+    }
+
+    private static void drain() {
+        while (true) {
+            try {
+                Event event = QUEUE.take();
+                event.log.log(event.level, event.format, event.arg1, event.arg2, event.arg3);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Throwable t) {
+                // 日志输出失败不能影响后台线程
+            }
+        }
+    }
+
+    private enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    private static final class Event {
+        private final DriverLog log;
+        private final Level level;
+        private final String format;
+        private final Object arg1;
+        private final Object arg2;
+        private final Object arg3;
+
+        private Event(DriverLog log, Level level, String format, Object arg1, Object arg2, Object arg3) {
+            this.log = log;
+            this.level = level;
+            this.format = format;
+            this.arg1 = arg1;
+            this.arg2 = arg2;
+            this.arg3 = arg3;
+        }
+    }
+}
@@ -1,11 +1,17 @@
 package com.asia.driver.dynamic.match;
 
 import com.asia.driver.dynamic.bean.DbInfo;
+import com.asia.driver.dynamic.bean.DriverInfo;
 import com.asia.driver.dynamic.bean.DriverMapping;
 import com.asia.driver.dynamic.enums.ProxyProperty;
 import com.asia.driver.dynamic.exception.CanNotFindError;
+import com.asia.driver.dynamic.jfr.DriverEvents;
+import com.asia.driver.dynamic.loader.DriverInitializer;
+import com.asia.driver.dynamic.loader.DriverRoutes;
+import com.asia.driver.dynamic.loader.DriverSnapshot;
 import com.asia.driver.dynamic.loader.LoaderContext;
-import lombok.extern.slf4j.Slf4j;
+import com.asia.driver.dynamic.log.DriverLog;
+import com.asia.driver.dynamic.metrics.ConnectMetrics;
 
 import java.sql.Driver;
 import java.util.Properties;
@@ -13,53 +19,82 @@ import java.util.Properties;
 /**
  * @author wangwei
  * @date 2024/02/22
- * 基础驱动匹配器，使用数据库的版本和数据库类型进行驱动匹配
+ * 基础驱动匹配器，使用数据库的版本和数据库类型进行驱动匹配，配置的版本可以是精确版本、通配符或区间
  */
-@Slf4j
 public class BasicDriverMatcher implements DriverMatcher {
 
+    private static final DriverLog log = DriverLog.getLog(BasicDriverMatcher.class);
+
 
     @Override
     public Driver match(Properties properties) {
+        return match(ProxyProperty.DB_TYPE.get(properties), ProxyProperty.DB_VERSION.get(properties));
+    }
+
+    /**
+     * 根据数据库类型和版本匹配驱动，优先命中路由表，未命中时查找快照的版本索引并回填路由表
+     *
+     * @param dbType    数据库类型
+     * @param dbVersion 数据库版本
+     * @return 已初始化的驱动
+     */
+    public Driver match(String dbType, String dbVersion) {
         try {
 
             // 获取真实驱动
-            String dbVersion = ProxyProperty.DB_VERSION.get(properties);
             if (dbVersion == null) {
-                throw new RuntimeException("The URL must include parameters for the 'dbversion'");
+                throw new RuntimeException("The URL must include parameters for the 'dbversion'"
+                        + ", or enable version discovery with -Dproxy.driver.discovery=true");
             }
 
-            String dbType = ProxyProperty.DB_TYPE.get(properties);
             if (dbType == null) {
                 throw new RuntimeException("unknown database type ");
             }
 
-            DbInfo dbInfo = DbInfo.builder().dbType(dbType).dbVersion(dbVersion).build();
-            log.info("begin match driver for :" + dbInfo);
-            DriverMapping targetDriverMapping = null;
-            for (DriverMapping driverMapping : LoaderContext.getDriverMappings()) {
-                if (dbInfo.equals(driverMapping.getDbInfo())) {
-                    if (driverMapping.getDriverInfo().getClassLoader() == null) {
-                        // 初始化类加载器和驱动
-                        synchronized (driverMapping) {
-                            if (driverMapping.getDriverInfo().getClassLoader() == null) {
-                                LoaderContext.initClassLoader(driverMapping.getDriverInfo());
-                                LoaderContext.initDriver(driverMapping.getDriverInfo());
-                            }
-                        }
+            // 路由表和驱动映射来自同一个快照，匹配过程中配置重新加载不影响本次匹配
+            DriverSnapshot snapshot = LoaderContext.getSnapshot();
+            DriverRoutes routes = snapshot.getRoutes();
+            Driver driver = routes.get(dbType, dbVersion);
+            if (driver != null) {
+                return driver;
+            }
+
+            Object event = DriverEvents.beginMatch();
+            String jarPath = null;
+            try {
+                DbInfo dbInfo = DbInfo.builder().dbType(dbType).dbVersion(dbVersion).build();
+                log.debug("begin match driver for :{}", dbInfo);
+                // 精确版本、通配符、区间和就近匹配都通过快照的版本索引查找
+                DriverMapping targetDriverMapping = snapshot.find(dbType, dbVersion);
+                if (targetDriverMapping == null) {
+                    throw new CanNotFindError(dbInfo.toString());
+                }
+                // 初始化类加载器和驱动，只读取一次驱动，淘汰线程随后释放驱动时不影响本次连接
+                DriverInfo driverInfo = targetDriverMapping.getDriverInfo();
+                Driver target = driverInfo.getDriver();
+                if (target == null) {
+                    long start = System.nanoTime();
+                    target = LoaderContext.initIfNecessary(driverInfo);
+                    DriverInitializer.initialized(targetDriverMapping.getDbInfo());
+                    if (ConnectMetrics.isEnabled()) {
+                        ConnectMetrics.of(dbType, dbVersion).recordInit(System.nanoTime() - start);
                     }
-                    targetDriverMapping = driverMapping;
-                    break;
                 }
+                log.info("choose driver mapping for [{}:{}] : {}", dbType, dbVersion,
+                        targetDriverMapping.getDbInfo().getDbVersion() + " -> " + driverInfo.getJarAbsolutePath());
+                jarPath = driverInfo.getJarAbsolutePath();
+                // 请求版本就是配置的版本时总是缓存，其他请求版本受路由表上限约束，避免每个不同的版本字符串都常驻内存
+                if (dbVersion.equals(targetDriverMapping.getDbInfo().getDbVersion())) {
+                    return routes.put(dbType, dbVersion, target);
+                }
+                return routes.putMatched(dbType, dbVersion, target);
+            } finally {
+                // 匹配失败时同样结束事件，驱动包路径为空
+                DriverEvents.endMatch(event, dbType, dbVersion, jarPath);
             }
-            if (targetDriverMapping == null) {
-                throw new CanNotFindError(dbInfo.toString());
-            }
-            log.info("choose driver mapping:" + targetDriverMapping.getDriverInfo());
-            return targetDriverMapping.getDriverInfo().getDriver();
         } catch (Exception e) {
-            log.error(e.getMessage());
-            throw new RuntimeException("not suitble driver be found :" + e);
+            log.error("match driver failed for [" + dbType + ":" + dbVersion + "]", e);
+            throw new RuntimeException("not suitble driver be found :" + e, e);
         }
 
     }
@@ -0,0 +1,328 @@
+package com.asia.driver.dynamic.match;
+
+import com.asia.driver.dynamic.bean.DriverMapping;
+import com.asia.driver.dynamic.loader.LoaderContext;
+import com.asia.driver.dynamic.log.DriverLog;
+import com.asia.driver.dynamic.utils.ThreadSupport;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.Driver;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @author wangwei
+ * @date 2024/04/08
+ * 数据库版本发现：URL和连接参数中都没有proxyDbVersion时，用引导驱动连接一次数据库，
+ * 读取DatabaseMetaData.getDatabaseProductVersion()作为数据库版本，再按版本匹配驱动。
+ * 1.结果按数据库类型和地址（host:port，不含用户信息）缓存，同一地址并发的第一次连接只探测一次，其余连接等待探测结果；
+ * 2.超过有效期后继续使用缓存的版本，同时在后台重新探测，探测失败时保留旧版本，
+ * 超过3倍有效期仍没有成功探测的版本丢弃，下次连接重新同步探测；
+ * 3.引导驱动默认使用该数据库类型中版本最高的驱动映射，也可以通过proxy.driver.discovery.bootstrap.${dbType}
+ * 指定driver.properties中配置的一个版本，例如-Dproxy.driver.discovery.bootstrap.mysql=8_0。
+ * 探测使用本次连接的用户名和密码，不保存在缓存中。
+ *
+ * 配置项（系统属性）：
+ * proxy.driver.discovery      是否开启数据库版本发现，默认false
+ * proxy.driver.discovery.ttl  探测结果的有效期（毫秒），默认600000
+ */
+public final class ServerVersionDiscovery {
+
+    private static final DriverLog log = DriverLog.getLog(ServerVersionDiscovery.class);
+
+    private static final boolean ENABLED = Boolean.getBoolean("proxy.driver.discovery");
+
+    private static final long TTL = Long.getLong("proxy.driver.discovery.ttl", 600000L);
+
+    private static final String BOOTSTRAP_PREFIX = "proxy.driver.discovery.bootstrap.";
+
+    // 后台探测的线程数，异步连接的第一次探测和过期后的刷新共用
+    private static final int THREADS = 4;
+
+    // 版本字符串中的第一个点分隔的数字，例如Oracle的"Oracle Database 19c ... Release 19.0.0.0.0 - Production"
+    private static final Pattern VERSION = Pattern.compile("\\d+(\\.\\d+)+");
+
+    // dbType|host:port -> 探测结果
+    private static final ConcurrentHashMap<String, Discovered> discovered = new ConcurrentHashMap<>();
+
+    private static volatile ExecutorService refresher;
+
+    private ServerVersionDiscovery() {
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * 获取数据库版本，第一次连接这个地址时同步探测，之后直接读取缓存
+     *
+     * @param dbType  数据库类型
+     * @param realUrl 真实驱动的URL
+     * @param props   真实驱动的连接参数，包含用户名和密码
+     * @return 数据库版本
+     * @throws SQLException 探测失败
+     */
+    public static String discover(String dbType, String realUrl, Properties props) throws SQLException {
+        String key = dbType + '|' + endpoint(realUrl);
+        String version = cached(key, dbType, realUrl, props);
+        if (version != null) {
+            return version;
+        }
+
+        Discovered created = new Discovered();
+        Discovered existing = discovered.putIfAbsent(key, created);
+        if (existing == null) {
+            return probeInto(key, created, dbType, realUrl, props);
+        }
+        return await(existing);
+    }
+
+    /**
+     * 异步获取数据库版本，缓存命中时返回已完成的future，否则在后台线程中探测，不阻塞调用方
+     *
+     * @param dbType  数据库类型
+     * @param realUrl 真实驱动的URL
+     * @param props   真实驱动的连接参数，包含用户名和密码
+     * @return 数据库版本的future，探测失败时以异常结束
+     */
+    public static CompletableFuture<String> discoverAsync(String dbType, String realUrl, Properties props) {
+        String key = dbType + '|' + endpoint(realUrl);
+        String version = cached(key, dbType, realUrl, props);
+        if (version != null) {
+            return CompletableFuture.completedFuture(version);
+        }
+
+        Discovered created = new Discovered();
+        Discovered existing = discovered.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing.future;
+        }
+        Properties copy = copy(props);
+        startRefresher();
+        refresher.execute(() -> {
+            try {
+                probeInto(key, created, dbType, realUrl, copy);
+            } catch (SQLException | RuntimeException e) {
+                // 已经通过future通知调用方
+            }
+        });
+        return created.future;
+    }
+
+    /**
+     * 读取有效的缓存版本，过期后触发后台刷新并继续返回缓存的版本，长时间没有刷新成功的版本丢弃
+     *
+     * @return 缓存的版本，没有或已丢弃时返回null
+     */
+    private static String cached(String key, String dbType, String realUrl, Properties props) {
+        Discovered current = discovered.get(key);
+        if (current == null || !current.future.isDone() || current.future.isCompletedExceptionally()) {
+            return null;
+        }
+        long age = System.currentTimeMillis() - current.discoveredAt;
+        if (age <= TTL) {
+            return current.future.join();
+        }
+        if (age <= TTL * 3) {
+            refresh(key, current, dbType, realUrl, props);
+            return current.future.join();
+        }
+        // 长时间没有成功刷新，丢弃后重新探测
+        discovered.remove(key, current);
+        return null;
+    }
+
+    /**
+     * 探测并完成已放入缓存的探测结果，失败的探测不缓存，下次连接重新探测
+     */
+    private static String probeInto(String key, Discovered created, String dbType, String realUrl, Properties props)
+            throws SQLException {
+        try {
+            String version = probe(dbType, realUrl, props);
+            created.discoveredAt = System.currentTimeMillis();
+            created.future.complete(version);
+            log.info("discovered version {} of [{}]", version, key);
+            return version;
+        } catch (SQLException | RuntimeException e) {
+            discovered.remove(key, created);
+            created.future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private static String await(Discovered discovering) throws SQLException {
+        try {
+            return discovering.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while discovering database version", "08001", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            throw new SQLException("discover database version failed : " + cause, "08001", cause);
+        }
+    }
+
+    /**
+     * 在后台重新探测，同一地址同时只有一个刷新任务
+     */
+    private static void refresh(String key, Discovered current, String dbType, String realUrl, Properties props) {
+        if (!current.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        // 调用方可能复用连接参数对象，后台探测使用副本
+        Properties copy = copy(props);
+        startRefresher();
+        refresher.execute(() -> {
+            try {
+                String version = probe(dbType, realUrl, copy);
+                Discovered refreshed = new Discovered();
+                refreshed.discoveredAt = System.currentTimeMillis();
+                refreshed.future.complete(version);
+                discovered.replace(key, current, refreshed);
+                if (!version.equals(current.future.join())) {
+                    log.info("version of [{}] changed from {} to {}", key, current.future.join(), version);
+                }
+            } catch (SQLException | RuntimeException e) {
+                log.warn("refresh version of [{}] failed, keep the cached version : {}", key, e.toString());
+            } finally {
+                current.refreshing.set(false);
+            }
+        });
+    }
+
+    private static Properties copy(Properties props) {
+        Properties copy = new Properties();
+        for (String name : props.stringPropertyNames()) {
+            copy.setProperty(name, props.getProperty(name));
+        }
+        return copy;
+    }
+
+    private static void startRefresher() {
+        if (refresher == null) {
+            synchronized (ServerVersionDiscovery.class) {
+                if (refresher == null) {
+                    // 多个线程，一个慢库的探测不会挡住其他地址的探测
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 60L, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<>(), ThreadSupport.daemonFactory("proxy-driver-discovery"));
+                    executor.allowCoreThreadTimeOut(true);
+                    refresher = executor;
+                }
+            }
+        }
+    }
+
+    /**
+     * 用引导驱动连接数据库读取版本
+     */
+    private static String probe(String dbType, String realUrl, Properties props) throws SQLException {
+        Driver driver = bootstrap(dbType);
+        try (Connection connection = driver.connect(realUrl, props)) {
+            if (connection == null) {
+                throw new SQLException("bootstrap driver " + driver.getClass().getName() + " does not accept " + realUrl, "08001");
+            }
+            DatabaseMetaData metaData = connection.getMetaData();
+            String version = normalize(metaData.getDatabaseProductVersion());
+            if (version == null) {
+                version = metaData.getDatabaseMajorVersion() + "." + metaData.getDatabaseMinorVersion();
+            }
+            return version;
+        }
+    }
+
+    private static Driver bootstrap(String dbType) {
+        String configured = System.getProperty(BOOTSTRAP_PREFIX + dbType);
+        if (configured != null) {
+            return new BasicDriverMatcher().match(dbType, configured.replace("_", "."));
+        }
+        DriverMapping mapping = LoaderContext.getSnapshot().findNewest(dbType);
+        if (mapping == null) {
+            throw new IllegalStateException("no driver mapping of " + dbType + " to discover database version");
+        }
+        return LoaderContext.initIfNecessary(mapping.getDriverInfo());
+    }
+
+    /**
+     * 取版本字符串中第一个点分隔的数字，例如PostgreSQL的"15.2 (Debian 15.2-1.pgdg110+1)"取15.2
+     */
+    static String normalize(String productVersion) {
+        if (productVersion == null) {
+            return null;
+        }
+        Matcher matcher = VERSION.matcher(productVersion);
+        return matcher.find() ? matcher.group() : null;
+    }
+
+    /**
+     * URL中//之后到/、?或;之前的部分，没有//时取?之前的部分，例如jdbc:oracle:thin:@host:1521:orcl；
+     * 去掉其中最后一个@之前的用户名和密码，缓存的key和getDiscovered()中不包含凭据
+     */
+    static String endpoint(String realUrl) {
+        int start = realUrl.indexOf("//");
+        if (start < 0) {
+            int query = realUrl.indexOf('?');
+            return stripUserInfo(query < 0 ? realUrl : realUrl.substring(0, query));
+        }
+        start += 2;
+        int end = realUrl.length();
+        for (char c : new char[]{'/', '?', ';'}) {
+            int index = realUrl.indexOf(c, start);
+            if (index >= 0 && index < end) {
+                end = index;
+            }
+        }
+        return stripUserInfo(realUrl.substring(start, end));
+    }
+
+    private static String stripUserInfo(String endpoint) {
+        int at = endpoint.lastIndexOf('@');
+        return at < 0 ? endpoint : endpoint.substring(at + 1);
+    }
+
+    /**
+     * @return 已探测的地址和版本，格式为dbType|host:port -> 版本
+     */
+    public static Map<String, String> getDiscovered() {
+        Map<String, String> versions = new TreeMap<>();
+        for (Map.Entry<String, Discovered> entry : discovered.entrySet()) {
+            CompletableFuture<String> future = entry.getValue().future;
+            if (future.isDone() && !future.isCompletedExceptionally()) {
+                versions.put(entry.getKey(), future.join());
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * 清空探测结果，下次连接重新探测，用于数据库升级后立即生效
+     */
+    public static void clear() {
+        discovered.clear();
+    }
+
+    private static final class Discovered {
+
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+
+        private volatile long discoveredAt;
+
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+    }
+}
@@ -0,0 +1,143 @@
+package com.asia.driver.dynamic.metrics;
+
+import com.asia.driver.dynamic.log.DriverLog;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author wangwei
+ * @date 2024/03/22
+ * 连接指标的注册中心，每个(dbType, dbVersion)路由一个{@link RouteMetrics}，
+ * 首次使用时注册为MBean：com.asia.driver.dynamic:type=ConnectMetrics,dbType=xxx,dbVersion=xxx
+ *
+ * 路由的版本来自调用方，为了不让任意的版本字符串注册出无限多的MBean：
+ * 1.只有匹配到驱动的路由单独统计，匹配之前的失败统一记在{@link #unmatched()}中；
+ * 2.单独统计的路由数量超过上限后，新路由记在所属数据库类型的other路由中。
+ *
+ * 配置项（系统属性）：
+ * proxy.driver.metrics             是否开启连接指标，默认true
+ * proxy.driver.metrics.max.routes  单独统计的路由数量上限，默认256
+ */
+public final class ConnectMetrics {
+
+    private static final DriverLog log = DriverLog.getLog(ConnectMetrics.class);
+
+    public static final String DOMAIN = "com.asia.driver.dynamic";
+
+    private static final boolean ENABLED =
+            Boolean.parseBoolean(System.getProperty("proxy.driver.metrics", "true"));
+
+    private static final int MAX_ROUTES = Integer.getInteger("proxy.driver.metrics.max.routes", 256);
+
+    // 缺少数据库类型或者版本、以及匹配驱动之前失败时使用的路由名
+    private static final String UNKNOWN = "unknown";
+
+    // 超过路由数量上限后使用的版本名
+    private static final String OTHER = "other";
+
+    private static final String EXCEPTION_PACKAGE = "com.asia.driver.dynamic.exception.";
+
+    // dbType -> (dbVersion -> metrics)
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, RouteMetrics>> metrics = new ConcurrentHashMap<>();
+
+    // 单独统计的路由数量，不包含unknown和other
+    private static final AtomicInteger routes = new AtomicInteger();
+
+    private ConnectMetrics() {
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * 获取已匹配到驱动的路由的指标，不存在时创建并注册MBean，路由数量超过上限时返回数据库类型的other路由
+     *
+     * @param dbType    数据库类型
+     * @param dbVersion 数据库版本
+     * @return 路由的指标
+     */
+    public static RouteMetrics of(String dbType, String dbVersion) {
+        String type = dbType == null || dbType.isEmpty() ? UNKNOWN : dbType;
+        String version = dbVersion == null || dbVersion.isEmpty() ? UNKNOWN : dbVersion;
+        ConcurrentHashMap<String, RouteMetrics> versions = versions(type);
+        RouteMetrics routeMetrics = versions.get(version);
+        if (routeMetrics != null) {
+            return routeMetrics;
+        }
+        if (routes.get() >= MAX_ROUTES) {
+            return versions.computeIfAbsent(OTHER, k -> register(new RouteMetrics(type, k)));
+        }
+        return versions.computeIfAbsent(version, k -> {
+            routes.incrementAndGet();
+            return register(new RouteMetrics(type, k));
+        });
+    }
+
+    /**
+     * 匹配驱动之前失败的连接的指标，数据库类型和版本都记为unknown
+     *
+     * @return unknown路由的指标
+     */
+    public static RouteMetrics unmatched() {
+        return versions(UNKNOWN).computeIfAbsent(UNKNOWN, k -> register(new RouteMetrics(UNKNOWN, k)));
+    }
+
+    private static ConcurrentHashMap<String, RouteMetrics> versions(String type) {
+        ConcurrentHashMap<String, RouteMetrics> versions = metrics.get(type);
+        if (versions == null) {
+            versions = metrics.computeIfAbsent(type, k -> new ConcurrentHashMap<>());
+        }
+        return versions;
+    }
+
+    /**
+     * 按异常类型记录失败，优先使用异常链中代理驱动自定义的异常类型
+     *
+     * @param routeMetrics 路由的指标
+     * @param t            异常
+     */
+    public static void failure(RouteMetrics routeMetrics, Throwable t) {
+        routeMetrics.failure(failureType(t));
+    }
+
+    static String failureType(Throwable t) {
+        Throwable cause = t;
+        int depth = 0;
+        while (cause != null && depth++ < 8) {
+            if (cause.getClass().getName().startsWith(EXCEPTION_PACKAGE)) {
+                return cause.getClass().getSimpleName();
+            }
+            cause = cause.getCause();
+        }
+        return t.getClass().getSimpleName();
+    }
+
+    public static List<RouteMetrics> all() {
+        List<RouteMetrics> all = new ArrayList<>();
+        for (ConcurrentHashMap<String, RouteMetrics> versions : metrics.values()) {
+            all.addAll(versions.values());
+        }
+        return all;
+    }
+
+    private static RouteMetrics register(RouteMetrics routeMetrics) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(DOMAIN + ":type=ConnectMetrics,dbType="
+                    + ObjectName.quote(routeMetrics.getDbType()) + ",dbVersion=" + ObjectName.quote(routeMetrics.getDbVersion()));
+            if (!server.isRegistered(name)) {
+                server.registerMBean(routeMetrics, name);
+            }
+        } catch (Exception e) {
+            log.warn("register connect metrics mbean failed for [{}] : {}", routeMetrics.getDbType() + ":" + routeMetrics.getDbVersion(), e.toString());
+        }
+        return routeMetrics;
+    }
+}
@@ -0,0 +1,128 @@
+package com.asia.driver.dynamic.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author wangwei
+ * @date 2024/03/22
+ * 无锁的延迟直方图，按2的幂分段，每段再等分为8个子桶，相对误差不超过12.5%。
+ * 记录时按线程分散到多个条带上，只做一次CAS自增，不分配对象。
+ */
+public class LatencyHistogram {
+
+    // 每个2的幂区间的子桶位数
+    private static final int SUB_BITS = 3;
+
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    // 最大记录到2^40纳秒（约18分钟），超出的记录到最后一个桶
+    private static final int MAX_EXPONENT = 40;
+
+    private static final int BUCKETS = (MAX_EXPONENT + 1) * SUB_COUNT;
+
+    private static final int STRIPES = stripes();
+
+    private final AtomicLongArray[] stripes;
+
+    public LatencyHistogram() {
+        stripes = new AtomicLongArray[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            // 每个条带末尾多留16个槽位，降低相邻条带之间的伪共享
+            stripes[i] = new AtomicLongArray(BUCKETS + 16);
+        }
+    }
+
+    private static int stripes() {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        int stripes = 1;
+        while (stripes < cpus && stripes < 16) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    /**
+     * 记录一次耗时
+     *
+     * @param nanos 耗时（纳秒）
+     */
+    public void record(long nanos) {
+        int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+        stripes[stripe].incrementAndGet(bucket(nanos));
+    }
+
+    static int bucket(long nanos) {
+        if (nanos < SUB_COUNT) {
+            return nanos < 0 ? 0 : (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    /**
+     * 桶的上界（纳秒）
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_COUNT + SUB_BITS - 1;
+        long sub = bucket % SUB_COUNT;
+        return ((SUB_COUNT + sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+
+    /**
+     * @return 记录的总次数
+     */
+    public long count() {
+        long count = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                count += stripe.get(i);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 计算百分位耗时
+     *
+     * @param percentile 百分位，如0.99
+     * @return 耗时（纳秒），没有记录时返回0
+     */
+    public long percentile(double percentile) {
+        long[] merged = new long[BUCKETS];
+        long count = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                long value = stripe.get(i);
+                merged[i] += value;
+                count += value;
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += merged[i];
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    public void reset() {
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                stripe.set(i, 0);
+            }
+        }
+    }
+}
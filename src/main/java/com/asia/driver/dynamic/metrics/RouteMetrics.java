@@ -0,0 +1,164 @@
+package com.asia.driver.dynamic.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author wangwei
+ * @date 2024/03/22
+ * 单个(dbType, dbVersion)路由的连接指标
+ */
+public class RouteMetrics implements RouteMetricsMXBean {
+
+    private final String dbType;
+
+    private final String dbVersion;
+
+    private final LatencyHistogram match = new LatencyHistogram();
+
+    private final LatencyHistogram init = new LatencyHistogram();
+
+    private final LatencyHistogram connect = new LatencyHistogram();
+
+    private final LongAdder successes = new LongAdder();
+
+    private final ConcurrentHashMap<String, LongAdder> failures = new ConcurrentHashMap<>();
+
+    public RouteMetrics(String dbType, String dbVersion) {
+        this.dbType = dbType;
+        this.dbVersion = dbVersion;
+    }
+
+    public void recordMatch(long nanos) {
+        match.record(nanos);
+    }
+
+    public void recordInit(long nanos) {
+        init.record(nanos);
+    }
+
+    public void recordConnect(long nanos) {
+        connect.record(nanos);
+    }
+
+    public void success() {
+        successes.increment();
+    }
+
+    public void failure(String type) {
+        LongAdder adder = failures.get(type);
+        if (adder == null) {
+            adder = failures.computeIfAbsent(type, k -> new LongAdder());
+        }
+        adder.increment();
+    }
+
+    @Override
+    public String getDbType() {
+        return dbType;
+    }
+
+    @Override
+    public String getDbVersion() {
+        return dbVersion;
+    }
+
+    @Override
+    public long getSuccessCount() {
+        return successes.sum();
+    }
+
+    @Override
+    public long getFailureCount() {
+        long count = 0;
+        for (LongAdder adder : failures.values()) {
+            count += adder.sum();
+        }
+        return count;
+    }
+
+    @Override
+    public Map<String, Long> getFailureCountByType() {
+        Map<String, Long> counts = new HashMap<>();
+        for (Map.Entry<String, LongAdder> entry : failures.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public long getMatchCount() {
+        return match.count();
+    }
+
+    @Override
+    public long getMatchP50() {
+        return micros(match.percentile(0.5));
+    }
+
+    @Override
+    public long getMatchP99() {
+        return micros(match.percentile(0.99));
+    }
+
+    @Override
+    public long getMatchP999() {
+        return micros(match.percentile(0.999));
+    }
+
+    @Override
+    public long getInitCount() {
+        return init.count();
+    }
+
+    @Override
+    public long getInitP50() {
+        return micros(init.percentile(0.5));
+    }
+
+    @Override
+    public long getInitP99() {
+        return micros(init.percentile(0.99));
+    }
+
+    @Override
+    public long getInitP999() {
+        return micros(init.percentile(0.999));
+    }
+
+    @Override
+    public long getConnectCount() {
+        return connect.count();
+    }
+
+    @Override
+    public long getConnectP50() {
+        return micros(connect.percentile(0.5));
+    }
+
+    @Override
+    public long getConnectP99() {
+        return micros(connect.percentile(0.99));
+    }
+
+    @Override
+    public long getConnectP999() {
+        return micros(connect.percentile(0.999));
+    }
+
+    @Override
+    public void reset() {
+        match.reset();
+        init.reset();
+        connect.reset();
+        successes.reset();
+        failures.clear();
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,51 @@
+package com.asia.driver.dynamic.metrics;
+
+import java.util.Map;
+
+/**
+ * @author wangwei
+ * @date 2024/03/22
+ * 单个(dbType, dbVersion)路由的连接指标，耗时单位均为微秒
+ */
+public interface RouteMetricsMXBean {
+
+    String getDbType();
+
+    String getDbVersion();
+
+    long getSuccessCount();
+
+    long getFailureCount();
+
+    // 按异常类型统计的失败次数
+    Map<String, Long> getFailureCountByType();
+
+    // 驱动匹配阶段，首次连接时包含类加载器和驱动的初始化
+    long getMatchCount();
+
+    long getMatchP50();
+
+    long getMatchP99();
+
+    long getMatchP999();
+
+    // 类加载器和驱动的初始化阶段
+    long getInitCount();
+
+    long getInitP50();
+
+    long getInitP99();
+
+    long getInitP999();
+
+    // 真实驱动的connect阶段
+    long getConnectCount();
+
+    long getConnectP50();
+
+    long getConnectP99();
+
+    long getConnectP999();
+
+    void reset();
+}
@@ -0,0 +1,124 @@
+package com.asia.driver.dynamic.pool;
+
+import com.asia.driver.dynamic.log.DriverLog;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @author wangwei
+ * @date 2024/03/12
+ * 逻辑连接创建的语句和元数据：
+ * 1.语句和元数据包装为代理，getConnection返回逻辑连接，调用方拿不到物理连接，也就无法关闭物理连接；
+ * 2.记录未关闭的语句，逻辑连接关闭时一起关闭，下一个借出者不会继承上一个借出者的语句。
+ */
+final class ConnectionChildren {
+
+    private static final DriverLog log = DriverLog.getLog(ConnectionChildren.class);
+
+    private static final Class<?>[] STATEMENT_INTERFACES = new Class<?>[]{Statement.class};
+
+    private static final Class<?>[] PREPARED_INTERFACES = new Class<?>[]{PreparedStatement.class};
+
+    private static final Class<?>[] CALLABLE_INTERFACES = new Class<?>[]{CallableStatement.class};
+
+    private static final Class<?>[] META_DATA_INTERFACES = new Class<?>[]{DatabaseMetaData.class};
+
+    // 未关闭的物理语句，按引用比较，不依赖驱动的equals和hashCode
+    private final Set<Statement> open = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    /**
+     * 包装物理连接方法的返回值，语句和元数据返回代理，其他返回值不变
+     *
+     * @param logical 逻辑连接
+     * @param result  物理连接方法的返回值
+     * @return 返回给调用方的对象
+     */
+    Object wrap(Connection logical, Object result) {
+        if (result instanceof Statement) {
+            Statement statement = (Statement) result;
+            open.add(statement);
+            Class<?>[] interfaces = statement instanceof CallableStatement ? CALLABLE_INTERFACES
+                    : statement instanceof PreparedStatement ? PREPARED_INTERFACES : STATEMENT_INTERFACES;
+            return Proxy.newProxyInstance(ConnectionChildren.class.getClassLoader(), interfaces,
+                    new Child(statement, logical, true));
+        }
+        if (result instanceof DatabaseMetaData) {
+            return Proxy.newProxyInstance(ConnectionChildren.class.getClassLoader(), META_DATA_INTERFACES,
+                    new Child(result, logical, false));
+        }
+        return result;
+    }
+
+    /**
+     * 关闭逻辑连接上所有未关闭的语句，逻辑连接关闭时调用
+     */
+    void closeAll() {
+        List<Statement> statements;
+        synchronized (open) {
+            statements = new ArrayList<>(open);
+            open.clear();
+        }
+        for (Statement statement : statements) {
+            try {
+                statement.close();
+            } catch (SQLException | RuntimeException e) {
+                log.debug("close statement failed : {}", e.getMessage());
+            }
+        }
+    }
+
+    private final class Child implements InvocationHandler {
+
+        private final Object target;
+
+        private final Connection logical;
+
+        private final boolean statement;
+
+        private Child(Object target, Connection logical, boolean statement) {
+            this.target = target;
+            this.logical = logical;
+            this.statement = statement;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "getConnection":
+                    return logical;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return target.toString();
+                case "close":
+                    if (statement) {
+                        open.remove(target);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package com.asia.driver.dynamic.pool;
+
+import com.asia.driver.dynamic.exception.ParamError;
+import com.asia.driver.dynamic.loader.DriverEvictor;
+import com.asia.driver.dynamic.log.DriverLog;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author wangwei
+ * @date 2024/03/12
+ * 内置连接池，一个{@link PoolKey}对应一个连接池
+ * 1.借出的连接数由信号量限制，获取许可和归还空闲连接在无竞争时都是CAS操作，不加锁；
+ * 2.空闲连接按后进先出复用，最近使用过的连接在校验间隔内直接借出；
+ * 3.空闲超时和超过最大存活时间的连接在借出时或后台清理时关闭；
+ * 4.物理连接创建时记录只读、隔离级别、catalog、schema、网络超时和holdability，
+ * 借出期间通过setter修改过的属性在归还时恢复，未关闭的语句在归还时关闭。
+ */
+public class ConnectionPool {
+
+    private static final DriverLog log = DriverLog.getLog(ConnectionPool.class);
+
+    // 校验连接的超时时间（秒）
+    private static final int VALIDATION_TIMEOUT = 1;
+
+    private static final Class<?>[] CONNECTION_INTERFACES = new Class<?>[]{Connection.class};
+
+    private final PoolKey key;
+
+    private final PoolConfig config;
+
+    private final Properties info;
+
+    // 空闲的物理连接，队头为最近归还的连接
+    private final ConcurrentLinkedDeque<PooledEntry> idle = new ConcurrentLinkedDeque<>();
+
+    // 借出连接的许可
+    private final Semaphore permits;
+
+    private volatile boolean closed;
+
+    public ConnectionPool(PoolKey key, PoolConfig config, Properties info) {
+        if (config.getMaxSize() <= 0) {
+            throw new ParamError("proxyPoolSize must be a positive integer : " + config.getMaxSize());
+        }
+        this.key = key;
+        this.config = config;
+        this.info = info;
+        this.permits = new Semaphore(config.getMaxSize());
+    }
+
+    public PoolKey getKey() {
+        return key;
+    }
+
+    public PoolConfig getConfig() {
+        return config;
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getActiveCount() {
+        return config.getMaxSize() - permits.availablePermits();
+    }
+
+    /**
+     * 借出一个逻辑连接，关闭逻辑连接时物理连接归还到连接池
+     *
+     * @return 逻辑连接
+     * @throws SQLException 连接池已关闭、等待超时或者创建物理连接失败
+     */
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("connection pool is closed : " + key);
+        }
+        acquire();
+        try {
+            PooledEntry entry;
+            long now = System.currentTimeMillis();
+            while ((entry = idle.pollFirst()) != null) {
+                if (isExpired(entry, now)) {
+                    entry.closePhysical();
+                    continue;
+                }
+                // 最近使用过的连接免校验
+                if (now - entry.lastUsed > config.getValidationInterval() && !isValid(entry)) {
+                    entry.closePhysical();
+                    continue;
+                }
+                return entry.lend(now);
+            }
+            Connection physical = key.getDriver().connect(key.getRealUrl(), info);
+            if (physical == null) {
+                throw new SQLException("real driver does not accept url : " + key.getRealUrl());
+            }
+            DriverEvictor.opened(key.getDriver(), physical);
+            return new PooledEntry(physical, now).lend(now);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void acquire() throws SQLException {
+        if (permits.tryAcquire()) {
+            return;
+        }
+        try {
+            if (!permits.tryAcquire(config.getBorrowTimeout(), TimeUnit.MILLISECONDS)) {
+                throw new SQLException("timeout waiting for pooled connection after "
+                        + config.getBorrowTimeout() + "ms : " + key);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted waiting for pooled connection : " + key, e);
+        }
+    }
+
+    /**
+     * 逻辑连接关闭时归还物理连接
+     */
+    private void giveBack(PooledEntry entry, boolean broken) {
+        try {
+            long now = System.currentTimeMillis();
+            if (closed || broken || isExpired(entry, now) || !reset(entry)) {
+                entry.closePhysical();
+            } else {
+                entry.lastUsed = now;
+                idle.offerFirst(entry);
+                // 归还时连接池刚好被关闭，由归还的线程负责关闭
+                if (closed && idle.remove(entry)) {
+                    entry.closePhysical();
+                }
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private boolean isExpired(PooledEntry entry, long now) {
+        return (config.getMaxLifetime() > 0 && now - entry.created > config.getMaxLifetime())
+                || (config.getIdleTimeout() > 0 && now - entry.lastUsed > config.getIdleTimeout());
+    }
+
+    private boolean isValid(PooledEntry entry) {
+        try {
+            return entry.physical.isValid(VALIDATION_TIMEOUT);
+        } catch (SQLException | RuntimeException | AbstractMethodError e) {
+            return false;
+        }
+    }
+
+    /**
+     * 归还前重置连接状态：未提交的事务回滚，借出期间修改过的属性恢复为创建时的值
+     */
+    private boolean reset(PooledEntry entry) {
+        try {
+            Connection physical = entry.physical;
+            if (physical.isClosed()) {
+                return false;
+            }
+            if (!physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            entry.restore();
+            physical.clearWarnings();
+            return true;
+        } catch (SQLException | RuntimeException e) {
+            log.debug("reset pooled connection failed : {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 关闭空闲超时和超过最大存活时间的空闲连接，由后台定时调用
+     */
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<PooledEntry> iterator = idle.descendingIterator();
+        while (iterator.hasNext()) {
+            PooledEntry entry = iterator.next();
+            if (isExpired(entry, now) && idle.remove(entry)) {
+                entry.closePhysical();
+            }
+        }
+    }
+
+    /**
+     * 关闭连接池，空闲连接立即关闭，借出的连接在归还时关闭
+     */
+    public void close() {
+        closed = true;
+        PooledEntry entry;
+        while ((entry = idle.pollFirst()) != null) {
+            entry.closePhysical();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private static final int READ_ONLY = 1;
+
+    private static final int ISOLATION = 1 << 1;
+
+    private static final int CATALOG = 1 << 2;
+
+    private static final int SCHEMA = 1 << 3;
+
+    private static final int NETWORK_TIMEOUT = 1 << 4;
+
+    private static final int HOLDABILITY = 1 << 5;
+
+    private interface Getter<T> {
+        T get() throws SQLException;
+    }
+
+    /**
+     * 读取连接属性，旧驱动没有实现的方法（如JDBC 4.1的getSchema）返回null
+     */
+    private static <T> T read(Getter<T> getter) {
+        try {
+            return getter.get();
+        } catch (SQLException | RuntimeException | AbstractMethodError e) {
+            return null;
+        }
+    }
+
+    /**
+     * 连接池中的物理连接
+     */
+    private final class PooledEntry {
+
+        private final Connection physical;
+
+        private final long created;
+
+        private volatile long lastUsed;
+
+        // 创建时的连接属性，驱动不支持的属性为null，归还时不恢复
+        private final Boolean readOnly;
+
+        private final Integer isolation;
+
+        private final String catalog;
+
+        private final String schema;
+
+        private final Integer networkTimeout;
+
+        private final Integer holdability;
+
+        // 借出期间通过setter修改过的属性，同一时间只有一个借出者
+        private int dirty;
+
+        private PooledEntry(Connection physical, long created) {
+            this.physical = physical;
+            this.created = created;
+            this.lastUsed = created;
+            this.readOnly = read(physical::isReadOnly);
+            this.isolation = read(physical::getTransactionIsolation);
+            this.catalog = read(physical::getCatalog);
+            this.schema = read(physical::getSchema);
+            this.networkTimeout = read(physical::getNetworkTimeout);
+            this.holdability = read(physical::getHoldability);
+        }
+
+        private void markDirty(String setter) {
+            switch (setter) {
+                case "setReadOnly":
+                    dirty |= READ_ONLY;
+                    break;
+                case "setTransactionIsolation":
+                    dirty |= ISOLATION;
+                    break;
+                case "setCatalog":
+                    dirty |= CATALOG;
+                    break;
+                case "setSchema":
+                    dirty |= SCHEMA;
+                    break;
+                case "setNetworkTimeout":
+                    dirty |= NETWORK_TIMEOUT;
+                    break;
+                case "setHoldability":
+                    dirty |= HOLDABILITY;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        /**
+         * 恢复借出期间修改过的属性，只在修改过时调用驱动，避免每次归还都访问数据库
+         */
+        private void restore() throws SQLException {
+            int changed = dirty;
+            if (changed == 0) {
+                return;
+            }
+            if ((changed & READ_ONLY) != 0 && readOnly != null) {
+                physical.setReadOnly(readOnly);
+            }
+            if ((changed & ISOLATION) != 0 && isolation != null) {
+                physical.setTransactionIsolation(isolation);
+            }
+            if ((changed & CATALOG) != 0 && catalog != null) {
+                physical.setCatalog(catalog);
+            }
+            if ((changed & SCHEMA) != 0 && schema != null) {
+                physical.setSchema(schema);
+            }
+            if ((changed & NETWORK_TIMEOUT) != 0 && networkTimeout != null) {
+                physical.setNetworkTimeout(Runnable::run, networkTimeout);
+            }
+            if ((changed & HOLDABILITY) != 0 && holdability != null) {
+                physical.setHoldability(holdability);
+            }
+            dirty = 0;
+        }
+
+        private Connection lend(long now) {
+            lastUsed = now;
+            return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                    CONNECTION_INTERFACES, new LogicalConnection(this));
+        }
+
+        private void closePhysical() {
+            try {
+                physical.close();
+            } catch (SQLException | RuntimeException e) {
+                log.debug("close pooled connection failed : {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 逻辑连接，close时归还物理连接，关闭后的调用抛出异常
+     */
+    private final class LogicalConnection implements InvocationHandler {
+
+        private final PooledEntry entry;
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private final ConnectionChildren children = new ConnectionChildren();
+
+        // 调用物理连接时抛出过致命异常，归还时直接关闭
+        private volatile boolean broken;
+
+        private LogicalConnection(PooledEntry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "close":
+                    if (closed.compareAndSet(false, true)) {
+                        children.closeAll();
+                        giveBack(entry, broken);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed.get() || entry.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + entry.physical + "]";
+                default:
+                    break;
+            }
+            if (closed.get()) {
+                throw new SQLException("Connection is closed");
+            }
+            if ("unwrap".equals(name) && ((Class<?>) args[0]).isInstance(entry.physical)) {
+                return entry.physical;
+            }
+            entry.markDirty(name);
+            try {
+                return children.wrap((Connection) proxy, method.invoke(entry.physical, args));
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SQLException && isFatal((SQLException) cause)) {
+                    broken = true;
+                }
+                throw cause;
+            }
+        }
+
+        /**
+         * SQLState 08开头表示连接异常
+         */
+        private boolean isFatal(SQLException e) {
+            String state = e.getSQLState();
+            return state != null && state.startsWith("08");
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.asia.driver.dynamic.pool;
+
+import com.asia.driver.dynamic.enums.ProxyProperty;
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * @author wangwei
+ * @date 2024/03/12
+ * 连接池配置，取值见{@link ProxyProperty}中的proxyPool*参数
+ */
+@Data
+@Builder
+public class PoolConfig {
+    // 最大物理连接数
+    private int maxSize;
+    // 空闲超时（毫秒）
+    private long idleTimeout;
+    // 物理连接最大存活时间（毫秒）
+    private long maxLifetime;
+    // 最近使用过的连接在该时间（毫秒）内免校验
+    private long validationInterval;
+    // 连接池耗尽时获取连接的最大等待时间（毫秒）
+    private long borrowTimeout;
+}
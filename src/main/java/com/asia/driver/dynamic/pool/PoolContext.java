@@ -0,0 +1,154 @@
+package com.asia.driver.dynamic.pool;
+
+import com.asia.driver.dynamic.enums.ProxyProperty;
+import com.asia.driver.dynamic.exception.ParamError;
+import com.asia.driver.dynamic.log.DriverLog;
+import com.asia.driver.dynamic.utils.ThreadSupport;
+
+import java.sql.Driver;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author wangwei
+ * @date 2024/03/12
+ * 连接池上下文，按{@link PoolKey}管理所有内置连接池
+ */
+public class PoolContext {
+
+    private static final DriverLog log = DriverLog.getLog(PoolContext.class);
+
+    // 后台清理过期空闲连接的间隔（毫秒）
+    private static final long EVICT_INTERVAL = Long.getLong("proxy.driver.pool.evict.interval", 30000L);
+
+    private static final ConcurrentHashMap<PoolKey, ConnectionPool> pools = new ConcurrentHashMap<>();
+
+    private static volatile ScheduledExecutorService evictor;
+
+    private PoolContext() {
+    }
+
+    /**
+     * 判断连接参数是否开启了内置连接池
+     *
+     * @param poolSize proxyPoolSize参数值
+     * @return 是否开启
+     * @throws ParamError 不是0或正整数
+     */
+    public static boolean isEnabled(String poolSize) {
+        if (poolSize == null || poolSize.isEmpty() || "0".equals(poolSize)) {
+            return false;
+        }
+        int size;
+        try {
+            size = Integer.parseInt(poolSize.trim());
+        } catch (NumberFormatException e) {
+            throw new ParamError("proxyPoolSize must be a positive integer : " + poolSize);
+        }
+        if (size < 0) {
+            throw new ParamError("proxyPoolSize must be a positive integer : " + poolSize);
+        }
+        return size > 0;
+    }
+
+    /**
+     * 获取已创建的连接池
+     *
+     * @param key 连接池的key
+     * @return 连接池，不存在时返回null
+     */
+    public static ConnectionPool getPool(PoolKey key) {
+        return pools.get(key);
+    }
+
+    /**
+     * 获取对应key的连接池，不存在时按参数创建
+     *
+     * @param key    连接池key
+     * @param params 代理参数，用于读取连接池配置
+     * @param info   真实驱动的连接参数，创建连接池时复制一份
+     * @return 连接池
+     */
+    public static ConnectionPool createPool(PoolKey key, Properties params, Properties info) {
+        return pools.computeIfAbsent(key, k -> {
+            PoolConfig config = PoolConfig.builder()
+                    .maxSize(ProxyProperty.POOL_SIZE.getInt(params))
+                    .idleTimeout(ProxyProperty.POOL_IDLE_TIMEOUT.getInt(params))
+                    .maxLifetime(ProxyProperty.POOL_MAX_LIFETIME.getInt(params))
+                    .validationInterval(ProxyProperty.POOL_VALIDATION_INTERVAL.getInt(params))
+                    .borrowTimeout(ProxyProperty.POOL_BORROW_TIMEOUT.getInt(params))
+                    .build();
+            Properties copy = new Properties();
+            for (String name : info.stringPropertyNames()) {
+                copy.setProperty(name, info.getProperty(name));
+            }
+            startEvictor();
+            log.info("create connection pool {} with {}", k, config);
+            return new ConnectionPool(k, config, copy);
+        });
+    }
+
+    private static void startEvictor() {
+        if (evictor == null) {
+            synchronized (PoolContext.class) {
+                if (evictor == null) {
+                    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+                            ThreadSupport.daemonFactory("proxy-driver-pool-evictor"));
+                    executor.scheduleWithFixedDelay(PoolContext::evictExpired, EVICT_INTERVAL, EVICT_INTERVAL, TimeUnit.MILLISECONDS);
+                    evictor = executor;
+                }
+            }
+        }
+    }
+
+    private static void evictExpired() {
+        for (ConnectionPool pool : pools.values()) {
+            try {
+                pool.evictExpired();
+            } catch (RuntimeException e) {
+                log.error("evict expired connections failed", e);
+            }
+        }
+    }
+
+    /**
+     * 关闭某个驱动的所有连接池
+     *
+     * @param driver 真实驱动
+     */
+    public static void closePools(Driver driver) {
+        for (PoolKey key : pools.keySet()) {
+            if (key.getDriver() == driver) {
+                ConnectionPool pool = pools.remove(key);
+                if (pool != null) {
+                    pool.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * 关闭所有连接池，代理驱动注销时调用
+     */
+    public static void closeAll() {
+        for (PoolKey key : pools.keySet()) {
+            ConnectionPool pool = pools.remove(key);
+            if (pool != null) {
+                pool.close();
+            }
+        }
+        synchronized (PoolContext.class) {
+            if (evictor != null) {
+                evictor.shutdownNow();
+                evictor = null;
+            }
+        }
+    }
+
+    public static int size() {
+        return pools.size();
+    }
+}
@@ -0,0 +1,62 @@
+package com.asia.driver.dynamic.pool;
+
+import java.sql.Driver;
+import java.util.Objects;
+
+/**
+ * @author wangwei
+ * @date 2024/03/12
+ * 连接池的key，同一个真实URL、用户凭证和驱动版本共用一个连接池
+ */
+public final class PoolKey {
+
+    private final String realUrl;
+
+    private final String user;
+
+    private final String password;
+
+    // 驱动实例，每个驱动版本只有一个实例，按引用比较
+    private final Driver driver;
+
+    private final int hash;
+
+    public PoolKey(String realUrl, String user, String password, Driver driver) {
+        this.realUrl = realUrl;
+        this.user = user;
+        this.password = password;
+        this.driver = driver;
+        this.hash = Objects.hash(realUrl, user, password, System.identityHashCode(driver));
+    }
+
+    public String getRealUrl() {
+        return realUrl;
+    }
+
+    public Driver getDriver() {
+        return driver;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PoolKey)) return false;
+        PoolKey poolKey = (PoolKey) o;
+        return driver == poolKey.driver &&
+                Objects.equals(realUrl, poolKey.realUrl) &&
+                Objects.equals(user, poolKey.user) &&
+                Objects.equals(password, poolKey.password);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        // 不输出密码
+        return "PoolKey(realUrl=" + realUrl + ", user=" + user + ", driver=" + driver.getClass().getName()
+                + " " + driver.getMajorVersion() + "." + driver.getMinorVersion() + ")";
+    }
+}
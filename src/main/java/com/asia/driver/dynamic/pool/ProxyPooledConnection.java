@@ -0,0 +1,158 @@
+package com.asia.driver.dynamic.pool;
+
+import javax.sql.ConnectionEvent;
+import javax.sql.ConnectionEventListener;
+import javax.sql.PooledConnection;
+import javax.sql.StatementEventListener;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * @author wangwei
+ * @date 2024/03/14
+ * 供外部连接池使用的{@link PooledConnection}，关闭句柄连接时通知监听器而不关闭物理连接，
+ * 句柄上创建的语句在句柄关闭时关闭，语句和元数据的getConnection返回句柄
+ */
+public class ProxyPooledConnection implements PooledConnection {
+
+    private static final Class<?>[] CONNECTION_INTERFACES = new Class<?>[]{Connection.class};
+
+    private final CopyOnWriteArrayList<ConnectionEventListener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile Connection physical;
+
+    // 当前借出的句柄
+    private volatile Handle handle;
+
+    public ProxyPooledConnection(Connection physical) {
+        this.physical = physical;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Connection connection = physical;
+        if (connection == null) {
+            throw new SQLException("This PooledConnection has already been closed.");
+        }
+        Handle current = handle;
+        // 同一时间只有一个有效句柄，重复获取时关闭之前的句柄
+        if (current != null) {
+            current.closed = true;
+        }
+        Handle next = new Handle(connection);
+        handle = next;
+        return (Connection) Proxy.newProxyInstance(ProxyPooledConnection.class.getClassLoader(),
+                CONNECTION_INTERFACES, next);
+    }
+
+    @Override
+    public void close() throws SQLException {
+        Connection connection = physical;
+        if (connection == null) {
+            return;
+        }
+        physical = null;
+        Handle current = handle;
+        if (current != null) {
+            current.closed = true;
+        }
+        connection.close();
+    }
+
+    @Override
+    public void addConnectionEventListener(ConnectionEventListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeConnectionEventListener(ConnectionEventListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void addStatementEventListener(StatementEventListener listener) {
+        // 不支持语句缓存
+    }
+
+    @Override
+    public void removeStatementEventListener(StatementEventListener listener) {
+        // 不支持语句缓存
+    }
+
+    private void fireClosed() {
+        ConnectionEvent event = new ConnectionEvent(this);
+        for (ConnectionEventListener listener : listeners) {
+            listener.connectionClosed(event);
+        }
+    }
+
+    private void fireError(SQLException e) {
+        ConnectionEvent event = new ConnectionEvent(this, e);
+        for (ConnectionEventListener listener : listeners) {
+            listener.connectionErrorOccurred(event);
+        }
+    }
+
+    /**
+     * 句柄连接，close时通知监听器，不关闭物理连接
+     */
+    private final class Handle implements InvocationHandler {
+
+        private final Connection connection;
+
+        private volatile boolean closed;
+
+        private final ConnectionChildren children = new ConnectionChildren();
+
+        private Handle(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        children.closeAll();
+                        if (!connection.getAutoCommit()) {
+                            connection.rollback();
+                        }
+                        fireClosed();
+                    }
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled connection wrapping physical connection " + connection;
+                default:
+                    break;
+            }
+            if (closed) {
+                throw new SQLException("Connection has been closed.");
+            }
+            try {
+                return children.wrap((Connection) proxy, method.invoke(connection, args));
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SQLException) {
+                    String state = ((SQLException) cause).getSQLState();
+                    if (state != null && state.startsWith("08")) {
+                        fireError((SQLException) cause);
+                    }
+                }
+                throw cause;
+            }
+        }
+    }
+}
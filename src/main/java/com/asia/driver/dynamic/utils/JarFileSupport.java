@@ -0,0 +1,43 @@
+package com.asia.driver.dynamic.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * @author wangwei
+ * @date 2024/03/31
+ * jar文件工具类，Java 8版本不识别多版本jar，按普通jar打开。
+ * Java 11及以上使用src/main/java11下的多版本实现，多版本jar按当前运行时的版本读取条目。
+ */
+public final class JarFileSupport {
+
+    private JarFileSupport() {
+    }
+
+    /**
+     * 以只读方式打开jar文件，校验签名
+     *
+     * @param file jar文件
+     * @return 打开的jar文件
+     */
+    public static JarFile open(File file) throws IOException {
+        return new JarFile(file, true);
+    }
+
+    /**
+     * @param jar 打开的jar文件
+     * @return jar中所有条目的名称，多版本jar中为当前运行时可见的条目名，不含META-INF/versions前缀
+     */
+    public static List<String> entryNames(JarFile jar) {
+        List<String> names = new ArrayList<>();
+        for (Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements(); ) {
+            names.add(e.nextElement().getName());
+        }
+        return names;
+    }
+}
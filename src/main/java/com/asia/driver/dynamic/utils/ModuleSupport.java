@@ -0,0 +1,21 @@
+package com.asia.driver.dynamic.utils;
+
+/**
+ * @author wangwei
+ * @date 2024/03/31
+ * 模块工具类，Java 8版本没有模块，无法列出JDK中的包。
+ * Java 11及以上使用src/main/java11下的多版本实现，从启动模块层中获取JDK的包。
+ */
+public final class ModuleSupport {
+
+    private ModuleSupport() {
+    }
+
+    /**
+     * @param packageName 包名，如javax.xml.parsers
+     * @return 启动类加载器或平台类加载器（Java 8为扩展类加载器）是否可能有这个包的类，无法确定时返回true
+     */
+    public static boolean isPlatformPackage(String packageName) {
+        return true;
+    }
+}
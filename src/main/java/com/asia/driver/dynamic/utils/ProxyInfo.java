@@ -5,13 +5,21 @@
 
 package com.asia.driver.dynamic.utils;
 
-import com.asia.driver.dynamic.enums.ProxyProperty;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Properties;
+import java.util.Set;
 
 /**
  * Utility class with constants of Driver information.
@@ -40,8 +48,10 @@ public final class ProxyInfo {
         log.debug("externalConfig :" + externalConfig);
 
         // classpath默认目录
+        // classpath中只有jar包时（例如打包后的可执行jar）没有classpath根目录
         ClassLoader systemClassLoader = ClassLoader.getSystemClassLoader();
-        String cpConfigFile = systemClassLoader.getResource("").getPath() + ProxyInfo.DEFAULT_CLASSPATH_CONFIG_PATH;
+        URL cpRoot = systemClassLoader.getResource("");
+        String cpConfigFile = cpRoot == null ? null : cpRoot.getPath() + ProxyInfo.DEFAULT_CLASSPATH_CONFIG_PATH;
         log.debug("cpConfigFile :" + cpConfigFile);
 
         if (userConfig != null) {
@@ -79,55 +89,83 @@ public final class ProxyInfo {
     public static final String DEFAULT_CLASSPATH_CONFIG_PATH = "driver";
     // 默认的配置文件名称
     public static final String DEFAULT_FILE_NAME = "driver.properties";
+    // 驱动清单文件名称，与driver.properties放在同一目录，登记内置驱动版本以外的驱动类
+    public static final String DEFAULT_CATALOG_FILE_NAME = "driver-catalog.properties";
 
     // 默认的classpath下配置文件相对路径
     public static final String DEFAULT_CLASSPATH_CONFIG_FILE_PATH = DEFAULT_CLASSPATH_CONFIG_PATH + File.separator + DEFAULT_FILE_NAME;
     // 默认的外部配置文件相对路径
     public static final String DEFAULT_EXTERNAL_CONFIG_FILE_PATH = DEFAULT_EXTERNAL_CONFIG_PATH + File.separator + DEFAULT_FILE_NAME;
 
+    // 本地缓存目录（预加载的类列表等），系统属性proxy.driver.cache.path，默认${java.io.tmpdir}/dynamic-driver
+    public static final String CACHE_PATH = System.getProperty("proxy.driver.cache.path",
+            System.getProperty("java.io.tmpdir") + File.separator + "dynamic-driver");
+
     public static void main(String[] args) {
         System.out.println(getProxyUrl("jdbc:postgresql://10.1.206.136:8402/postgres", "8.1.1"));
     }
 
-    public static String getProxyUrl(String url, String dbVersion) {
-        String proxyUrl = url;
-        if (!url.startsWith("proxy")) {
-            proxyUrl = "proxy:" + proxyUrl;
+    /**
+     * 创建缓存目录及不存在的上级目录，POSIX系统上新建的目录只有当前用户可以访问，已存在的目录不修改
+     *
+     * @param dir 缓存目录
+     * @throws IOException 创建失败
+     */
+    public static void createCacheDirectories(Path dir) throws IOException {
+        if (Files.isDirectory(dir)) {
+            return;
         }
-
-        if (!proxyUrl.contains("?")) {
-            return proxyUrl + "?" + ProxyProperty.DB_VERSION.getName() + "=" + dbVersion;
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        } else {
+            Files.createDirectories(dir);
         }
+    }
 
-        String urlArgs = url.substring(url.indexOf("?") + 1);
-        // "?" 后面有参数
-        if (urlArgs != null && !urlArgs.trim().equals("")) {
-            // 获取所有参数
-            Properties argsProp = new Properties();
-            String[] args = urlArgs.split("&");
-            for (String token : args) {
-                if (token.isEmpty()) {
-                    continue;
-                }
-                int pos = token.indexOf('=');
-                if (pos == -1) {
-                    argsProp.setProperty(token, "");
-                } else {
-                    String pName = token.substring(0, pos);
-                    String pValue = token.substring(pos + 1);
-                    argsProp.setProperty(pName, pValue);
-                }
+    /**
+     * 会影响驱动加载的缓存文件的位置：显式指定了缓存目录时保存在缓存目录中，
+     * 否则保存在第一个存在driver.properties的配置目录中，都没有时返回null，不使用共享的临时目录
+     *
+     * @param name 文件名
+     * @return 缓存文件，不持久化时返回null
+     */
+    public static Path getConfigCacheFile(String name) {
+        if (System.getProperty("proxy.driver.cache.path") != null) {
+            return Paths.get(CACHE_PATH, name);
+        }
+        for (String configPath : DRIVER_PATHES) {
+            File config = new File(configPath);
+            if (new File(config, DEFAULT_FILE_NAME).isFile()) {
+                return config.toPath().resolve(name).toAbsolutePath();
             }
+        }
+        return null;
+    }
 
-            if (ProxyProperty.DB_VERSION.get(argsProp) == null) {
-                proxyUrl = proxyUrl + "&" + ProxyProperty.DB_VERSION.getName() + "=" + dbVersion;
+    /**
+     * POSIX系统上缓存文件必须属于当前用户，文件和所在目录不能被其他用户写入；其他系统只依赖目录本身的访问控制
+     *
+     * @param file 缓存文件
+     * @return 是否可以信任文件内容
+     * @throws IOException 读取文件属性失败
+     */
+    public static boolean isTrustedCacheFile(Path file) throws IOException {
+        if (!Files.getFileStore(file).supportsFileAttributeView(PosixFileAttributeView.class)) {
+            return true;
+        }
+        if (!Files.getOwner(file).getName().equals(System.getProperty("user.name"))) {
+            return false;
+        }
+        for (Path path : new Path[]{file, file.toAbsolutePath().getParent()}) {
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(path);
+            if (permissions.contains(PosixFilePermission.GROUP_WRITE) || permissions.contains(PosixFilePermission.OTHERS_WRITE)) {
+                return false;
             }
-        } else {
-            // "?" 后面没有参数
-            proxyUrl = proxyUrl + ProxyProperty.DB_VERSION.getName() + "=" + dbVersion;
         }
+        return true;
+    }
 
-
-        return proxyUrl;
+    public static String getProxyUrl(String url, String dbVersion) {
+        return ProxyUrlParser.toProxyUrl(url, dbVersion);
     }
 }
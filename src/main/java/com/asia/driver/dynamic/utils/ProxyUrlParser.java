@@ -0,0 +1,153 @@
+package com.asia.driver.dynamic.utils;
+
+import com.asia.driver.dynamic.bean.ProxyUrl;
+import com.asia.driver.dynamic.enums.ProxyProperty;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author wangwei
+ * @date 2024/03/06
+ * 代理URL解析器，一次扫描完成数据库类型、代理参数、真实URL和透传参数的解析，
+ * 解析结果不可变，重复的URL直接从有界缓存中获取
+ */
+public final class ProxyUrlParser {
+
+    public static final String URL_PREFIX = "proxy:jdbc:";
+
+    private static final String PROXY_PREFIX = "proxy:";
+
+    // 缓存的URL数量上限，超过后整体清空重新填充
+    private static final int CACHE_SIZE = Integer.getInteger("proxy.driver.url.cache.size", 512);
+
+    // values()每次都会复制数组，这里缓存一份
+    private static final ProxyProperty[] PROXY_PROPERTIES = ProxyProperty.values();
+
+    private static final ConcurrentHashMap<String, ProxyUrl> CACHE = new ConcurrentHashMap<>();
+
+    private ProxyUrlParser() {
+    }
+
+    /**
+     * 判断是否为代理URL，只做前缀检查
+     *
+     * @param url JDBC URL
+     * @return 是否为代理URL
+     */
+    public static boolean isProxyUrl(String url) {
+        return url != null && url.startsWith(URL_PREFIX);
+    }
+
+    /**
+     * 解析代理URL，优先从缓存获取
+     *
+     * @param url JDBC URL
+     * @return 解析结果，不是代理URL时返回null
+     */
+    public static ProxyUrl parse(String url) {
+        if (!isProxyUrl(url)) {
+            return null;
+        }
+        ProxyUrl proxyUrl = CACHE.get(url);
+        if (proxyUrl != null) {
+            return proxyUrl;
+        }
+        proxyUrl = scan(url);
+        if (CACHE_SIZE > 0) {
+            if (CACHE.size() >= CACHE_SIZE) {
+                CACHE.clear();
+            }
+            CACHE.putIfAbsent(url, proxyUrl);
+        }
+        return proxyUrl;
+    }
+
+    /**
+     * 判断Properties中是否包含代理驱动的参数
+     *
+     * @param properties 连接参数
+     * @return 是否包含代理参数
+     */
+    public static boolean containsProxyProperty(Properties properties) {
+        for (ProxyProperty property : PROXY_PROPERTIES) {
+            if (properties.getProperty(property.getName()) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 一次扫描解析URL
+     * url="proxy:jdbc:postgresql://${host}:${port}/postgres?proxyDbVersion=1.1.1&aaa&bb=true"
+     */
+    private static ProxyUrl scan(String url) {
+        int length = url.length();
+        int qPos = url.indexOf('?', URL_PREFIX.length());
+        int serverEnd = qPos == -1 ? length : qPos;
+
+        //  dbType="postgresql"
+        String dbType = "";
+        int typeEnd = url.indexOf(':', URL_PREFIX.length());
+        if (typeEnd != -1 && typeEnd < serverEnd) {
+            dbType = url.substring(URL_PREFIX.length(), typeEnd);
+        }
+
+        Map<String, String> proxyParams = new LinkedHashMap<>();
+        Map<String, String> args = new LinkedHashMap<>();
+        // 重组参数，屏蔽代理驱动的参数，获取真实驱动的url
+        StringBuilder realUrl = new StringBuilder(length).append(url, PROXY_PREFIX.length(), serverEnd);
+        char separator = '?';
+
+        int start = qPos == -1 ? length : qPos + 1;
+        while (start < length) {
+            int end = url.indexOf('&', start);
+            if (end == -1) {
+                end = length;
+            }
+            if (end > start) {
+                int eq = url.indexOf('=', start);
+                String name;
+                String value;
+                if (eq == -1 || eq > end) {
+                    name = url.substring(start, end);
+                    value = "";
+                } else {
+                    name = url.substring(start, eq);
+                    value = url.substring(eq + 1, end);
+                }
+                if (ProxyProperty.forName(name) != null) {
+                    // 真实url需要屏蔽掉代理驱动的参数
+                    proxyParams.put(name, value);
+                } else {
+                    args.put(name, value);
+                    realUrl.append(separator).append(url, start, end);
+                    separator = '&';
+                }
+            }
+            start = end + 1;
+        }
+        return new ProxyUrl(url, dbType, realUrl.toString(), proxyParams, args);
+    }
+
+    /**
+     * 获取JDBC URL对应的代理URL，不包含数据库版本参数时追加
+     *
+     * @param url       JDBC URL或者代理URL
+     * @param dbVersion 数据库版本
+     * @return 代理URL
+     */
+    public static String toProxyUrl(String url, String dbVersion) {
+        String proxyUrl = url.startsWith(PROXY_PREFIX) ? url : PROXY_PREFIX + url;
+        ProxyUrl parsed = parse(proxyUrl);
+        if (parsed != null && parsed.getDbVersion() != null) {
+            return proxyUrl;
+        }
+        char last = proxyUrl.charAt(proxyUrl.length() - 1);
+        String separator = proxyUrl.indexOf('?') == -1 ? "?" : (last == '?' || last == '&') ? "" : "&";
+        return proxyUrl + separator + ProxyProperty.DB_VERSION.getName() + "=" + dbVersion;
+    }
+}
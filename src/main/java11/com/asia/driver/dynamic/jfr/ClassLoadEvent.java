@@ -0,0 +1,30 @@
+package com.asia.driver.dynamic.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * @author wangwei
+ * @date 2024/03/25
+ */
+@Name("com.asia.driver.dynamic.ClassLoad")
+@Label("Driver Class Load")
+@Description("Loading a class from driver jars, only slow loads are recorded by default")
+@Category({"Dynamic Driver"})
+@Threshold("1 ms")
+@StackTrace(false)
+class ClassLoadEvent extends jdk.jfr.Event {
+
+    @Label("Class Name")
+    String className;
+
+    @Label("Jar Path")
+    String jarPath;
+
+    @Label("Found")
+    boolean found;
+}
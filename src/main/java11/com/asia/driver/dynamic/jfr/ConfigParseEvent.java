@@ -0,0 +1,24 @@
+package com.asia.driver.dynamic.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * @author wangwei
+ * @date 2024/03/25
+ */
+@Name("com.asia.driver.dynamic.ConfigParse")
+@Label("Config Parse")
+@Description("Parsing driver.properties into driver mappings")
+@Category({"Dynamic Driver"})
+@Threshold("0 ms")
+@StackTrace(false)
+class ConfigParseEvent extends jdk.jfr.Event {
+
+    @Label("Mappings")
+    int mappings;
+}
@@ -0,0 +1,123 @@
+package com.asia.driver.dynamic.jfr;
+
+/**
+ * @author wangwei
+ * @date 2024/03/25
+ * 代理驱动的JFR事件入口，Java 11及以上的实现。
+ * 未开启JFR记录时isEnabled为false，事件对象会被JIT逃逸分析消除，begin返回null。
+ * 各事件的阈值通过JFR配置调整，例如：
+ * <pre>
+ *  -XX:StartFlightRecording:com.asia.driver.dynamic.ClassLoad#threshold=5ms
+ * </pre>
+ */
+public final class DriverEvents {
+
+    private DriverEvents() {
+    }
+
+    public static Object beginConnect() {
+        return begin(new ConnectEvent());
+    }
+
+    public static void endConnect(Object event, String dbType, String dbVersion, boolean success) {
+        if (event instanceof ConnectEvent) {
+            ConnectEvent connect = (ConnectEvent) event;
+            connect.end();
+            if (connect.shouldCommit()) {
+                connect.route = dbType + ":" + dbVersion;
+                connect.success = success;
+                connect.commit();
+            }
+        }
+    }
+
+    public static Object beginMatch() {
+        return begin(new MatchEvent());
+    }
+
+    public static void endMatch(Object event, String dbType, String dbVersion, String jarPath) {
+        if (event instanceof MatchEvent) {
+            MatchEvent match = (MatchEvent) event;
+            match.end();
+            if (match.shouldCommit()) {
+                match.route = dbType + ":" + dbVersion;
+                match.jarPath = jarPath;
+                match.commit();
+            }
+        }
+    }
+
+    public static Object beginInitClassLoader() {
+        return begin(new InitClassLoaderEvent());
+    }
+
+    public static void endInitClassLoader(Object event, String dbType, String jarPath, int jarCount) {
+        if (event instanceof InitClassLoaderEvent) {
+            InitClassLoaderEvent init = (InitClassLoaderEvent) event;
+            init.end();
+            if (init.shouldCommit()) {
+                init.dbType = dbType;
+                init.jarPath = jarPath;
+                init.jarCount = jarCount;
+                init.commit();
+            }
+        }
+    }
+
+    public static Object beginInitDriver() {
+        return begin(new InitDriverEvent());
+    }
+
+    public static void endInitDriver(Object event, String dbType, String jarPath, String className) {
+        if (event instanceof InitDriverEvent) {
+            InitDriverEvent init = (InitDriverEvent) event;
+            init.end();
+            if (init.shouldCommit()) {
+                init.dbType = dbType;
+                init.jarPath = jarPath;
+                init.className = className;
+                init.commit();
+            }
+        }
+    }
+
+    public static Object beginClassLoad() {
+        return begin(new ClassLoadEvent());
+    }
+
+    public static void endClassLoad(Object event, String className, String jarPath, boolean found) {
+        if (event instanceof ClassLoadEvent) {
+            ClassLoadEvent load = (ClassLoadEvent) event;
+            load.end();
+            if (load.shouldCommit()) {
+                load.className = className;
+                load.jarPath = jarPath;
+                load.found = found;
+                load.commit();
+            }
+        }
+    }
+
+    public static Object beginConfigParse() {
+        return begin(new ConfigParseEvent());
+    }
+
+    public static void endConfigParse(Object event, int mappings) {
+        if (event instanceof ConfigParseEvent) {
+            ConfigParseEvent parse = (ConfigParseEvent) event;
+            parse.end();
+            if (parse.shouldCommit()) {
+                parse.mappings = mappings;
+                parse.commit();
+            }
+        }
+    }
+
+    private static Object begin(jdk.jfr.Event event) {
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+}
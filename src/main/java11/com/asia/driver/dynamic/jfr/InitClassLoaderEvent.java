@@ -0,0 +1,30 @@
+package com.asia.driver.dynamic.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * @author wangwei
+ * @date 2024/03/25
+ */
+@Name("com.asia.driver.dynamic.InitClassLoader")
+@Label("Init Class Loader")
+@Description("Creating the isolated class loader of a driver")
+@Category({"Dynamic Driver"})
+@Threshold("0 ms")
+@StackTrace(false)
+class InitClassLoaderEvent extends jdk.jfr.Event {
+
+    @Label("Database Type")
+    String dbType;
+
+    @Label("Jar Path")
+    String jarPath;
+
+    @Label("Jar Count")
+    int jarCount;
+}
@@ -0,0 +1,27 @@
+package com.asia.driver.dynamic.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * @author wangwei
+ * @date 2024/03/25
+ */
+@Name("com.asia.driver.dynamic.Match")
+@Label("Driver Match")
+@Description("Matching a driver mapping for a route")
+@Category({"Dynamic Driver"})
+@Threshold("0 ms")
+@StackTrace(false)
+class MatchEvent extends jdk.jfr.Event {
+
+    @Label("Route")
+    String route;
+
+    @Label("Jar Path")
+    String jarPath;
+}
@@ -0,0 +1,48 @@
+package com.asia.driver.dynamic.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.ZipFile;
+
+/**
+ * @author wangwei
+ * @date 2024/03/31
+ * jar文件工具类的Java 11版本，多版本jar（MANIFEST.MF中Multi-Release: true）按当前运行时的版本打开，
+ * 同名条目优先读取META-INF/versions/${version}下的版本，与URLClassLoader一致。
+ */
+public final class JarFileSupport {
+
+    private JarFileSupport() {
+    }
+
+    /**
+     * 以只读方式打开jar文件，校验签名
+     *
+     * @param file jar文件
+     * @return 打开的jar文件
+     */
+    public static JarFile open(File file) throws IOException {
+        return new JarFile(file, true, ZipFile.OPEN_READ, JarFile.runtimeVersion());
+    }
+
+    /**
+     * @param jar 打开的jar文件
+     * @return jar中所有条目的名称，多版本jar中为当前运行时可见的条目名，不含META-INF/versions前缀
+     */
+    public static List<String> entryNames(JarFile jar) {
+        List<String> names = new ArrayList<>();
+        if (jar.isMultiRelease()) {
+            jar.versionedStream().forEach(entry -> names.add(entry.getName()));
+            return names;
+        }
+        for (Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements(); ) {
+            names.add(e.nextElement().getName());
+        }
+        return names;
+    }
+}
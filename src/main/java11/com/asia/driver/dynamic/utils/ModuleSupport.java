@@ -0,0 +1,37 @@
+package com.asia.driver.dynamic.utils;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * @author wangwei
+ * @date 2024/03/31
+ * 模块工具类的Java 11版本，启动模块层中由启动类加载器和平台类加载器定义的模块的包即为JDK的包。
+ */
+public final class ModuleSupport {
+
+    private static final Set<String> PLATFORM_PACKAGES = platformPackages();
+
+    private ModuleSupport() {
+    }
+
+    /**
+     * @param packageName 包名，如javax.xml.parsers
+     * @return 启动类加载器或平台类加载器是否有这个包的类
+     */
+    public static boolean isPlatformPackage(String packageName) {
+        return PLATFORM_PACKAGES.contains(packageName);
+    }
+
+    private static Set<String> platformPackages() {
+        ClassLoader platform = ClassLoader.getPlatformClassLoader();
+        Set<String> packages = new HashSet<>();
+        for (Module module : ModuleLayer.boot().modules()) {
+            ClassLoader loader = module.getClassLoader();
+            if (loader == null || loader == platform) {
+                packages.addAll(module.getPackages());
+            }
+        }
+        return packages;
+    }
+}
@@ -0,0 +1,54 @@
+package com.asia.driver.dynamic.utils;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author wangwei
+ * @date 2024/03/20
+ * 线程工具类的Java 21版本，连接线程默认使用虚拟线程，
+ * 可以通过系统属性proxy.driver.virtual.threads=false关闭。
+ */
+public final class ThreadSupport {
+
+    private static final boolean VIRTUAL =
+            Boolean.parseBoolean(System.getProperty("proxy.driver.virtual.threads", "true"));
+
+    private ThreadSupport() {
+    }
+
+    /**
+     * @return 当前运行环境的连接线程是否为虚拟线程
+     */
+    public static boolean isVirtual() {
+        return VIRTUAL;
+    }
+
+    /**
+     * 创建守护线程的工厂，用于定时器、日志等后台线程
+     *
+     * @param prefix 线程名前缀
+     * @return 线程工厂
+     */
+    public static ThreadFactory daemonFactory(String prefix) {
+        AtomicInteger index = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + "-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * 创建执行阻塞连接任务的线程工厂
+     *
+     * @param prefix 线程名前缀
+     * @return 线程工厂
+     */
+    public static ThreadFactory connectFactory(String prefix) {
+        if (VIRTUAL) {
+            return Thread.ofVirtual().name(prefix + "-", 1).factory();
+        }
+        return daemonFactory(prefix);
+    }
+}